@@ -0,0 +1,46 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids.benchmarks;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.fissore.steroids.ShapedMap;
+
+/**
+ * The backing maps every benchmark is run against
+ */
+public enum Backing {
+
+  HASH_MAP(HashMap::new),
+  LINKED_HASH_MAP(LinkedHashMap::new),
+  CONCURRENT_HASH_MAP(ConcurrentHashMap::new),
+  SHAPED_MAP(ShapedMap::new);
+
+  private final Supplier<Map<String, Object>> factory;
+
+  Backing(Supplier<Map<String, Object>> factory) {
+    this.factory = factory;
+  }
+
+  public Map<String, Object> newMap() {
+    return factory.get();
+  }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fissore.steroids.JsonReader;
+import org.fissore.steroids.JsonWriter;
+import org.fissore.steroids.LazyJsonMap;
+import org.fissore.steroids.SMap;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Reading a few fields of a JSON document with {@link JsonReader} and {@link LazyJsonMap}, and writing it back with {@link JsonWriter}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class JsonBenchmark {
+
+  @Param({"10", "50", "500"})
+  public int fields;
+
+  private byte[] json;
+  private SMap map;
+  private JsonReader reader;
+  private JsonWriter writer;
+
+  @Setup
+  public void setUp() {
+    map = new SMap();
+    for (int i = 0; i < fields; i++) {
+      map.add("key" + i, i % 2 == 0 ? "value " + i : new SMap().add("id", i).add("name", "name " + i));
+    }
+    writer = new JsonWriter();
+    reader = new JsonReader();
+    json = writer.toBytes(map);
+  }
+
+  @Benchmark
+  public int readFewFields() {
+    SMap map = reader.readMap(json);
+    return map.s("key0").length() + map.map("key1").i("id");
+  }
+
+  @Benchmark
+  public int readFewFieldsLazily() {
+    LazyJsonMap map = LazyJsonMap.of(json);
+    return map.s("key0").length() + map.map("key1").i("id");
+  }
+
+  @Benchmark
+  public byte[] write() {
+    return writer.toBytes(map);
+  }
+
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.fissore.steroids.PersistentSMap;
+import org.fissore.steroids.SMap;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Throughput of {@link PersistentSMap} versions against copying a {@link SMap} before modifying it
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PersistentSMapBenchmark {
+
+  @Param({"10", "100", "1000"})
+  public int size;
+
+  private SMap map;
+  private PersistentSMap persistentMap;
+
+  @Setup
+  public void setUp() {
+    map = new SMap();
+    for (int i = 0; i < size; i++) {
+      map.add("key" + i, i);
+    }
+    persistentMap = PersistentSMap.of(map);
+  }
+
+  @Benchmark
+  public SMap copyAndAdd() {
+    return map.copy().add("key0", -1);
+  }
+
+  @Benchmark
+  public PersistentSMap add() {
+    return persistentMap.add("key0", -1);
+  }
+
+  @Benchmark
+  public int get() {
+    return persistentMap.i("key0");
+  }
+
+}
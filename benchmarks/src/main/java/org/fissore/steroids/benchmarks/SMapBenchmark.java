@@ -0,0 +1,192 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.fissore.steroids.SMap;
+import org.fissore.steroids.SPath;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the SteroidMap hot paths, against every {@link Backing}
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SMapBenchmark {
+
+  private static final SPath STREETNAME = SPath.compile("address.streetname");
+
+  @Param
+  public Backing backing;
+
+  private SMap map;
+  private List<Map<String, Object>> plainFriends;
+  private List<Map<String, Object>> sources;
+
+  @Setup
+  public void setUp() {
+    map = newSMap()
+        .add("name", "John")
+        .add("surname", "Smith")
+        .add("height", 187)
+        .add("id", 42L)
+        .add("score", 8.5d)
+        .add("address", newSMap()
+            .add("streetname", "One way")
+            .add("number", 1))
+        .add("friends", Arrays.asList(
+            newSMap()
+                .add("name", "Jane")
+                .add("surname", "Doe")
+                .add("social", "twitter handle"),
+            newSMap()
+                .add("name", "John")
+                .add("surname", "Doe")
+                .add("social", "facebook profile"),
+            newSMap()
+                .add("name", "Jane")
+                .add("surname", "Smith")
+        ));
+
+    plainFriends = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      Map<String, Object> friend = backing.newMap();
+      friend.put("name", "Jane");
+      friend.put("surname", i % 2 == 0 ? "Doe" : "Smith");
+      plainFriends.add(friend);
+    }
+    map.add("plainFriends", new ArrayList<>(plainFriends));
+
+    sources = Arrays.asList(
+        newSMap().add("name", "Jane").add("surname", "Doe"),
+        newSMap().add("height", 170).add("weight", 60));
+  }
+
+  private SMap newSMap() {
+    return new SMap(backing.newMap());
+  }
+
+  @Benchmark
+  public SMap add() {
+    return map.add("name", "Jane");
+  }
+
+  @Benchmark
+  public SMap addLong() {
+    return map.add("id", 1234567L);
+  }
+
+  @Benchmark
+  public String s() {
+    return map.s("name");
+  }
+
+  @Benchmark
+  public int i() {
+    return map.i("height");
+  }
+
+  @Benchmark
+  public long l() {
+    return map.l("id");
+  }
+
+  @Benchmark
+  public double d() {
+    return map.d("score");
+  }
+
+  @Benchmark
+  public void defaultIfMissing(Blackhole bh) {
+    bh.consume(map.s("name", "none"));
+    bh.consume(map.s("nickname", "none"));
+  }
+
+  @Benchmark
+  public String map() {
+    return map.map("address").s("streetname");
+  }
+
+  @Benchmark
+  public String path() {
+    return STREETNAME.s(map);
+  }
+
+  @Benchmark
+  public List<String> maps() {
+    return map.maps("friends")
+        .filter(friend -> "Doe".equals(friend.s("surname")))
+        .map(friend -> friend.s("name"))
+        .collect(Collectors.toList());
+  }
+
+  /* promoteMaps replaces the plain maps of the list it streams: both benchmarks stream a fresh copy of the list, so that each invocation finds plain maps */
+  private SMap withPlainFriends() {
+    return map.add("plainFriends", new ArrayList<>(plainFriends));
+  }
+
+  @Benchmark
+  public long mapsOfPlainMaps() {
+    return withPlainFriends().maps("plainFriends")
+        .filter(friend -> "Doe".equals(friend.s("surname")))
+        .count();
+  }
+
+  @Benchmark
+  public long promoteMapsOfPlainMaps() {
+    return withPlainFriends().promoteMaps("plainFriends")
+        .filter(friend -> "Doe".equals(friend.s("surname")))
+        .count();
+  }
+
+  @Benchmark
+  public SMap subMap() {
+    return map.subMap("name", "surname", "address");
+  }
+
+  @Benchmark
+  public SMap addAll() {
+    return newSMap().addAll(sources.stream());
+  }
+
+  @Benchmark
+  public SMap renameKey() {
+    return map.renameKey("name", "firstname").renameKey("firstname", "name");
+  }
+
+  @Benchmark
+  public SMap del() {
+    return map.del(Stream.of("surname")).add("surname", "Smith");
+  }
+
+  @Benchmark
+  public SMap copy() {
+    return map.copy();
+  }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * A skeletal implementation of {@link SteroidMap}, for implementations that don't delegate the storage to a backing map.
+ * Like {@link AbstractMap}, subclasses have to implement {@link #entrySet()} and, unless read only, {@link #put(Object, Object)}.
+ * Sub maps and copies are {@link SMap}s, nested maps that are not SteroidMaps are wrapped into {@link SMap}s
+ */
+public abstract class AbstractSteroidMap extends AbstractMap<String, Object> implements SteroidMap<String> {
+
+  @Override
+  public SteroidMap<String> subMap(Stream<String> keys) {
+    return subMap(new SMap(), keys);
+  }
+
+  @Override
+  public SteroidMap<String> subMap(Map<String, Object> backingMap, Stream<String> keys) {
+    SMap subMap = new SMap(backingMap);
+    keys.forEach(key -> subMap.add(key, get(key)));
+    return subMap;
+  }
+
+  @Override
+  public SteroidMap<String> map(String key) {
+    return ensureMapIsOnSteroid(get(key));
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public SteroidMap<String> ensureMapIsOnSteroid(Object value) {
+    if (value == null) {
+      return null;
+    }
+    if (value instanceof SteroidMap) {
+      return (SteroidMap<String>) value;
+    }
+    if (value instanceof Map) {
+      return new SMap((Map<String, Object>) value);
+    }
+    throw new IllegalArgumentException(value + " is neither a Map or a SteroidMap");
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public SteroidMap<String> copy() {
+    return new SMap(size()).addAll(this);
+  }
+
+}
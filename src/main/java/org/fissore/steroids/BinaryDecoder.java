@@ -0,0 +1,317 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import static org.fissore.steroids.BinaryFormat.*;
+
+/**
+ * BinaryDecoder reads the values written by a {@link BinaryEncoder}, in the same order they were written.
+ * Maps are decoded into {@link SMap}s, collections and arrays into {@link ArrayList}s.
+ * A BinaryDecoder is not thread safe
+ */
+public class BinaryDecoder {
+
+  private final IntFunction<Map<String, Object>> mapFactory;
+  private final List<String> keys;
+  private final boolean frozen;
+  private byte[] scratch;
+
+  /**
+   * Creates a new BinaryDecoder, whose maps are backed by {@link java.util.HashMap}s
+   */
+  public BinaryDecoder() {
+    this(SMap.HASH_MAP_FACTORY);
+  }
+
+  /**
+   * Creates a new BinaryDecoder, whose maps are created by given factory
+   *
+   * @param mapFactory the factory of the backing maps. It's given the number of mappings the new map will hold
+   * @see SMap#SMap(Map, IntFunction)
+   */
+  public BinaryDecoder(IntFunction<Map<String, Object>> mapFactory) {
+    this(mapFactory, new ArrayList<>(), false);
+  }
+
+  /**
+   * Creates a new BinaryDecoder with given dictionary. A frozen dictionary already holds all the keys the values will define: then values can be decoded in any order
+   */
+  BinaryDecoder(IntFunction<Map<String, Object>> mapFactory, List<String> keys, boolean frozen) {
+    if (mapFactory == null) {
+      throw new NullPointerException();
+    }
+    this.mapFactory = mapFactory;
+    this.keys = keys;
+    this.frozen = frozen;
+  }
+
+  /**
+   * Reads a value, from the position of given buffer, which is then moved past the read bytes
+   *
+   * @param buffer the source
+   * @return the value
+   * @throws IllegalArgumentException           if the bytes are not a valid value
+   * @throws java.nio.BufferUnderflowException if the value is truncated
+   */
+  public Object decode(ByteBuffer buffer) {
+    return readValue(buffer);
+  }
+
+  /**
+   * Reads a map, from the position of given buffer, which is then moved past the read bytes
+   *
+   * @param buffer the source
+   * @return the map
+   * @throws IllegalArgumentException           if the bytes are not a valid map
+   * @throws java.nio.BufferUnderflowException if the map is truncated
+   */
+  public SMap decodeMap(ByteBuffer buffer) {
+    Object value = readValue(buffer);
+    if (value instanceof SMap) {
+      return (SMap) value;
+    }
+    throw new IllegalArgumentException(value + " is not a map");
+  }
+
+  /**
+   * Reads a value
+   *
+   * @param bytes the source
+   * @return the value
+   * @throws IllegalArgumentException if the bytes are not a valid value
+   */
+  public Object decode(byte[] bytes) {
+    return decode(ByteBuffer.wrap(bytes));
+  }
+
+  /**
+   * Forgets all the keys read so far, starting a new stream. The encoder must be {@link BinaryEncoder#reset() reset} too
+   */
+  public void reset() {
+    if (!frozen) {
+      keys.clear();
+    }
+  }
+
+  /* values */
+
+  private Object readValue(ByteBuffer buffer) {
+    byte tag = buffer.get();
+    switch (tag) {
+      case NULL:
+        return null;
+      case FALSE:
+        return Boolean.FALSE;
+      case TRUE:
+        return Boolean.TRUE;
+      case INT:
+        return (int) unzigzag(readVarLong(buffer));
+      case LONG:
+        return unzigzag(readVarLong(buffer));
+      case DOUBLE:
+        return buffer.getDouble();
+      case FLOAT:
+        return buffer.getFloat();
+      case STRING:
+        return readString(buffer);
+      case DATE:
+        return new Date(unzigzag(readVarLong(buffer)));
+      case MAP:
+        return readMap(buffer);
+      case LIST:
+        int size = readSize(buffer);
+        List<Object> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+          list.add(readValue(buffer));
+        }
+        return list;
+      case BYTES:
+        return readBytes(buffer);
+      case CHAR:
+        return (char) readVarLong(buffer);
+      case SHORT:
+        return (short) unzigzag(readVarLong(buffer));
+      case BYTE:
+        return buffer.get();
+      case BIG_INTEGER:
+        return readBigInteger(buffer);
+      case BIG_DECIMAL:
+        int scale = (int) unzigzag(readVarLong(buffer));
+        return new BigDecimal(readBigInteger(buffer), scale);
+      default:
+        throw invalid(buffer, "unknown tag " + tag);
+    }
+  }
+
+  /**
+   * Skips a value without decoding it
+   */
+  void skipValue(ByteBuffer buffer) {
+    byte tag = buffer.get();
+    switch (tag) {
+      case NULL:
+      case FALSE:
+      case TRUE:
+        break;
+      case INT:
+      case LONG:
+      case DATE:
+      case CHAR:
+      case SHORT:
+        readVarLong(buffer);
+        break;
+      case BYTE:
+        buffer.get();
+        break;
+      case BIG_DECIMAL:
+        readVarLong(buffer);
+        buffer.position(buffer.position() + readSize(buffer));
+        break;
+      case DOUBLE:
+        buffer.position(buffer.position() + Double.BYTES);
+        break;
+      case FLOAT:
+        buffer.position(buffer.position() + Float.BYTES);
+        break;
+      case STRING:
+      case BYTES:
+      case BIG_INTEGER:
+        int length = readSize(buffer);
+        buffer.position(buffer.position() + length);
+        break;
+      case MAP:
+        int entries = readSize(buffer);
+        for (int i = 0; i < entries; i++) {
+          readKey(buffer);
+          skipValue(buffer);
+        }
+        break;
+      case LIST:
+        int elements = readSize(buffer);
+        for (int i = 0; i < elements; i++) {
+          skipValue(buffer);
+        }
+        break;
+      default:
+        throw invalid(buffer, "unknown tag " + tag);
+    }
+  }
+
+  private SMap readMap(ByteBuffer buffer) {
+    int size = readSize(buffer);
+    Map<String, Object> map = mapFactory.apply(size);
+    for (int i = 0; i < size; i++) {
+      String key = readKey(buffer);
+      Object value = readValue(buffer);
+      if (value != null) {
+        map.put(key, value);
+      }
+    }
+    return new SMap(map, mapFactory);
+  }
+
+  String readKey(ByteBuffer buffer) {
+    byte tag = buffer.get();
+    switch (tag) {
+      case KEY_REF:
+        long id = readVarLong(buffer);
+        if (id < 0 || id >= keys.size()) {
+          throw invalid(buffer, "unknown key " + id);
+        }
+        return keys.get((int) id);
+      case KEY_DEF:
+        String key = readString(buffer);
+        if (!frozen) {
+          if (keys.size() >= MAX_KEYS) {
+            throw invalid(buffer, "more than " + MAX_KEYS + " keys defined");
+          }
+          keys.add(key);
+        }
+        return key;
+      case KEY_LITERAL:
+        return readString(buffer);
+      default:
+        throw invalid(buffer, "expected a key, found tag " + tag);
+    }
+  }
+
+  private byte[] readBytes(ByteBuffer buffer) {
+    byte[] bytes = new byte[readSize(buffer)];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  private BigInteger readBigInteger(ByteBuffer buffer) {
+    byte[] bytes = readBytes(buffer);
+    if (bytes.length == 0) {
+      throw invalid(buffer, "empty big integer");
+    }
+    return new BigInteger(bytes);
+  }
+
+  private String readString(ByteBuffer buffer) {
+    int length = readSize(buffer);
+    if (buffer.hasArray()) {
+      int position = buffer.position();
+      buffer.position(position + length);
+      return new String(buffer.array(), buffer.arrayOffset() + position, length, StandardCharsets.UTF_8);
+    }
+    if (scratch == null || length > scratch.length) {
+      scratch = new byte[Math.max(length, 64)];
+    }
+    buffer.get(scratch, 0, length);
+    return new String(scratch, 0, length, StandardCharsets.UTF_8);
+  }
+
+  int readSize(ByteBuffer buffer) {
+    long size = readVarLong(buffer);
+    if (size < 0 || size > buffer.remaining()) {
+      throw invalid(buffer, "invalid size " + size);
+    }
+    return (int) size;
+  }
+
+  private static long unzigzag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static long readVarLong(ByteBuffer buffer) {
+    long value = 0;
+    for (int shift = 0; shift < 64; shift += 7) {
+      byte b = buffer.get();
+      value |= (long) (b & 0x7F) << shift;
+      if (b >= 0) {
+        return value;
+      }
+    }
+    throw invalid(buffer, "varint too long");
+  }
+
+  private static IllegalArgumentException invalid(ByteBuffer buffer, String message) {
+    return new IllegalArgumentException("Invalid binary value at offset " + (buffer.position() - 1) + ": " + message);
+  }
+
+}
@@ -0,0 +1,367 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import static org.fissore.steroids.BinaryFormat.*;
+
+/**
+ * BinaryEncoder writes maps, lists and values in a compact binary format, read back by a {@link BinaryDecoder}.
+ * <p>
+ * Map keys are collected in a dictionary: the first time a key is written, it's written in full and given an id, afterwards only its id is written.
+ * The dictionary spans all the values written by the same encoder, so the values make up a stream, and must be decoded in the same order by the same decoder.
+ * Numbers are written as varints, {@link Date}s as milliseconds since the epoch.
+ * <p>
+ * Supported values are Strings, Integers, Longs, Shorts, Bytes, Doubles, Floats, Booleans, Characters, BigIntegers, BigDecimals, Dates, byte arrays,
+ * maps with String keys, collections and arrays (decoded as lists). Null values of maps are skipped, as {@link SteroidMap#add(Object, Object)} does.
+ * A BinaryEncoder is not thread safe
+ */
+public class BinaryEncoder {
+
+  private final Map<String, Integer> ids;
+  private final List<String> keys;
+  private ByteBuffer scratch;
+
+  /**
+   * Creates a new BinaryEncoder, with an empty dictionary
+   */
+  public BinaryEncoder() {
+    this.ids = new HashMap<>();
+    this.keys = new ArrayList<>();
+  }
+
+  /**
+   * Writes given value, from the position of given buffer, which is then moved past the written bytes
+   *
+   * @param value  the value to write
+   * @param buffer the destination
+   * @throws BufferOverflowException         if the buffer is too small. Then the position of the buffer and the dictionary are left as they were
+   * @throws IllegalArgumentException        if the value, or any nested value, is not supported
+   * @throws ConcurrentModificationException if a map or collection, other than a concurrent one, changes size while being written
+   */
+  public void encode(Object value, ByteBuffer buffer) {
+    int position = buffer.position();
+    int dictionarySize = keys.size();
+    try {
+      writeValue(value, buffer);
+    } catch (BufferOverflowException | IllegalArgumentException | ConcurrentModificationException e) {
+      buffer.position(position);
+      while (keys.size() > dictionarySize) {
+        ids.remove(keys.remove(keys.size() - 1));
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Writes given value
+   *
+   * @param value the value to write
+   * @return the written bytes
+   * @throws IllegalArgumentException if the value, or any nested value, is not supported
+   */
+  public byte[] encode(Object value) {
+    if (scratch == null) {
+      scratch = ByteBuffer.allocate(1024);
+    }
+    while (true) {
+      scratch.clear();
+      try {
+        encode(value, scratch);
+        return Arrays.copyOf(scratch.array(), scratch.position());
+      } catch (BufferOverflowException e) {
+        scratch = ByteBuffer.allocate(scratch.capacity() * 2);
+      }
+    }
+  }
+
+  /**
+   * Forgets all the keys written so far, starting a new stream. The decoder must be {@link BinaryDecoder#reset() reset} too
+   */
+  public void reset() {
+    ids.clear();
+    keys.clear();
+  }
+
+  /**
+   * The keys of the dictionary, in the order of their ids
+   */
+  List<String> keys() {
+    return keys;
+  }
+
+  /* values */
+
+  private void writeValue(Object value, ByteBuffer buffer) {
+    if (value == null) {
+      buffer.put(NULL);
+    } else if (value instanceof String) {
+      buffer.put(STRING);
+      writeString((String) value, buffer);
+    } else if (value instanceof Integer) {
+      buffer.put(INT);
+      writeVarLong(zigzag((Integer) value), buffer);
+    } else if (value instanceof Long) {
+      buffer.put(LONG);
+      writeVarLong(zigzag((Long) value), buffer);
+    } else if (value instanceof Double) {
+      buffer.put(DOUBLE).putDouble((Double) value);
+    } else if (value instanceof Float) {
+      buffer.put(FLOAT).putFloat((Float) value);
+    } else if (value instanceof Boolean) {
+      buffer.put((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Map) {
+      writeMap((Map<?, ?>) value, buffer);
+    } else if (value instanceof Collection) {
+      writeList((Collection<?>) value, buffer);
+    } else if (value instanceof Character) {
+      buffer.put(CHAR);
+      writeVarLong((Character) value, buffer);
+    } else if (value instanceof Short) {
+      buffer.put(SHORT);
+      writeVarLong(zigzag((Short) value), buffer);
+    } else if (value instanceof Byte) {
+      buffer.put(BYTE).put((Byte) value);
+    } else if (value instanceof BigInteger) {
+      buffer.put(BIG_INTEGER);
+      writeBytes(((BigInteger) value).toByteArray(), buffer);
+    } else if (value instanceof BigDecimal) {
+      BigDecimal decimal = (BigDecimal) value;
+      buffer.put(BIG_DECIMAL);
+      writeVarLong(zigzag(decimal.scale()), buffer);
+      writeBytes(decimal.unscaledValue().toByteArray(), buffer);
+    } else if (value instanceof Date) {
+      buffer.put(DATE);
+      writeVarLong(zigzag(((Date) value).getTime()), buffer);
+    } else if (value instanceof byte[]) {
+      buffer.put(BYTES);
+      writeBytes((byte[]) value, buffer);
+    } else if (value instanceof Object[]) {
+      writeValue(Arrays.asList((Object[]) value), buffer);
+    } else {
+      throw new IllegalArgumentException("Unsupported value " + value + " of " + value.getClass());
+    }
+  }
+
+  /**
+   * Writes the number of entries of given map, then its entries. Concurrent maps may change while being written: their entries are written in a single pass, then their number
+   */
+  private void writeMap(Map<?, ?> map, ByteBuffer buffer) {
+    buffer.put(MAP);
+    if (map instanceof ConcurrentMap) {
+      int at = reserveSize(buffer);
+      writeSize(at, writeEntries(map, buffer), buffer);
+      return;
+    }
+    int size = 0;
+    for (Object value : map.values()) {
+      if (value != null) {
+        size++;
+      }
+    }
+    writeVarLong(size, buffer);
+    if (writeEntries(map, buffer) != size) {
+      throw new ConcurrentModificationException();
+    }
+  }
+
+  /**
+   * @return the number of entries written, those with a value
+   */
+  private int writeEntries(Map<?, ?> map, ByteBuffer buffer) {
+    int size = 0;
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      Object value = entry.getValue();
+      if (value != null) {
+        writeKey(entry.getKey(), buffer);
+        writeValue(value, buffer);
+        size++;
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Writes the number of elements of given collection, then its elements. Collections of java.util.concurrent are written as concurrent maps are
+   */
+  private void writeList(Collection<?> collection, ByteBuffer buffer) {
+    buffer.put(LIST);
+    if (collection.getClass().getName().startsWith("java.util.concurrent.")) {
+      int at = reserveSize(buffer);
+      writeSize(at, writeElements(collection, buffer), buffer);
+      return;
+    }
+    int size = collection.size();
+    writeVarLong(size, buffer);
+    if (writeElements(collection, buffer) != size) {
+      throw new ConcurrentModificationException();
+    }
+  }
+
+  /**
+   * @return the number of elements written
+   */
+  private int writeElements(Collection<?> collection, ByteBuffer buffer) {
+    int size = 0;
+    for (Object element : collection) {
+      writeValue(element, buffer);
+      size++;
+    }
+    return size;
+  }
+
+  /**
+   * Reserves a byte for the number of entries of a map or list, to be written once they are
+   *
+   * @return the position of the reserved byte
+   */
+  private static int reserveSize(ByteBuffer buffer) {
+    int at = buffer.position();
+    buffer.put((byte) 0);
+    return at;
+  }
+
+  /**
+   * Writes a number of entries at the position reserved by {@link #reserveSize(ByteBuffer)}. If it takes more than a byte, the entries are moved forward to make room:
+   * only concurrent containers, whose size is not known until they are written, pay for it
+   */
+  private static void writeSize(int at, int size, ByteBuffer buffer) {
+    int end = buffer.position();
+    int extra = 0;
+    for (int rest = size >>> 7; rest != 0; rest >>>= 7) {
+      extra++;
+    }
+    if (extra > 0) {
+      if (buffer.remaining() < extra) {
+        throw new BufferOverflowException();
+      }
+      int from = at + 1;
+      if (buffer.hasArray()) {
+        byte[] array = buffer.array();
+        System.arraycopy(array, buffer.arrayOffset() + from, array, buffer.arrayOffset() + from + extra, end - from);
+      } else {
+        byte[] entries = new byte[end - from];
+        buffer.position(from);
+        buffer.get(entries);
+        buffer.position(from + extra);
+        buffer.put(entries);
+      }
+    }
+    buffer.position(at);
+    writeVarLong(size, buffer);
+    buffer.position(end + extra);
+  }
+
+  private static void writeBytes(byte[] bytes, ByteBuffer buffer) {
+    writeVarLong(bytes.length, buffer);
+    buffer.put(bytes);
+  }
+
+  private void writeKey(Object key, ByteBuffer buffer) {
+    if (!(key instanceof String)) {
+      throw new IllegalArgumentException("Unsupported key " + key + ": keys must be Strings");
+    }
+    String string = (String) key;
+    Integer id = ids.get(string);
+    if (id != null) {
+      buffer.put(KEY_REF);
+      writeVarLong(id, buffer);
+    } else if (keys.size() < MAX_KEYS && string.length() <= MAX_KEY_LENGTH) {
+      ids.put(string, keys.size());
+      keys.add(string);
+      buffer.put(KEY_DEF);
+      writeString(string, buffer);
+    } else {
+      buffer.put(KEY_LITERAL);
+      writeString(string, buffer);
+    }
+  }
+
+  private static void writeString(String value, ByteBuffer buffer) {
+    int length = value.length();
+    int bytes = 0;
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        bytes++;
+      } else if (c < 0x800) {
+        bytes += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        bytes += 4;
+        i++;
+      } else if (Character.isSurrogate(c)) {
+        bytes++;
+      } else {
+        bytes += 3;
+      }
+    }
+
+    writeVarLong(bytes, buffer);
+    if (bytes == length) {
+      for (int i = 0; i < length; i++) {
+        buffer.put((byte) value.charAt(i));
+      }
+      return;
+    }
+    for (int i = 0; i < length; i++) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        buffer.put((byte) c);
+      } else if (c < 0x800) {
+        buffer.put((byte) (0xC0 | (c >> 6)));
+        buffer.put((byte) (0x80 | (c & 0x3F)));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buffer.put((byte) (0xF0 | (codePoint >> 18)));
+        buffer.put((byte) (0x80 | ((codePoint >> 12) & 0x3F)));
+        buffer.put((byte) (0x80 | ((codePoint >> 6) & 0x3F)));
+        buffer.put((byte) (0x80 | (codePoint & 0x3F)));
+      } else if (Character.isSurrogate(c)) {
+        buffer.put((byte) '?');
+      } else {
+        buffer.put((byte) (0xE0 | (c >> 12)));
+        buffer.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+        buffer.put((byte) (0x80 | (c & 0x3F)));
+      }
+    }
+  }
+
+  private static long zigzag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static void writeVarLong(long value, ByteBuffer buffer) {
+    while ((value & ~0x7FL) != 0) {
+      buffer.put((byte) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    buffer.put((byte) value);
+  }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+/**
+ * The tags of the binary format written by {@link BinaryEncoder} and read by {@link BinaryDecoder}.
+ * <p>
+ * Each value starts with a tag byte. Integers, shorts, longs and dates are followed by a zigzag varint, chars by a varint, bytes by their byte, doubles and floats by their IEEE 754 bits.
+ * Strings and byte arrays are followed by their length as a varint, then by their bytes (UTF-8 for strings).
+ * Big integers are followed by the length and bytes of their two's complement, big decimals by their scale as a zigzag varint, then by their unscaled value as a big integer.
+ * Maps and lists are followed by their number of entries as a varint, then by their entries: a key and a value for maps, a value for lists.
+ * <p>
+ * A map key is either the definition of a new key, which takes the next id of the dictionary, a reference to the id of a key defined earlier in the stream, or a literal key that is not added to the dictionary
+ */
+final class BinaryFormat {
+
+  static final byte NULL = 0;
+  static final byte FALSE = 1;
+  static final byte TRUE = 2;
+  static final byte INT = 3;
+  static final byte LONG = 4;
+  static final byte DOUBLE = 5;
+  static final byte FLOAT = 6;
+  static final byte STRING = 7;
+  static final byte DATE = 8;
+  static final byte MAP = 9;
+  static final byte LIST = 10;
+  static final byte BYTES = 11;
+  static final byte BIG_INTEGER = 12;
+  static final byte BIG_DECIMAL = 13;
+  static final byte CHAR = 14;
+
+  static final byte KEY_DEF = 16;
+  static final byte KEY_REF = 17;
+  static final byte KEY_LITERAL = 18;
+
+  static final byte SHORT = 19;
+  static final byte BYTE = 20;
+
+  /**
+   * Max number of keys in a dictionary. Past it, new keys are written as literals, so that maps with ever-changing keys don't grow the dictionary forever
+   */
+  static final int MAX_KEYS = 1 << 16;
+
+  /**
+   * Keys longer than this are written as literals
+   */
+  static final int MAX_KEY_LENGTH = 128;
+
+  private BinaryFormat() {
+  }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A read only view of a map encoded by a {@link BinaryEncoder}, whose keys are all in a known dictionary.
+ * Values are decoded on access: nested maps are BinaryMaps themselves, lists are unmodifiable lists, whose maps are BinaryMaps too
+ */
+final class BinaryMap extends IndexedMap {
+
+  private final ByteBuffer bytes;
+  private final int offset;
+  private final List<String> keys;
+
+  /**
+   * @param bytes  the encoded bytes, which must not change as long as the map is in use
+   * @param offset the offset of the map tag
+   * @param keys   the dictionary of the keys
+   */
+  BinaryMap(ByteBuffer bytes, int offset, List<String> keys) {
+    this.bytes = bytes;
+    this.offset = offset;
+    this.keys = keys;
+  }
+
+  private ByteBuffer at(int at) {
+    ByteBuffer buffer = bytes.duplicate();
+    buffer.position(at);
+    return buffer;
+  }
+
+  private BinaryDecoder decoder() {
+    return new BinaryDecoder(SMap.HASH_MAP_FACTORY, keys, true);
+  }
+
+  @Override
+  Index buildIndex() {
+    ByteBuffer buffer = at(offset);
+    BinaryDecoder decoder = decoder();
+    if (buffer.get() != BinaryFormat.MAP) {
+      throw new IllegalArgumentException("Invalid binary value at offset " + offset + ": expected a map");
+    }
+    int size = decoder.readSize(buffer);
+    IndexBuilder index = new IndexBuilder();
+    for (int i = 0; i < size; i++) {
+      String key = decoder.readKey(buffer);
+      int at = buffer.position();
+      boolean isNull = buffer.get(at) == BinaryFormat.NULL;
+      decoder.skipValue(buffer);
+      if (!isNull) {
+        index.put(key, at);
+      }
+    }
+    return index.build();
+  }
+
+  @Override
+  Object decode(int at) {
+    ByteBuffer buffer = at(at);
+    byte tag = buffer.get(at);
+    if (tag == BinaryFormat.MAP) {
+      return new BinaryMap(bytes, at, keys);
+    }
+    BinaryDecoder decoder = decoder();
+    if (tag != BinaryFormat.LIST) {
+      return decoder.decode(buffer);
+    }
+
+    buffer.get();
+    int size = decoder.readSize(buffer);
+    List<Object> list = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      int element = buffer.position();
+      if (buffer.get(element) == BinaryFormat.MAP) {
+        list.add(new BinaryMap(bytes, element, keys));
+        decoder.skipValue(buffer);
+      } else {
+        list.add(decoder.decode(buffer));
+      }
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+}
@@ -0,0 +1,685 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+
+/**
+ * A column of a {@link SMapTable}: the values of a key across all rows, stored in an array of the type of the values, with a bitmap of nulls.
+ * Columns are appended to while the table is built, then only read.
+ * <p>
+ * The vectorized operations take a selection vector, the indexes of the rows to consider, or null for all of them. Filters write the indexes of the matching rows to an output vector, and return how many they are
+ */
+abstract class Column {
+
+  int length;
+  private long[] nulls;
+
+  /**
+   * Creates an empty column fit for given value
+   */
+  static Column of(Object value) {
+    if (value instanceof Long) {
+      return new LongColumn();
+    }
+    if (value instanceof Integer) {
+      return new IntColumn();
+    }
+    if (value instanceof Double || value instanceof Float) {
+      return new DoubleColumn();
+    }
+    if (value instanceof Boolean) {
+      return new BooleanColumn();
+    }
+    if (value instanceof String) {
+      return new StringColumn();
+    }
+    return new ObjectColumn();
+  }
+
+  abstract String type();
+
+  abstract void ensureCapacity(int capacity);
+
+  /**
+   * Appends a non null value
+   *
+   * @return false if the value doesn't fit the type of the column, and it was not appended
+   */
+  abstract boolean append(Object value);
+
+  /**
+   * @return the value at given row, boxed if needed. Null rows are not checked
+   */
+  abstract Object valueAt(int row);
+
+  final void appendNull() {
+    ensureCapacity(length + 1);
+    nulls = set(nulls, length);
+    length++;
+  }
+
+  final boolean isNull(int row) {
+    return isSet(nulls, row);
+  }
+
+  /**
+   * Sets the bit of given row in given bitmap, growing it if needed
+   *
+   * @return the bitmap, a new one if it was null or too small
+   */
+  static long[] set(long[] bits, int row) {
+    int word = row >>> 6;
+    if (bits == null || word >= bits.length) {
+      bits = bits == null ? new long[Math.max(4, word + 1)] : Arrays.copyOf(bits, Math.max(word + 1, bits.length * 2));
+    }
+    bits[word] |= 1L << row;
+    return bits;
+  }
+
+  static boolean isSet(long[] bits, int row) {
+    return bits != null && row >>> 6 < bits.length && (bits[row >>> 6] & (1L << row)) != 0;
+  }
+
+  final Object get(int row) {
+    return isNull(row) ? null : valueAt(row);
+  }
+
+  long getLong(int row) {
+    return (Long) get(row);
+  }
+
+  int getInt(int row) {
+    return (Integer) get(row);
+  }
+
+  double getDouble(int row) {
+    return (Double) get(row);
+  }
+
+  boolean getBoolean(int row) {
+    return (Boolean) get(row);
+  }
+
+  /**
+   * @return a column with the same values of this one, that also fits given value. Unless overridden, a column of objects
+   */
+  Column widen(Object value) {
+    return toObjects();
+  }
+
+  /**
+   * @return a column of objects, with the same values of this one
+   */
+  final Column toObjects() {
+    ObjectColumn column = new ObjectColumn();
+    column.ensureCapacity(length);
+    for (int row = 0; row < length; row++) {
+      if (isNull(row)) {
+        column.appendNull();
+      } else {
+        column.append(valueAt(row));
+      }
+    }
+    return column;
+  }
+
+  static int rowAt(int[] selection, int i) {
+    return selection == null ? i : selection[i];
+  }
+
+  /* vectorized operations */
+
+  final long count(int[] selection, int size) {
+    long count = 0;
+    for (int i = 0; i < size; i++) {
+      if (!isNull(rowAt(selection, i))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  int filter(int[] selection, int size, Predicate<Object> predicate, int[] out) {
+    int matches = 0;
+    for (int i = 0; i < size; i++) {
+      int row = rowAt(selection, i);
+      if (!isNull(row) && predicate.test(valueAt(row))) {
+        out[matches++] = row;
+      }
+    }
+    return matches;
+  }
+
+  int filterLong(int[] selection, int size, LongPredicate predicate, int[] out) {
+    throw unsupported("long");
+  }
+
+  int filterDouble(int[] selection, int size, DoublePredicate predicate, int[] out) {
+    throw unsupported("numeric");
+  }
+
+  int filterString(int[] selection, int size, Predicate<String> predicate, int[] out) {
+    throw unsupported("string");
+  }
+
+  long sumLong(int[] selection, int size) {
+    throw unsupported("long");
+  }
+
+  double sumDouble(int[] selection, int size) {
+    throw unsupported("numeric");
+  }
+
+  double min(int[] selection, int size) {
+    throw unsupported("numeric");
+  }
+
+  double max(int[] selection, int size) {
+    throw unsupported("numeric");
+  }
+
+  private IllegalArgumentException unsupported(String expected) {
+    return new IllegalArgumentException("Expected a " + expected + " column, found a " + type() + " column");
+  }
+
+  /**
+   * Longs. Being integral, ints share the long operations, and ints mixed with longs are stored here: rows remember they were ints, and are read as such
+   */
+  static final class LongColumn extends Column {
+
+    private long[] values = new long[16];
+    private long[] ints;
+
+    @Override
+    String type() {
+      return "long";
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      if (capacity > values.length) {
+        values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+      }
+    }
+
+    @Override
+    boolean append(Object value) {
+      if (value instanceof Integer) {
+        ints = set(ints, length);
+      } else if (!(value instanceof Long)) {
+        return false;
+      }
+      ensureCapacity(length + 1);
+      values[length++] = ((Number) value).longValue();
+      return true;
+    }
+
+    @Override
+    Object valueAt(int row) {
+      if (isSet(ints, row)) {
+        return (int) values[row];
+      }
+      return values[row];
+    }
+
+    @Override
+    long getLong(int row) {
+      if (isNull(row) || isSet(ints, row)) {
+        return super.getLong(row);
+      }
+      return values[row];
+    }
+
+    @Override
+    int getInt(int row) {
+      if (isSet(ints, row)) {
+        return (int) values[row];
+      }
+      return super.getInt(row);
+    }
+
+    @Override
+    int filterLong(int[] selection, int size, LongPredicate predicate, int[] out) {
+      int matches = 0;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row) && predicate.test(values[row])) {
+          out[matches++] = row;
+        }
+      }
+      return matches;
+    }
+
+    @Override
+    int filterDouble(int[] selection, int size, DoublePredicate predicate, int[] out) {
+      return filterLong(selection, size, value -> predicate.test(value), out);
+    }
+
+    @Override
+    long sumLong(int[] selection, int size) {
+      long sum = 0;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row)) {
+          sum += values[row];
+        }
+      }
+      return sum;
+    }
+
+    @Override
+    double sumDouble(int[] selection, int size) {
+      return sumLong(selection, size);
+    }
+
+    @Override
+    double min(int[] selection, int size) {
+      long min = Long.MAX_VALUE;
+      boolean found = false;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row)) {
+          min = Math.min(min, values[row]);
+          found = true;
+        }
+      }
+      return found ? min : Double.NaN;
+    }
+
+    @Override
+    double max(int[] selection, int size) {
+      long max = Long.MIN_VALUE;
+      boolean found = false;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row)) {
+          max = Math.max(max, values[row]);
+          found = true;
+        }
+      }
+      return found ? max : Double.NaN;
+    }
+
+  }
+
+  static final class IntColumn extends Column {
+
+    private int[] values = new int[16];
+
+    @Override
+    String type() {
+      return "int";
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      if (capacity > values.length) {
+        values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+      }
+    }
+
+    @Override
+    boolean append(Object value) {
+      if (!(value instanceof Integer)) {
+        return false;
+      }
+      ensureCapacity(length + 1);
+      values[length++] = (Integer) value;
+      return true;
+    }
+
+    @Override
+    Object valueAt(int row) {
+      return values[row];
+    }
+
+    @Override
+    int getInt(int row) {
+      if (isNull(row)) {
+        return super.getInt(row);
+      }
+      return values[row];
+    }
+
+    @Override
+    Column widen(Object value) {
+      if (!(value instanceof Long)) {
+        return super.widen(value);
+      }
+      LongColumn column = new LongColumn();
+      column.ensureCapacity(length);
+      for (int row = 0; row < length; row++) {
+        if (isNull(row)) {
+          column.appendNull();
+        } else {
+          column.append(values[row]);
+        }
+      }
+      return column;
+    }
+
+    @Override
+    int filterLong(int[] selection, int size, LongPredicate predicate, int[] out) {
+      int matches = 0;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row) && predicate.test(values[row])) {
+          out[matches++] = row;
+        }
+      }
+      return matches;
+    }
+
+    @Override
+    int filterDouble(int[] selection, int size, DoublePredicate predicate, int[] out) {
+      return filterLong(selection, size, value -> predicate.test(value), out);
+    }
+
+    @Override
+    long sumLong(int[] selection, int size) {
+      long sum = 0;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row)) {
+          sum += values[row];
+        }
+      }
+      return sum;
+    }
+
+    @Override
+    double sumDouble(int[] selection, int size) {
+      return sumLong(selection, size);
+    }
+
+    @Override
+    double min(int[] selection, int size) {
+      int min = Integer.MAX_VALUE;
+      boolean found = false;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row)) {
+          min = Math.min(min, values[row]);
+          found = true;
+        }
+      }
+      return found ? min : Double.NaN;
+    }
+
+    @Override
+    double max(int[] selection, int size) {
+      int max = Integer.MIN_VALUE;
+      boolean found = false;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row)) {
+          max = Math.max(max, values[row]);
+          found = true;
+        }
+      }
+      return found ? max : Double.NaN;
+    }
+
+  }
+
+  /**
+   * Doubles. Floats are stored here too: rows remember they were floats, and are read as such
+   */
+  static final class DoubleColumn extends Column {
+
+    private double[] values = new double[16];
+    private long[] floats;
+
+    @Override
+    String type() {
+      return "double";
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      if (capacity > values.length) {
+        values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+      }
+    }
+
+    @Override
+    boolean append(Object value) {
+      if (value instanceof Float) {
+        floats = set(floats, length);
+      } else if (!(value instanceof Double)) {
+        return false;
+      }
+      ensureCapacity(length + 1);
+      values[length++] = ((Number) value).doubleValue();
+      return true;
+    }
+
+    @Override
+    Object valueAt(int row) {
+      if (isSet(floats, row)) {
+        return (float) values[row];
+      }
+      return values[row];
+    }
+
+    @Override
+    double getDouble(int row) {
+      if (isNull(row) || isSet(floats, row)) {
+        return super.getDouble(row);
+      }
+      return values[row];
+    }
+
+    @Override
+    int filterDouble(int[] selection, int size, DoublePredicate predicate, int[] out) {
+      int matches = 0;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row) && predicate.test(values[row])) {
+          out[matches++] = row;
+        }
+      }
+      return matches;
+    }
+
+    @Override
+    double sumDouble(int[] selection, int size) {
+      double sum = 0;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row)) {
+          sum += values[row];
+        }
+      }
+      return sum;
+    }
+
+    @Override
+    double min(int[] selection, int size) {
+      double min = Double.NaN;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row) && !(values[row] >= min)) {
+          min = values[row];
+        }
+      }
+      return min;
+    }
+
+    @Override
+    double max(int[] selection, int size) {
+      double max = Double.NaN;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row) && !(values[row] <= max)) {
+          max = values[row];
+        }
+      }
+      return max;
+    }
+
+  }
+
+  /**
+   * Booleans, as a bitmap
+   */
+  static final class BooleanColumn extends Column {
+
+    private long[] values = new long[1];
+
+    @Override
+    String type() {
+      return "boolean";
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      int words = (capacity + 63) >>> 6;
+      if (words > values.length) {
+        values = Arrays.copyOf(values, Math.max(words, values.length * 2));
+      }
+    }
+
+    @Override
+    boolean append(Object value) {
+      if (!(value instanceof Boolean)) {
+        return false;
+      }
+      ensureCapacity(length + 1);
+      if ((Boolean) value) {
+        values[length >>> 6] |= 1L << length;
+      }
+      length++;
+      return true;
+    }
+
+    @Override
+    Object valueAt(int row) {
+      return (values[row >>> 6] & (1L << row)) != 0;
+    }
+
+    @Override
+    boolean getBoolean(int row) {
+      if (isNull(row)) {
+        return super.getBoolean(row);
+      }
+      return (values[row >>> 6] & (1L << row)) != 0;
+    }
+
+  }
+
+  /**
+   * Strings, dictionary encoded: each distinct string is stored once, rows store its code
+   */
+  static final class StringColumn extends Column {
+
+    private int[] codes = new int[16];
+    private final List<String> dictionary = new ArrayList<>();
+    private final Map<String, Integer> index = new HashMap<>();
+
+    @Override
+    String type() {
+      return "string";
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      if (capacity > codes.length) {
+        codes = Arrays.copyOf(codes, Math.max(capacity, codes.length * 2));
+      }
+    }
+
+    @Override
+    boolean append(Object value) {
+      if (!(value instanceof String)) {
+        return false;
+      }
+      Integer code = index.get(value);
+      if (code == null) {
+        code = dictionary.size();
+        dictionary.add((String) value);
+        index.put((String) value, code);
+      }
+      ensureCapacity(length + 1);
+      codes[length++] = code;
+      return true;
+    }
+
+    @Override
+    Object valueAt(int row) {
+      return dictionary.get(codes[row]);
+    }
+
+    /**
+     * Tests the predicate once per distinct string, rather than once per row
+     */
+    @Override
+    int filterString(int[] selection, int size, Predicate<String> predicate, int[] out) {
+      boolean[] matching = new boolean[dictionary.size()];
+      for (int code = 0; code < matching.length; code++) {
+        matching[code] = predicate.test(dictionary.get(code));
+      }
+      int matches = 0;
+      for (int i = 0; i < size; i++) {
+        int row = rowAt(selection, i);
+        if (!isNull(row) && matching[codes[row]]) {
+          out[matches++] = row;
+        }
+      }
+      return matches;
+    }
+
+  }
+
+  static final class ObjectColumn extends Column {
+
+    private Object[] values = new Object[16];
+
+    @Override
+    String type() {
+      return "object";
+    }
+
+    @Override
+    void ensureCapacity(int capacity) {
+      if (capacity > values.length) {
+        values = Arrays.copyOf(values, Math.max(capacity, values.length * 2));
+      }
+    }
+
+    @Override
+    boolean append(Object value) {
+      ensureCapacity(length + 1);
+      values[length++] = value;
+      return true;
+    }
+
+    @Override
+    Object valueAt(int row) {
+      return values[row];
+    }
+
+  }
+
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * ConcurrentSMap is a {@link SMap} backed by a {@link ConcurrentHashMap}, meant to be shared among threads.
+ * Unlike {@link SteroidMap} default methods, it never synchronizes on this instance: compound operations rely on the atomic operations of the backing map, and accessors with a default value read the key once.
+ * As a consequence, compound operations are not atomic as a whole: for example, while a key is being {@link #renameKey(String, String) renamed}, other threads may see the value associated to both keys
+ */
+public class ConcurrentSMap extends SMap {
+
+  /**
+   * Creates a new ConcurrentSMap, using {@link ConcurrentHashMap} as backing map
+   */
+  public ConcurrentSMap() {
+    this(new ConcurrentHashMap<>());
+  }
+
+  /**
+   * Creates a new ConcurrentSMap, using given map as backing map
+   *
+   * @param map the map to use as backing map
+   */
+  public ConcurrentSMap(ConcurrentMap<String, Object> map) {
+    super(map);
+  }
+
+  @Override
+  public SMap addAll(Stream<Map<String, Object>> sources) {
+    Object event = Events.begin(Events.ADD_ALL);
+    sources.forEach(source -> source.forEach(this::add));
+    Events.end(event, this);
+    return this;
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public SMap addFrom(Map<String, Object> source, Collection<String> keys) {
+    if (source == null) {
+      return this;
+    }
+
+    if (keys.isEmpty()) {
+      return addAll(source);
+    }
+
+    source.forEach((key, value) -> {
+      if (keys.contains(key)) {
+        add(key, value);
+      }
+    });
+    return this;
+  }
+
+  /**
+   * Renames the specified key, if present. The old key is removed only if it's still associated to the renamed value
+   *
+   * @param oldKey the old key
+   * @param newKey the new key
+   * @return this instance
+   */
+  @Override
+  public SMap renameKey(String oldKey, String newKey) {
+    Object event = Events.begin(Events.RENAME_KEY);
+    Object value = get(oldKey);
+    if (value != null) {
+      put(newKey, value);
+      remove(oldKey, value);
+    }
+    Events.end(event, this);
+    return this;
+  }
+
+  @Override
+  public SMap del(Stream<String> keys) {
+    keys.forEach(this::remove);
+    return this;
+  }
+
+  /**
+   * If given key is {@link #valued(String) valued}, it's applied to provided valueReturner. Otherwise, defaultValue is returned.
+   * It doesn't synchronize: if the key is removed after being checked, valueReturner will see it missing
+   *
+   * @param key           the key
+   * @param defaultValue  the value to return if key is not {@link #valued(String) valued}
+   * @param valueReturner the function to apply the key to
+   * @param <V>           the return type
+   * @return either value from map or defaultValue
+   */
+  @Override
+  public <V> V defaultIfMissing(String key, V defaultValue, Function<String, V> valueReturner) {
+    if (valued(key)) {
+      return valueReturner.apply(key);
+    }
+    return defaultValue;
+  }
+
+  @Override
+  public long l(String key, long defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (Long) value;
+  }
+
+  @Override
+  public int i(String key, int defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (Integer) value;
+  }
+
+  @Override
+  public double d(String key, double defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (Double) value;
+  }
+
+  @Override
+  public float f(String key, float defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (Float) value;
+  }
+
+  @Override
+  public String s(String key, String defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (String) value;
+  }
+
+  @Override
+  public boolean b(String key, boolean defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (Boolean) value;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <V> V o(String key, V defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (V) value;
+  }
+
+  @Override
+  public <V> V o(String key, Function<Object, V> transformer, V defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : transformer.apply(value);
+  }
+
+  @Override
+  public Date date(String key, Date defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (Date) value;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <V> Collection<V> collection(String key, Collection<V> defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (Collection<V>) value;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <V> List<V> list(String key, List<V> defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (List<V>) value;
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public <V> Stream<V> stream(String key, Stream<V> defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : ((Collection<V>) value).stream();
+  }
+
+  @Override
+  public SMap map(String key, SteroidMap<String> defaultValue) {
+    Object value = get(key);
+    return value == null ? (SMap) defaultValue : ensureMapIsOnSteroid(value);
+  }
+
+  @Override
+  public Stream<SMap> maps(String key) {
+    Object value = get(key);
+    return value == null ? Stream.empty() : ((Collection<?>) value).stream().map(this::ensureMapIsOnSteroid);
+  }
+
+  @Override
+  public Stream<SMap> maps(String key, Stream<? extends SteroidMap<String>> defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue.map(s -> (SMap) s) : ((Collection<?>) value).stream().map(this::ensureMapIsOnSteroid);
+  }
+
+  @Override
+  public SMap copy() {
+    Object event = Events.begin(Events.COPY);
+    ConcurrentSMap copy = new ConcurrentSMap();
+    copy.putAll(this);
+    Events.end(event, copy);
+    return copy;
+  }
+
+}
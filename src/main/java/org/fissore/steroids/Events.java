@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Map;
+
+/**
+ * Facade to the Java Flight Recorder events of steroidmap, safe to call when JFR is missing: events are then never recorded.
+ * <pre>
+ * Object event = Events.begin(Events.COPY);
+ * SMap copy = ...;
+ * Events.end(event, copy);
+ * </pre>
+ * {@link #begin(int)} returns null unless JFR is available and the event is enabled in a running recording, so that, most of the time, it costs a flag check
+ */
+final class Events {
+
+  static final int COPY = 0;
+  static final int ADD_ALL = 1;
+  static final int SUB_MAP = 2;
+  static final int RENAME_KEY = 3;
+  static final int REFLECTIVE_FACTORY = 4;
+  static final int MONITOR_WAIT = 5;
+
+  private static final Recorder RECORDER = recorder();
+
+  private Events() {
+  }
+
+  /**
+   * Records the events. Implemented by JfrEvents, which is compiled for Java 11 apart from the rest of the library
+   */
+  interface Recorder {
+
+    Object begin(int type);
+
+    void end(Object event, Map<?, ?> map);
+
+  }
+
+  /**
+   * Loads and initializes the events, returning null if JfrEvents is missing or can't be loaded, e.g. on Java 8
+   */
+  private static Recorder recorder() {
+    try {
+      return (Recorder) Class.forName("org.fissore.steroids.JfrEvents", true, Events.class.getClassLoader()).getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException | LinkageError e) {
+      return null;
+    }
+  }
+
+  /**
+   * Begins timing an event
+   *
+   * @param type the type of the event, one of the constants of this class
+   * @return the event, to be given to {@link #end(Object, Map)}, null if it won't be recorded
+   */
+  static Object begin(int type) {
+    return RECORDER != null ? RECORDER.begin(type) : null;
+  }
+
+  /**
+   * Ends timing an event, recording it if it lasted more than its threshold
+   *
+   * @param event the event returned by {@link #begin(int)}, possibly null
+   * @param map   the map the event is about, whose class and size are recorded
+   */
+  static void end(Object event, Map<?, ?> map) {
+    if (event != null) {
+      RECORDER.end(event, map);
+    }
+  }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A read only map over encoded bytes, such as a JSON object or a binary record.
+ * On first access, subclasses scan the bytes to build an index of where the values start. A value is then decoded the first time it's asked for, and kept.
+ * It's thread safe, provided that decoding is: at worst, the index or a value are built twice by racing threads
+ */
+abstract class IndexedMap extends AbstractSteroidMap {
+
+  private volatile Index index;
+
+  /**
+   * Scans the bytes for the keys and the offsets of their values
+   */
+  abstract Index buildIndex();
+
+  /**
+   * Decodes the value starting at given offset
+   */
+  abstract Object decode(int offset);
+
+  private Index index() {
+    Index index = this.index;
+    if (index == null) {
+      index = buildIndex();
+      this.index = index;
+    }
+    return index;
+  }
+
+  private Object value(Index index, int i) {
+    Object value = index.values.get(i);
+    if (value == null) {
+      index.values.compareAndSet(i, null, decode(index.offsets[i]));
+      value = index.values.get(i);
+    }
+    return value;
+  }
+
+  @Override
+  public Object get(Object key) {
+    Index index = index();
+    int i = index.indexOf(key);
+    return i < 0 ? null : value(index, i);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return index().indexOf(key) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return index().size;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    Index index = index();
+    return new AbstractSet<Entry<String, Object>>() {
+
+      @Override
+      public Iterator<Entry<String, Object>> iterator() {
+        return new Iterator<Entry<String, Object>>() {
+
+          private int i;
+
+          @Override
+          public boolean hasNext() {
+            return i < index.size;
+          }
+
+          @Override
+          public Entry<String, Object> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            Entry<String, Object> entry = new SimpleImmutableEntry<>(index.keys[i], value(index, i));
+            i++;
+            return entry;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return index.size;
+      }
+    };
+  }
+
+  /**
+   * Collects keys and offsets into an {@link Index}. Keys are kept in the order they're first found, a duplicate key replaces the offset of the previous one.
+   * Keys are looked up in an open addressing table owned by the document, so that the keys of untrusted bytes never reach a shared cache
+   */
+  static final class IndexBuilder {
+
+    private String[] keys = new String[8];
+    private int[] offsets = new int[8];
+    private int[] slots = new int[16];
+    private int size;
+
+    void put(String key, int offset) {
+      int slot = slotOf(slots, key);
+      int i = slots[slot] - 1;
+      if (i < 0) {
+        i = size++;
+        if (i == keys.length) {
+          keys = Arrays.copyOf(keys, i * 2);
+          offsets = Arrays.copyOf(offsets, i * 2);
+        }
+        keys[i] = key;
+        slots[slot] = size;
+        if (size * 2 > slots.length) {
+          rehash();
+        }
+      }
+      offsets[i] = offset;
+    }
+
+    private void rehash() {
+      slots = new int[slots.length * 2];
+      for (int i = 0; i < size; i++) {
+        slots[slotOf(slots, keys[i])] = i + 1;
+      }
+    }
+
+    /**
+     * Returns the slot holding given key, or the empty one where it would go.
+     * Slots hold the position of their key plus one, so that zero means empty
+     */
+    private int slotOf(int[] slots, String key) {
+      int mask = slots.length - 1;
+      int hash = key.hashCode();
+      int slot = (hash ^ (hash >>> 16)) & mask;
+      while (slots[slot] != 0 && !keys[slots[slot] - 1].equals(key)) {
+        slot = (slot + 1) & mask;
+      }
+      return slot;
+    }
+
+    Index build() {
+      return new Index(keys, offsets, slots, size);
+    }
+
+  }
+
+  static final class Index {
+
+    private final String[] keys;
+    private final int[] offsets;
+    private final int[] slots;
+    private final int size;
+    private final AtomicReferenceArray<Object> values;
+
+    private Index(String[] keys, int[] offsets, int[] slots, int size) {
+      this.keys = keys;
+      this.offsets = offsets;
+      this.slots = slots;
+      this.size = size;
+      this.values = new AtomicReferenceArray<>(size);
+    }
+
+    int indexOf(Object key) {
+      if (!(key instanceof String)) {
+        return -1;
+      }
+      int mask = slots.length - 1;
+      int hash = key.hashCode();
+      for (int slot = (hash ^ (hash >>> 16)) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+        int i = slots[slot] - 1;
+        if (keys[i].equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+  }
+
+}
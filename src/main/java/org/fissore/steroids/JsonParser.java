@@ -0,0 +1,517 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * A UTF-8 JSON parser, reading bytes from an array, a {@link ByteBuffer} or an {@link InputStream}.
+ * Objects are parsed into {@link SMap}s, arrays into {@link ArrayList}s, numbers into Integers when they fit, Longs otherwise, or Doubles when they have a fraction or an exponent.
+ * Null values of objects are skipped, as {@link SteroidMap#add(Object, Object)} does. A parser is meant to be used once, by one thread
+ *
+ * @see JsonReader
+ */
+final class JsonParser {
+
+  private static final int BUFFER_SIZE = 8192;
+  /* first window over a ByteBuffer without an array, doubled on every fill up to BUFFER_SIZE, so that short values copy a few bytes */
+  private static final int MIN_WINDOW = 64;
+
+  private final InputStream in;
+  private final ByteBuffer source;
+  private final IntFunction<Map<String, Object>> mapFactory;
+  private final KeyCache keys;
+
+  private byte[] buf;
+  private int pos;
+  private int limit;
+  /* offset of buf[0] from the start of the input */
+  private long offset;
+
+  private char[] chars = new char[64];
+  /* size of the last object parsed at each depth, used to pre-size the next one */
+  private int[] expectedSizes = new int[16];
+
+  JsonParser(byte[] bytes, int from, int to, IntFunction<Map<String, Object>> mapFactory, KeyCache keys) {
+    this.in = null;
+    this.source = null;
+    this.buf = bytes;
+    this.pos = from;
+    this.limit = to;
+    this.offset = -from;
+    this.mapFactory = mapFactory;
+    this.keys = keys;
+  }
+
+  JsonParser(ByteBuffer bytes, IntFunction<Map<String, Object>> mapFactory, KeyCache keys) {
+    this(bytes, 0, mapFactory, keys);
+  }
+
+  /**
+   * @param start the offset of the buffer position within the whole document, so that {@link #position()} is relative to the document
+   */
+  JsonParser(ByteBuffer bytes, long start, IntFunction<Map<String, Object>> mapFactory, KeyCache keys) {
+    this.in = null;
+    this.mapFactory = mapFactory;
+    this.keys = keys;
+    if (bytes.hasArray()) {
+      this.source = null;
+      this.buf = bytes.array();
+      this.pos = bytes.arrayOffset() + bytes.position();
+      this.limit = bytes.arrayOffset() + bytes.limit();
+      this.offset = start - pos;
+    } else {
+      this.source = bytes.duplicate();
+      this.buf = new byte[Math.min(MIN_WINDOW, bytes.remaining())];
+      this.offset = start;
+    }
+  }
+
+  JsonParser(InputStream in, IntFunction<Map<String, Object>> mapFactory, KeyCache keys) {
+    this.in = in;
+    this.source = null;
+    this.buf = new byte[BUFFER_SIZE];
+    this.mapFactory = mapFactory;
+    this.keys = keys;
+  }
+
+  /* input */
+
+  private boolean fill() {
+    if (pos < limit) {
+      return true;
+    }
+    if (in == null && source == null) {
+      return false;
+    }
+
+    if (source != null && limit == buf.length && buf.length < BUFFER_SIZE) {
+      buf = new byte[Math.min(buf.length * 2, BUFFER_SIZE)];
+    }
+    offset += limit;
+    pos = 0;
+    limit = 0;
+    if (source != null) {
+      int n = Math.min(buf.length, source.remaining());
+      source.get(buf, 0, n);
+      limit = n;
+    } else {
+      try {
+        int n = in.read(buf, 0, buf.length);
+        limit = Math.max(n, 0);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return limit > 0;
+  }
+
+  private int read() {
+    if (pos == limit && !fill()) {
+      return -1;
+    }
+    return buf[pos++] & 0xFF;
+  }
+
+  private int peek() {
+    if (pos == limit && !fill()) {
+      return -1;
+    }
+    return buf[pos] & 0xFF;
+  }
+
+  long position() {
+    return offset + pos;
+  }
+
+  int skipWhitespace() {
+    while (true) {
+      int c = peek();
+      if (c == ' ' || c == '\n' || c == '\r' || c == '\t') {
+        pos++;
+      } else {
+        return c;
+      }
+    }
+  }
+
+  private void expect(int expected) {
+    int c = read();
+    if (c != expected) {
+      throw error(c, "expected '" + (char) expected + "'");
+    }
+  }
+
+  private void expectWord(String word) {
+    for (int i = 1; i < word.length(); i++) {
+      expect(word.charAt(i));
+    }
+  }
+
+  IllegalArgumentException error(int c, String message) {
+    String found = c < 0 ? "end of input" : "'" + (char) c + "'";
+    return new IllegalArgumentException("Invalid JSON at offset " + (position() - (c < 0 ? 0 : 1)) + ": found " + found + ", " + message);
+  }
+
+  /* values */
+
+  /**
+   * Reads the whole input as a single value
+   */
+  Object readDocument() {
+    Object value = readValue(0);
+    int c = skipWhitespace();
+    if (c >= 0) {
+      throw error(read(), "expected end of input");
+    }
+    return value;
+  }
+
+  Object readValue(int depth) {
+    int c = skipWhitespace();
+    if (c == '{') {
+      return readObject(depth);
+    }
+    if (c == '[') {
+      return readArray(depth);
+    }
+    pos++;
+    switch (c) {
+      case '"':
+        return readString();
+      case 't':
+        expectWord("true");
+        return Boolean.TRUE;
+      case 'f':
+        expectWord("false");
+        return Boolean.FALSE;
+      case 'n':
+        expectWord("null");
+        return null;
+      default:
+        if (c == '-' || (c >= '0' && c <= '9')) {
+          return readNumber(c);
+        }
+        if (c < 0) {
+          pos--;
+        }
+        throw error(c, "expected a value");
+    }
+  }
+
+  private SMap readObject(int depth) {
+    if (depth == expectedSizes.length) {
+      expectedSizes = Arrays.copyOf(expectedSizes, depth * 2);
+    }
+    Map<String, Object> map = mapFactory.apply(expectedSizes[depth]);
+
+    for (String key = nextObjectField(true); key != null; key = nextObjectField(false)) {
+      Object value = readValue(depth + 1);
+      if (value != null) {
+        map.put(key, value);
+      }
+    }
+
+    expectedSizes[depth] = map.size();
+    return new SMap(map, mapFactory);
+  }
+
+  private List<Object> readArray(int depth) {
+    List<Object> list = new ArrayList<>();
+    for (boolean more = nextArrayElement(true); more; more = nextArrayElement(false)) {
+      list.add(readValue(depth + 1));
+    }
+    return list;
+  }
+
+  /**
+   * Reads the array elements one at a time: call it once to consume the opening bracket, then until it returns false, calling {@link #readValue(int)} each time it returns true
+   */
+  boolean nextArrayElement(boolean first) {
+    int c = skipWhitespace();
+    if (first) {
+      expect('[');
+      c = skipWhitespace();
+      if (c == ']') {
+        pos++;
+        return false;
+      }
+      return true;
+    }
+    c = read();
+    if (c == ',') {
+      return true;
+    }
+    if (c == ']') {
+      return false;
+    }
+    throw error(c, "expected ',' or ']'");
+  }
+
+  /**
+   * Reads the object fields one at a time, like {@link #nextArrayElement(boolean)} does with arrays. Each time it returns a field name, the parser is left at the field value, which must be read or skipped before the next call
+   *
+   * @return the name of the next field, or null at the end of the object
+   */
+  String nextObjectField(boolean first) {
+    int c = skipWhitespace();
+    if (first) {
+      expect('{');
+      c = skipWhitespace();
+      if (c == '}') {
+        pos++;
+        return null;
+      }
+    } else {
+      c = read();
+      if (c == '}') {
+        return null;
+      }
+      if (c != ',') {
+        throw error(c, "expected ',' or '}'");
+      }
+      skipWhitespace();
+    }
+    expect('"');
+    String key = readKey();
+    skipWhitespace();
+    expect(':');
+    skipWhitespace();
+    return key;
+  }
+
+  /**
+   * Skips a value without decoding it. Objects and arrays are only scanned for their closing bracket, so errors inside them are not detected
+   */
+  void skipValue() {
+    int c = skipWhitespace();
+    pos++;
+    switch (c) {
+      case '{':
+      case '[':
+        skipContainer();
+        break;
+      case '"':
+        skipString();
+        break;
+      case 't':
+        expectWord("true");
+        break;
+      case 'f':
+        expectWord("false");
+        break;
+      case 'n':
+        expectWord("null");
+        break;
+      default:
+        if (c != '-' && (c < '0' || c > '9')) {
+          if (c < 0) {
+            pos--;
+          }
+          throw error(c, "expected a value");
+        }
+        while (true) {
+          c = peek();
+          if ((c >= '0' && c <= '9') || c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+            pos++;
+          } else {
+            break;
+          }
+        }
+    }
+  }
+
+  private void skipContainer() {
+    int depth = 1;
+    while (depth > 0) {
+      int c = read();
+      if (c == '"') {
+        skipString();
+      } else if (c == '{' || c == '[') {
+        depth++;
+      } else if (c == '}' || c == ']') {
+        depth--;
+      } else if (c < 0) {
+        throw error(c, "expected ']' or '}'");
+      }
+    }
+  }
+
+  private void skipString() {
+    while (true) {
+      int c = read();
+      if (c == '"') {
+        return;
+      }
+      if (c == '\\') {
+        c = read();
+      }
+      if (c < 0) {
+        throw error(c, "unterminated string");
+      }
+    }
+  }
+
+  private String readKey() {
+    int length = readChars();
+    return keys.get(chars, length);
+  }
+
+  private String readString() {
+    int length = readChars();
+    return new String(chars, 0, length);
+  }
+
+  private void append(int length, char c) {
+    if (length == chars.length) {
+      chars = Arrays.copyOf(chars, length * 2);
+    }
+    chars[length] = c;
+  }
+
+  /**
+   * Decodes a string, whose opening quote was already read, into chars
+   *
+   * @return the length of the string
+   */
+  private int readChars() {
+    int length = 0;
+    while (true) {
+      if (pos == limit && !fill()) {
+        throw error(-1, "unterminated string");
+      }
+      int b = buf[pos++];
+      if (b == '"') {
+        return length;
+      }
+      if (b == '\\') {
+        append(length++, readEscape());
+      } else if (b >= 0) {
+        append(length++, (char) b);
+      } else if ((b & 0xE0) == 0xC0) {
+        append(length++, (char) (((b & 0x1F) << 6) | continuation()));
+      } else if ((b & 0xF0) == 0xE0) {
+        append(length++, (char) (((b & 0x0F) << 12) | (continuation() << 6) | continuation()));
+      } else if ((b & 0xF8) == 0xF0) {
+        int codePoint = ((b & 0x07) << 18) | (continuation() << 12) | (continuation() << 6) | continuation();
+        append(length++, Character.highSurrogate(codePoint));
+        append(length++, Character.lowSurrogate(codePoint));
+      } else {
+        append(length++, '\uFFFD');
+      }
+    }
+  }
+
+  private int continuation() {
+    int b = read();
+    if (b < 0 || (b & 0xC0) != 0x80) {
+      throw error(b, "invalid UTF-8 sequence");
+    }
+    return b & 0x3F;
+  }
+
+  private char readEscape() {
+    int c = read();
+    switch (c) {
+      case '"':
+      case '\\':
+      case '/':
+        return (char) c;
+      case 'b':
+        return '\b';
+      case 'f':
+        return '\f';
+      case 'n':
+        return '\n';
+      case 'r':
+        return '\r';
+      case 't':
+        return '\t';
+      case 'u':
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+          int h = read();
+          int digit = Character.digit(h, 16);
+          if (h < 0 || digit < 0) {
+            throw error(h, "expected an hexadecimal digit");
+          }
+          value = (value << 4) | digit;
+        }
+        return (char) value;
+      default:
+        throw error(c, "invalid escape sequence");
+    }
+  }
+
+  private Object readNumber(int first) {
+    int length = 0;
+    append(length++, (char) first);
+    boolean negative = first == '-';
+    boolean overflow = false;
+    /* accumulated as a negative number, whose range is wider */
+    long value = negative ? 0 : '0' - first;
+    boolean integer = true;
+
+    while (true) {
+      int c = peek();
+      if (c >= '0' && c <= '9') {
+        if (integer && !overflow) {
+          long next = value * 10 - (c - '0');
+          overflow = value < Long.MIN_VALUE / 10 || next > value;
+          value = next;
+        }
+      } else if (c == '.' || c == 'e' || c == 'E' || c == '+' || c == '-') {
+        integer = false;
+      } else {
+        break;
+      }
+      pos++;
+      append(length++, (char) c);
+    }
+
+    if (length == 1 && negative) {
+      throw error(peek(), "expected a digit");
+    }
+    if (!integer) {
+      String number = new String(chars, 0, length);
+      try {
+        return Double.parseDouble(number);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid JSON at offset " + (position() - length) + ": invalid number " + number, e);
+      }
+    }
+    if (overflow || (!negative && value == Long.MIN_VALUE)) {
+      return new BigInteger(new String(chars, 0, length));
+    }
+    if (!negative) {
+      value = -value;
+    }
+    if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+      return (int) value;
+    }
+    return value;
+  }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * JsonReader parses UTF-8 JSON documents straight into {@link SMap}s, reading bytes from an array, a {@link ByteBuffer} or an {@link InputStream}. It has no dependencies.
+ * <p>
+ * Objects become {@link SMap}s and arrays become {@link java.util.ArrayList}s. Numbers become Integers when they fit, Longs when they don't, or Doubles when they have a fraction or an exponent. Null values of objects are skipped, as {@link SteroidMap#add(Object, Object)} does.
+ * Keys are cached and shared among all documents read by the same JsonReader. Maps are pre-sized after the size of the last map found at the same depth.
+ * <p>
+ * Huge arrays of objects can be {@link #stream(InputStream) streamed}, so that they are never fully loaded in memory.
+ * JsonReader is thread safe: create one and reuse it
+ */
+public class JsonReader {
+
+  private final IntFunction<Map<String, Object>> mapFactory;
+  private final KeyCache keys;
+
+  /**
+   * Creates a new JsonReader, whose maps are backed by {@link java.util.HashMap}s
+   */
+  public JsonReader() {
+    this(SMap.HASH_MAP_FACTORY);
+  }
+
+  /**
+   * Creates a new JsonReader, whose maps are created by given factory
+   *
+   * @param mapFactory the factory of the backing maps. It's given the number of mappings the new map is expected to hold
+   * @see SMap#SMap(Map, IntFunction)
+   */
+  public JsonReader(IntFunction<Map<String, Object>> mapFactory) {
+    if (mapFactory == null) {
+      throw new NullPointerException();
+    }
+    this.mapFactory = mapFactory;
+    this.keys = new KeyCache();
+  }
+
+  /**
+   * Reads a JSON document
+   *
+   * @param json the UTF-8 bytes of the document
+   * @return a {@link SMap}, a {@link java.util.List}, a String, a Number, a Boolean or null
+   * @throws IllegalArgumentException if the document is not valid JSON
+   */
+  public Object read(byte[] json) {
+    return new JsonParser(json, 0, json.length, mapFactory, keys).readDocument();
+  }
+
+  /**
+   * Reads a JSON document, from the position to the limit of given buffer. The position of the buffer is not changed
+   *
+   * @param json the UTF-8 bytes of the document
+   * @return a {@link SMap}, a {@link java.util.List}, a String, a Number, a Boolean or null
+   * @throws IllegalArgumentException if the document is not valid JSON
+   */
+  public Object read(ByteBuffer json) {
+    return new JsonParser(json, mapFactory, keys).readDocument();
+  }
+
+  /**
+   * Reads a JSON document. The stream is read until its end, but it's not closed
+   *
+   * @param json the UTF-8 bytes of the document
+   * @return a {@link SMap}, a {@link java.util.List}, a String, a Number, a Boolean or null
+   * @throws IllegalArgumentException      if the document is not valid JSON
+   * @throws java.io.UncheckedIOException if reading the stream fails
+   */
+  public Object read(InputStream json) {
+    return new JsonParser(json, mapFactory, keys).readDocument();
+  }
+
+  /**
+   * Reads a JSON object
+   *
+   * @param json the UTF-8 bytes of the object
+   * @return the object
+   * @throws IllegalArgumentException if the document is not a valid JSON object
+   */
+  public SMap readMap(byte[] json) {
+    return asMap(read(json));
+  }
+
+  /**
+   * Reads a JSON object, from the position to the limit of given buffer. The position of the buffer is not changed
+   *
+   * @param json the UTF-8 bytes of the object
+   * @return the object
+   * @throws IllegalArgumentException if the document is not a valid JSON object
+   */
+  public SMap readMap(ByteBuffer json) {
+    return asMap(read(json));
+  }
+
+  /**
+   * Reads a JSON object. The stream is read until its end, but it's not closed
+   *
+   * @param json the UTF-8 bytes of the object
+   * @return the object
+   * @throws IllegalArgumentException      if the document is not a valid JSON object
+   * @throws java.io.UncheckedIOException if reading the stream fails
+   */
+  public SMap readMap(InputStream json) {
+    return asMap(read(json));
+  }
+
+  private static SMap asMap(Object value) {
+    if (value instanceof SMap) {
+      return (SMap) value;
+    }
+    throw new IllegalArgumentException(value + " is not a JSON object");
+  }
+
+  /**
+   * Streams the objects of a JSON array, parsing them one at a time as the stream is consumed
+   *
+   * @param json the UTF-8 bytes of the array
+   * @return the stream of the objects of the array
+   * @throws IllegalArgumentException if the document is not a valid JSON array of objects
+   */
+  public Stream<SMap> stream(byte[] json) {
+    return stream(new JsonParser(json, 0, json.length, mapFactory, keys));
+  }
+
+  /**
+   * Streams the objects of a JSON array, from the position to the limit of given buffer, parsing them one at a time as the stream is consumed. The position of the buffer is not changed
+   *
+   * @param json the UTF-8 bytes of the array
+   * @return the stream of the objects of the array
+   * @throws IllegalArgumentException if the document is not a valid JSON array of objects
+   */
+  public Stream<SMap> stream(ByteBuffer json) {
+    return stream(new JsonParser(json, mapFactory, keys));
+  }
+
+  /**
+   * Streams the objects of a JSON array, parsing them one at a time as the stream is consumed: only the object being processed is kept in memory.
+   * The input stream is not closed
+   *
+   * @param json the UTF-8 bytes of the array
+   * @return the stream of the objects of the array
+   * @throws IllegalArgumentException      if the document is not a valid JSON array of objects
+   * @throws java.io.UncheckedIOException if reading the stream fails
+   */
+  public Stream<SMap> stream(InputStream json) {
+    return stream(new JsonParser(json, mapFactory, keys));
+  }
+
+  private static Stream<SMap> stream(JsonParser parser) {
+    Iterator<SMap> iterator = new Iterator<SMap>() {
+
+      private boolean first = true;
+      private Boolean hasNext;
+
+      @Override
+      public boolean hasNext() {
+        if (hasNext == null) {
+          hasNext = parser.nextArrayElement(first);
+          first = false;
+          if (!hasNext && parser.skipWhitespace() >= 0) {
+            throw new IllegalArgumentException("Invalid JSON at offset " + parser.position() + ": expected end of input");
+          }
+        }
+        return hasNext;
+      }
+
+      @Override
+      public SMap next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        hasNext = null;
+        return asMap(parser.readValue(1));
+      }
+    };
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
+
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * JsonWriter writes maps, lists and values as UTF-8 JSON to an {@link OutputStream}, a {@link WritableByteChannel} or a {@link ByteBuffer}, going through an internal buffer and with no intermediate Strings.
+ * <ul>
+ * <li>Maps become objects: their keys are written with {@link String#valueOf(Object)}, and each JsonWriter caches the encoded bytes of the short keys it writes</li>
+ * <li>Iterables, arrays and {@link Stream}s become arrays, written one element at a time: a stream such as {@link SteroidMap#maps(Object)} is never collected</li>
+ * <li>byte arrays are written as Base64 strings, char arrays as strings</li>
+ * <li>Integers, Longs, Shorts and Bytes are written digit by digit, Doubles and Floats with their toString, unless they're NaN or infinite: then they're written as null</li>
+ * <li>{@link Date}s are written as milliseconds since the epoch</li>
+ * <li>Any other object is written as a string, using its toString</li>
+ * </ul>
+ * A JsonWriter is not thread safe: reuse it within a thread, to reuse its buffer
+ */
+public class JsonWriter {
+
+  private static final int DEFAULT_BUFFER_SIZE = 8192;
+  private static final int MIN_BUFFER_SIZE = 512;
+  private static final int CACHED_KEYS = 512;
+  private static final int MAX_CACHED_KEY_LENGTH = 64;
+
+  private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+  private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+  private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+  private static final byte[] MIN_LONG = String.valueOf(Long.MIN_VALUE).getBytes();
+  private static final byte[] HEX = "0123456789abcdef".getBytes();
+
+  private final byte[] buf;
+  private int pos;
+
+  /* encoded keys, in a fixed size table where a new key replaces the one in its slot */
+  private final String[] keys = new String[CACHED_KEYS];
+  private final byte[][] encodedKeys = new byte[CACHED_KEYS][];
+
+  private OutputStream out;
+  private WritableByteChannel channel;
+  private ByteBuffer target;
+
+  /**
+   * Creates a new JsonWriter with an 8KB buffer
+   */
+  public JsonWriter() {
+    this(DEFAULT_BUFFER_SIZE);
+  }
+
+  /**
+   * Creates a new JsonWriter
+   *
+   * @param bufferSize the size of the buffer, filled before each write to the destination. It's at least 512 bytes
+   */
+  public JsonWriter(int bufferSize) {
+    this.buf = new byte[Math.max(bufferSize, MIN_BUFFER_SIZE)];
+  }
+
+  /**
+   * Writes given value as JSON. The stream is not flushed nor closed
+   *
+   * @param value the value to write
+   * @param out   the destination
+   * @throws UncheckedIOException if writing to the stream fails
+   */
+  public void write(Object value, OutputStream out) {
+    this.out = out;
+    write(value);
+  }
+
+  /**
+   * Writes given value as JSON. The channel is not closed
+   *
+   * @param value   the value to write
+   * @param channel the destination
+   * @throws UncheckedIOException if writing to the channel fails
+   */
+  public void write(Object value, WritableByteChannel channel) {
+    this.channel = channel;
+    write(value);
+  }
+
+  /**
+   * Writes given value as JSON, from the position of given buffer, which is then moved past the written bytes
+   *
+   * @param value  the value to write
+   * @param buffer the destination
+   * @throws java.nio.BufferOverflowException if the buffer is too small: part of the value may have been written anyway
+   */
+  public void write(Object value, ByteBuffer buffer) {
+    this.target = buffer;
+    write(value);
+  }
+
+  /**
+   * Writes given value as JSON
+   *
+   * @param value the value to write
+   * @return the UTF-8 bytes of the JSON
+   */
+  public byte[] toBytes(Object value) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    write(value, out);
+    return out.toByteArray();
+  }
+
+  private void write(Object value) {
+    pos = 0;
+    try {
+      writeValue(value);
+      flush();
+    } finally {
+      out = null;
+      channel = null;
+      target = null;
+    }
+  }
+
+  /* destination */
+
+  private void flush() {
+    if (pos == 0) {
+      return;
+    }
+    try {
+      if (out != null) {
+        out.write(buf, 0, pos);
+      } else if (channel != null) {
+        ByteBuffer bytes = ByteBuffer.wrap(buf, 0, pos);
+        while (bytes.hasRemaining()) {
+          channel.write(bytes);
+        }
+      } else {
+        target.put(buf, 0, pos);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    pos = 0;
+  }
+
+  private void ensure(int bytes) {
+    if (pos + bytes > buf.length) {
+      flush();
+    }
+  }
+
+  private void writeByte(int b) {
+    ensure(1);
+    buf[pos++] = (byte) b;
+  }
+
+  private void writeBytes(byte[] bytes) {
+    if (bytes.length > buf.length - pos) {
+      flush();
+      if (bytes.length > buf.length) {
+        writeDirect(bytes);
+        return;
+      }
+    }
+    System.arraycopy(bytes, 0, buf, pos, bytes.length);
+    pos += bytes.length;
+  }
+
+  private void writeDirect(byte[] bytes) {
+    try {
+      if (out != null) {
+        out.write(bytes);
+      } else if (channel != null) {
+        ByteBuffer wrapped = ByteBuffer.wrap(bytes);
+        while (wrapped.hasRemaining()) {
+          channel.write(wrapped);
+        }
+      } else {
+        target.put(bytes);
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /* values */
+
+  private void writeValue(Object value) {
+    if (value == null) {
+      writeBytes(NULL);
+    } else if (value instanceof String) {
+      writeString((String) value);
+    } else if (value instanceof Map) {
+      writeMap((Map<?, ?>) value);
+    } else if (value instanceof Iterable) {
+      writeArray(((Iterable<?>) value).iterator());
+    } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+      writeLong(((Number) value).longValue());
+    } else if (value instanceof Double) {
+      writeDouble((Double) value);
+    } else if (value instanceof Float) {
+      writeFloat((Float) value);
+    } else if (value instanceof Number) {
+      writeAscii(value.toString());
+    } else if (value instanceof Boolean) {
+      writeBytes((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Date) {
+      writeLong(((Date) value).getTime());
+    } else if (value instanceof Object[]) {
+      writeArray(Arrays.asList((Object[]) value).iterator());
+    } else if (value instanceof byte[]) {
+      writeString(Base64.getEncoder().encodeToString((byte[]) value));
+    } else if (value instanceof char[]) {
+      writeString(new String((char[]) value));
+    } else if (value.getClass().isArray()) {
+      writePrimitiveArray(value);
+    } else if (value instanceof Stream) {
+      writeArray(((Stream<?>) value).iterator());
+    } else {
+      writeString(value.toString());
+    }
+  }
+
+  private void writeMap(Map<?, ?> map) {
+    writeByte('{');
+    boolean first = true;
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      if (!first) {
+        writeByte(',');
+      }
+      first = false;
+      writeKey(String.valueOf(entry.getKey()));
+      writeValue(entry.getValue());
+    }
+    writeByte('}');
+  }
+
+  private void writeArray(Iterator<?> elements) {
+    writeByte('[');
+    boolean first = true;
+    while (elements.hasNext()) {
+      if (!first) {
+        writeByte(',');
+      }
+      first = false;
+      writeValue(elements.next());
+    }
+    writeByte(']');
+  }
+
+  private void writePrimitiveArray(Object array) {
+    writeByte('[');
+    int length = Array.getLength(array);
+    for (int i = 0; i < length; i++) {
+      if (i > 0) {
+        writeByte(',');
+      }
+      if (array instanceof int[]) {
+        writeLong(((int[]) array)[i]);
+      } else if (array instanceof long[]) {
+        writeLong(((long[]) array)[i]);
+      } else if (array instanceof double[]) {
+        writeDouble(((double[]) array)[i]);
+      } else if (array instanceof float[]) {
+        writeFloat(((float[]) array)[i]);
+      } else if (array instanceof short[]) {
+        writeLong(((short[]) array)[i]);
+      } else {
+        writeBytes(((boolean[]) array)[i] ? TRUE : FALSE);
+      }
+    }
+    writeByte(']');
+  }
+
+  private void writeKey(String key) {
+    if (key.length() > MAX_CACHED_KEY_LENGTH) {
+      writeString(key);
+      writeByte(':');
+      return;
+    }
+
+    int hash = key.hashCode();
+    int slot = (hash ^ (hash >>> 16)) & (CACHED_KEYS - 1);
+    if (key.equals(keys[slot])) {
+      writeBytes(encodedKeys[slot]);
+      return;
+    }
+
+    /* room for the longest encoding of the key, so that it ends up in the buffer as a whole */
+    ensure(MAX_CACHED_KEY_LENGTH * 6 + 3);
+    int start = pos;
+    writeString(key);
+    writeByte(':');
+    keys[slot] = key;
+    encodedKeys[slot] = Arrays.copyOfRange(buf, start, pos);
+  }
+
+  private void writeLong(long value) {
+    if (value == Long.MIN_VALUE) {
+      writeBytes(MIN_LONG);
+      return;
+    }
+    ensure(20);
+    if (value < 0) {
+      buf[pos++] = '-';
+      value = -value;
+    }
+    int digits = 1;
+    for (long v = value; v >= 10; v /= 10) {
+      digits++;
+    }
+    for (int i = pos + digits - 1; i >= pos; i--) {
+      buf[i] = (byte) ('0' + value % 10);
+      value /= 10;
+    }
+    pos += digits;
+  }
+
+  private void writeDouble(double value) {
+    if (Double.isNaN(value) || Double.isInfinite(value)) {
+      writeBytes(NULL);
+    } else {
+      writeAscii(Double.toString(value));
+    }
+  }
+
+  private void writeFloat(float value) {
+    if (Float.isNaN(value) || Float.isInfinite(value)) {
+      writeBytes(NULL);
+    } else {
+      writeAscii(Float.toString(value));
+    }
+  }
+
+  private void writeAscii(String value) {
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      if (pos == buf.length) {
+        flush();
+      }
+      buf[pos++] = (byte) value.charAt(i);
+    }
+  }
+
+  private void writeString(String value) {
+    writeByte('"');
+    int length = value.length();
+    for (int i = 0; i < length; i++) {
+      ensure(6);
+      char c = value.charAt(i);
+      if (c >= 0x20 && c < 0x80) {
+        if (c == '"' || c == '\\') {
+          buf[pos++] = '\\';
+        }
+        buf[pos++] = (byte) c;
+      } else if (c < 0x20) {
+        writeControl(c);
+      } else if (c < 0x800) {
+        buf[pos++] = (byte) (0xC0 | (c >> 6));
+        buf[pos++] = (byte) (0x80 | (c & 0x3F));
+      } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+        int codePoint = Character.toCodePoint(c, value.charAt(++i));
+        buf[pos++] = (byte) (0xF0 | (codePoint >> 18));
+        buf[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+        buf[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+        buf[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+      } else if (Character.isSurrogate(c)) {
+        buf[pos++] = '?';
+      } else {
+        buf[pos++] = (byte) (0xE0 | (c >> 12));
+        buf[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        buf[pos++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+    writeByte('"');
+  }
+
+  private void writeControl(char c) {
+    buf[pos++] = '\\';
+    switch (c) {
+      case '\n':
+        buf[pos++] = 'n';
+        break;
+      case '\r':
+        buf[pos++] = 'r';
+        break;
+      case '\t':
+        buf[pos++] = 't';
+        break;
+      case '\b':
+        buf[pos++] = 'b';
+        break;
+      case '\f':
+        buf[pos++] = 'f';
+        break;
+      default:
+        buf[pos++] = 'u';
+        buf[pos++] = '0';
+        buf[pos++] = '0';
+        buf[pos++] = HEX[c >> 4];
+        buf[pos++] = HEX[c & 0xF];
+    }
+  }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+/**
+ * A cache of map keys, so that parsing the same key many times returns the same String instance, allocated once.
+ * It's a fixed size table, where a new key replaces the one in its slot. It can be shared among threads: being Strings immutable, the worst that can happen to a thread is not seeing a key cached by another one
+ */
+final class KeyCache {
+
+  private static final int SIZE = 1024;
+  private static final int MAX_KEY_LENGTH = 64;
+
+  private final String[] keys = new String[SIZE];
+
+  String get(char[] chars, int length) {
+    if (length > MAX_KEY_LENGTH) {
+      return new String(chars, 0, length);
+    }
+
+    int hash = 0;
+    for (int i = 0; i < length; i++) {
+      hash = 31 * hash + chars[i];
+    }
+    int slot = (hash ^ (hash >>> 16)) & (SIZE - 1);
+
+    String key = keys[slot];
+    if (key != null && key.hashCode() == hash && equals(key, chars, length)) {
+      return key;
+    }
+    key = new String(chars, 0, length);
+    keys[slot] = key;
+    return key;
+  }
+
+  private static boolean equals(String key, char[] chars, int length) {
+    if (key.length() != length) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (key.charAt(i) != chars[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
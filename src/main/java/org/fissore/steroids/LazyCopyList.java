@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A lazy deep copy of a list. Until it's first modified, it reads from the source list, which is never modified.
+ * Nested maps and lists of the source list are returned as lazy copies themselves, which are retained so that changes made to them are not lost.
+ * Elements added to the copy are returned as they were added
+ *
+ * @see SteroidMap#deepCopy()
+ */
+final class LazyCopyList extends AbstractList<Object> implements RandomAccess {
+
+  private final List<Object> source;
+  /* the actual copy, created on first modification */
+  private List<Object> copy;
+  /* lazy copies of nested maps and lists of source, created on first access */
+  private Object[] children;
+
+  LazyCopyList(List<Object> source) {
+    this.source = source;
+  }
+
+  private List<Object> copy() {
+    if (copy == null) {
+      /* nested elements of source are copied once and for all: from now on, get() returns elements as they are */
+      List<Object> copy = new ArrayList<>(source.size());
+      int index = 0;
+      for (Object value : source) {
+        Object child = children != null ? children[index] : null;
+        copy.add(child != null ? child : LazyCopyMap.lazyCopy(value));
+        index++;
+      }
+      this.copy = copy;
+      children = null;
+    }
+    return copy;
+  }
+
+  @Override
+  public Object get(int index) {
+    if (copy != null) {
+      return copy.get(index);
+    }
+
+    if (children != null && children[index] != null) {
+      return children[index];
+    }
+    Object value = source.get(index);
+    Object child = LazyCopyMap.lazyCopy(value);
+    if (child != value) {
+      if (children == null) {
+        children = new Object[source.size()];
+      }
+      children[index] = child;
+    }
+    return child;
+  }
+
+  @Override
+  public int size() {
+    return copy != null ? copy.size() : source.size();
+  }
+
+  @Override
+  public Object set(int index, Object element) {
+    return copy().set(index, element);
+  }
+
+  @Override
+  public void add(int index, Object element) {
+    copy().add(index, element);
+    modCount++;
+  }
+
+  @Override
+  public Object remove(int index) {
+    Object previous = copy().remove(index);
+    modCount++;
+    return previous;
+  }
+
+}
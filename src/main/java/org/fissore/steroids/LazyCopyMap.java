@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.*;
+
+/**
+ * A lazy deep copy of a map. Until it's first modified, it reads from the source map, which is never modified.
+ * Nested maps and lists of the source map are returned as lazy copies themselves, which are retained so that changes made to them are not lost.
+ * Nested SteroidMaps are copied with their own {@link SteroidMap#deepCopy()}, so that they keep their type. Values put into the copy are returned as they were put
+ *
+ * @param <K> the type of the keys
+ * @see SteroidMap#deepCopy()
+ */
+final class LazyCopyMap<K> extends AbstractMap<K, Object> {
+
+  private final Map<K, Object> source;
+  /* the actual copy, created on first modification */
+  private Map<K, Object> copy;
+  /* lazy copies of nested maps and lists of source, created on first access */
+  private Map<Object, Object> children;
+
+  LazyCopyMap(Map<K, Object> source) {
+    this.source = source;
+  }
+
+  /**
+   * Returns a lazy copy of a value of a source map or list, if it's a map or a list. Otherwise, value itself
+   */
+  @SuppressWarnings("unchecked")
+  static Object lazyCopy(Object value) {
+    if (value instanceof SteroidMap) {
+      return ((SteroidMap<?>) value).deepCopy();
+    }
+    if (value instanceof Map) {
+      return new LazyCopyMap<>((Map<Object, Object>) value);
+    }
+    if (value instanceof List) {
+      return new LazyCopyList((List<Object>) value);
+    }
+    return value;
+  }
+
+  private Map<K, Object> current() {
+    return copy != null ? copy : source;
+  }
+
+  private Map<K, Object> copy() {
+    if (copy == null) {
+      /* nested values of source are copied once and for all: from now on, get() returns values as they are */
+      Map<K, Object> copy = new LinkedHashMap<>(source);
+      copy.replaceAll((key, value) -> {
+        Object child = children != null ? children.get(key) : null;
+        return child != null ? child : lazyCopy(value);
+      });
+      this.copy = copy;
+      children = null;
+    }
+    return copy;
+  }
+
+  @Override
+  public Object get(Object key) {
+    if (copy != null) {
+      return copy.get(key);
+    }
+
+    if (children != null) {
+      Object child = children.get(key);
+      if (child != null) {
+        return child;
+      }
+    }
+    Object value = source.get(key);
+    Object child = lazyCopy(value);
+    if (child != value) {
+      if (children == null) {
+        children = new HashMap<>();
+      }
+      children.put(key, child);
+    }
+    return child;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return current().containsKey(key);
+  }
+
+  @Override
+  public int size() {
+    return current().size();
+  }
+
+  @Override
+  public Object put(K key, Object value) {
+    return copy().put(key, value);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    return copy().remove(key);
+  }
+
+  @Override
+  public void clear() {
+    copy = new LinkedHashMap<>();
+    children = null;
+  }
+
+  @Override
+  public Set<Entry<K, Object>> entrySet() {
+    return new AbstractSet<Entry<K, Object>>() {
+      @Override
+      public Iterator<Entry<K, Object>> iterator() {
+        Iterator<K> keys = new ArrayList<>(current().keySet()).iterator();
+        return new Iterator<Entry<K, Object>>() {
+          private K last;
+
+          @Override
+          public boolean hasNext() {
+            return keys.hasNext();
+          }
+
+          @Override
+          public Entry<K, Object> next() {
+            last = keys.next();
+            K key = last;
+            return new SimpleEntry<K, Object>(key, get(key)) {
+              @Override
+              public Object setValue(Object value) {
+                super.setValue(value);
+                return put(key, value);
+              }
+            };
+          }
+
+          @Override
+          public void remove() {
+            keys.remove();
+            LazyCopyMap.this.remove(last);
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return LazyCopyMap.this.size();
+      }
+    };
+  }
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * LazyJsonMap is a read only {@link SteroidMap} over the UTF-8 bytes of a JSON object, such as a byte array or a {@link java.nio.MappedByteBuffer}.
+ * <p>
+ * Nothing is parsed upfront: on first access, the fields of the object are scanned to build an index of where their values start, without decoding them.
+ * A value is then decoded the first time it's asked for, and kept. Nested objects are LazyJsonMaps themselves, arrays are unmodifiable lists, whose objects are LazyJsonMaps too.
+ * It pays off when only a few fields of large documents are read: accessing all the fields costs more than parsing the document with a {@link JsonReader}.
+ * <p>
+ * As with {@link JsonReader}, fields with null values are skipped. The bytes are not validated upfront either: invalid JSON is reported, with an IllegalArgumentException, by the access that runs into it.
+ * The bytes must not change as long as the map is in use. LazyJsonMaps are thread safe
+ */
+public final class LazyJsonMap extends IndexedMap {
+
+  private static final KeyCache KEYS = new KeyCache();
+
+  private final ByteBuffer bytes;
+  private final int offset;
+
+  private LazyJsonMap(ByteBuffer bytes, int offset) {
+    this.bytes = bytes;
+    this.offset = offset;
+  }
+
+  /**
+   * Creates a new LazyJsonMap over given bytes
+   *
+   * @param json the UTF-8 bytes of a JSON object
+   * @return the new LazyJsonMap
+   * @throws IllegalArgumentException if the bytes don't start with a JSON object
+   */
+  public static LazyJsonMap of(byte[] json) {
+    return of(ByteBuffer.wrap(json));
+  }
+
+  /**
+   * Creates a new LazyJsonMap over the bytes of given buffer, from its position to its limit. The position of the buffer is not changed
+   *
+   * @param json the UTF-8 bytes of a JSON object
+   * @return the new LazyJsonMap
+   * @throws IllegalArgumentException if the bytes don't start with a JSON object
+   */
+  public static LazyJsonMap of(ByteBuffer json) {
+    LazyJsonMap map = new LazyJsonMap(json.slice(), 0);
+    map.parser(0).nextObjectField(true);
+    return map;
+  }
+
+  private JsonParser parser(int at) {
+    ByteBuffer json = bytes.duplicate();
+    json.position(at);
+    return new JsonParser(json, at, SMap.HASH_MAP_FACTORY, KEYS);
+  }
+
+  @Override
+  Index buildIndex() {
+    JsonParser parser = parser(offset);
+    IndexBuilder index = new IndexBuilder();
+    for (String key = parser.nextObjectField(true); key != null; key = parser.nextObjectField(false)) {
+      int at = (int) parser.position();
+      boolean isNull = parser.skipWhitespace() == 'n';
+      parser.skipValue();
+      if (!isNull) {
+        index.put(key, at);
+      }
+    }
+    return index.build();
+  }
+
+  @Override
+  Object decode(int at) {
+    JsonParser parser = parser(at);
+    int c = parser.skipWhitespace();
+    if (c == '{') {
+      return new LazyJsonMap(bytes, at);
+    }
+    if (c != '[') {
+      return parser.readValue(1);
+    }
+
+    List<Object> list = new ArrayList<>();
+    for (boolean more = parser.nextArrayElement(true); more; more = parser.nextArrayElement(false)) {
+      if (parser.skipWhitespace() == '{') {
+        list.add(new LazyJsonMap(bytes, (int) parser.position()));
+        parser.skipValue();
+      } else {
+        list.add(parser.readValue(1));
+      }
+    }
+    return Collections.unmodifiableList(list);
+  }
+
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * OffHeapArena hands out {@link OffHeapSMap}s, whose keys and scalar values are stored off heap, in slabs of direct {@link ByteBuffer}s allocated by the arena.
+ * <p>
+ * Each map owns a block of a slab, whose size is a power of two. Blocks are carved out of the slabs one after the other: when a map grows, or is {@link OffHeapSMap#release() released},
+ * its block is put on a free list, and reused by the next map asking for a block of the same size. Maps larger than a slab get a slab of their own.
+ * <p>
+ * Closing the arena drops all of its slabs, and all of its maps with them: using them afterwards throws an IllegalStateException.
+ * The memory of direct buffers is given back to the OS when they're garbage collected. An arena can be shared among threads, its maps cannot
+ */
+public final class OffHeapArena implements AutoCloseable {
+
+  private static final int DEFAULT_SLAB_SIZE = 1 << 20;
+  static final int MIN_BLOCK_SIZE = 64;
+
+  private final int slabSize;
+  private final List<ByteBuffer> slabs;
+  /* free blocks, by log2 of their size */
+  private final long[][] freeBlocks;
+  private final int[] freeCounts;
+  private ByteBuffer current;
+  private int currentSlab;
+  private long reserved;
+  private volatile boolean closed;
+
+  /**
+   * Creates a new arena, allocating 1MB slabs
+   */
+  public OffHeapArena() {
+    this(DEFAULT_SLAB_SIZE);
+  }
+
+  /**
+   * Creates a new arena
+   *
+   * @param slabSize the size of the slabs, rounded up to a power of two
+   */
+  public OffHeapArena(int slabSize) {
+    if (slabSize <= 0 || slabSize > 1 << 30) {
+      throw new IllegalArgumentException("Invalid slab size " + slabSize);
+    }
+    this.slabSize = blockSize(slabSize);
+    this.slabs = new ArrayList<>();
+    this.freeBlocks = new long[32][];
+    this.freeCounts = new int[32];
+    this.currentSlab = -1;
+  }
+
+  /**
+   * Creates a new, empty map, stored in this arena
+   *
+   * @return the new map
+   * @throws IllegalStateException if the arena is closed
+   */
+  public OffHeapSMap newMap() {
+    checkOpen();
+    return new OffHeapSMap(this);
+  }
+
+  /**
+   * @return the number of bytes of all the slabs allocated so far
+   */
+  public synchronized long reservedBytes() {
+    return reserved;
+  }
+
+  /**
+   * Drops all the slabs of the arena. Its maps can't be used anymore
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    slabs.clear();
+    current = null;
+    Arrays.fill(freeBlocks, null);
+  }
+
+  void checkOpen() {
+    if (closed) {
+      throw new IllegalStateException("The arena is closed");
+    }
+  }
+
+  /**
+   * @return the size of the block given for a request of given bytes
+   */
+  static int blockSize(int bytes) {
+    return Math.max(MIN_BLOCK_SIZE, Integer.highestOneBit(bytes - 1) << 1);
+  }
+
+  /**
+   * Allocates a block of {@link #blockSize(int)} bytes
+   *
+   * @return the address of the block: the index of its slab in the high 32 bits, its offset within the slab in the low 32 bits
+   */
+  synchronized long allocate(int bytes) {
+    checkOpen();
+    if (bytes > 1 << 30) {
+      throw new IllegalArgumentException("Blocks are limited to 1GB");
+    }
+    int size = blockSize(bytes);
+    int sizeClass = Integer.numberOfTrailingZeros(size);
+    if (freeCounts[sizeClass] > 0) {
+      return freeBlocks[sizeClass][--freeCounts[sizeClass]];
+    }
+
+    if (size > slabSize) {
+      slabs.add(ByteBuffer.allocateDirect(size));
+      reserved += size;
+      return (long) (slabs.size() - 1) << 32;
+    }
+    if (current == null || current.remaining() < size) {
+      if (current != null) {
+        /* the rest of the slab is split into free blocks, so that it's not wasted */
+        while (current.remaining() >= MIN_BLOCK_SIZE) {
+          int rest = Integer.highestOneBit(current.remaining());
+          free(((long) currentSlab << 32) | current.position(), rest);
+          current.position(current.position() + rest);
+        }
+      }
+      current = ByteBuffer.allocateDirect(slabSize);
+      slabs.add(current);
+      currentSlab = slabs.size() - 1;
+      reserved += slabSize;
+    }
+    long address = ((long) currentSlab << 32) | current.position();
+    current.position(current.position() + size);
+    return address;
+  }
+
+  /**
+   * Gives back a block, so that it can be reused
+   */
+  synchronized void free(long address, int size) {
+    if (closed) {
+      return;
+    }
+    if (size > slabSize) {
+      /* slabs of a single block are dropped, keeping the indexes of the others */
+      slabs.set(slab(address), null);
+      reserved -= size;
+      return;
+    }
+    int sizeClass = Integer.numberOfTrailingZeros(size);
+    long[] blocks = freeBlocks[sizeClass];
+    if (blocks == null) {
+      blocks = freeBlocks[sizeClass] = new long[16];
+    } else if (freeCounts[sizeClass] == blocks.length) {
+      blocks = freeBlocks[sizeClass] = Arrays.copyOf(blocks, blocks.length * 2);
+    }
+    blocks[freeCounts[sizeClass]++] = address;
+  }
+
+  /**
+   * @return the slab holding the block at given address
+   */
+  synchronized ByteBuffer buffer(long address) {
+    checkOpen();
+    return slabs.get(slab(address));
+  }
+
+  static int slab(long address) {
+    return (int) (address >>> 32);
+  }
+
+  static int offset(long address) {
+    return (int) address;
+  }
+
+}
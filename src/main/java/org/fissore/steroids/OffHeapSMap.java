@@ -0,0 +1,542 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * OffHeapSMap is a {@link SteroidMap} whose keys and scalar values are stored off heap, in a block of an {@link OffHeapArena}: on heap, it's just a small handle.
+ * <p>
+ * Strings, Longs, Integers, Doubles, Floats, Booleans and Dates are stored off heap, and primitives added with {@link #add(String, long)} and its siblings are stored unboxed.
+ * Dates are stored as milliseconds since the epoch, so each {@link #get(Object)} returns a new Date. Any other value, such as maps and lists, is kept on heap and referenced by the map.
+ * <p>
+ * Entries are appended to the block, one after the other: a lookup scans them, so OffHeapSMaps suit the many small maps of large datasets, such as rows.
+ * Removed entries are compacted away when the block grows. Null keys are not supported.
+ * <p>
+ * A map lives as long as its arena, or until it's {@link #release() released}. OffHeapSMaps are not thread safe
+ */
+public final class OffHeapSMap extends AbstractSteroidMap {
+
+  /* entry layout: key hash (int), key length (short), key UTF-8 bytes, tag (byte), payload */
+  private static final int HEADER = 6;
+  /* payload of scalars, and of references to on heap values */
+  private static final int SCALAR = 8;
+
+  private static final byte NULL = 0;
+  private static final byte LONG = 1;
+  private static final byte INT = 2;
+  private static final byte DOUBLE = 3;
+  private static final byte FLOAT = 4;
+  private static final byte BOOLEAN = 5;
+  private static final byte DATE = 6;
+  /* payload: UTF-8 length (int), UTF-8 bytes */
+  private static final byte STRING = 7;
+  /* payload: index in refs */
+  private static final byte REF = 8;
+  /* flag of the tag of removed entries */
+  private static final int DELETED = 0x80;
+
+  private static final Object[] NO_REFS = new Object[0];
+
+  private final OffHeapArena arena;
+  private ByteBuffer slab;
+  private long address;
+  private int base;
+  private int capacity;
+  private int used;
+  private int garbage;
+  private int size;
+  private Object[] refs;
+  private int refCount;
+  private boolean released;
+
+  OffHeapSMap(OffHeapArena arena) {
+    this.arena = arena;
+    this.refs = NO_REFS;
+  }
+
+  /**
+   * Gives the block of this map back to its arena. The map can't be used anymore
+   */
+  public void release() {
+    if (!released && capacity > 0) {
+      arena.free(address, capacity);
+    }
+    released = true;
+    slab = null;
+    refs = NO_REFS;
+  }
+
+  private void check() {
+    if (released) {
+      throw new IllegalStateException("The map was released");
+    }
+    arena.checkOpen();
+  }
+
+  /* entries */
+
+  private int tagAt(int entry) {
+    return entry + HEADER + slab.getShort(entry + 4);
+  }
+
+  private int endOf(int entry) {
+    int tag = tagAt(entry);
+    return tag + 1 + ((slab.get(tag) & 0x7F) == STRING ? 4 + slab.getInt(tag + 1) : SCALAR);
+  }
+
+  private int find(Object key) {
+    check();
+    if (size == 0 || !(key instanceof String)) {
+      return -1;
+    }
+    String string = (String) key;
+    int hash = string.hashCode();
+    int end = base + used;
+    for (int entry = base; entry < end; entry = endOf(entry)) {
+      if (slab.getInt(entry) == hash && (slab.get(tagAt(entry)) & DELETED) == 0 && keyEquals(entry, string)) {
+        return entry;
+      }
+    }
+    return -1;
+  }
+
+  private boolean keyEquals(int entry, String key) {
+    int bytes = slab.getShort(entry + 4);
+    int length = key.length();
+    if (bytes == length) {
+      for (int i = 0; i < length; i++) {
+        if (slab.get(entry + HEADER + i) != key.charAt(i)) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return bytes > length && readString(entry + HEADER, bytes).equals(key);
+  }
+
+  private String readString(int at, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer buffer = slab.duplicate();
+    buffer.position(at);
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private String keyAt(int entry) {
+    return readString(entry + HEADER, slab.getShort(entry + 4));
+  }
+
+  private Object valueAt(int entry) {
+    int tag = tagAt(entry);
+    byte type = slab.get(tag);
+    if (type == STRING) {
+      return readString(tag + 5, slab.getInt(tag + 1));
+    }
+    /* strings may end less than 8 bytes before the end of the slab: only scalars are read as longs */
+    long bits = slab.getLong(tag + 1);
+    switch (type) {
+      case LONG:
+        return bits;
+      case INT:
+        return (int) bits;
+      case DOUBLE:
+        return Double.longBitsToDouble(bits);
+      case FLOAT:
+        return Float.intBitsToFloat((int) bits);
+      case BOOLEAN:
+        return bits != 0;
+      case DATE:
+        return new Date(bits);
+      case REF:
+        return refs[(int) bits];
+      default:
+        return null;
+    }
+  }
+
+  private void delete(int entry) {
+    int tag = tagAt(entry);
+    byte type = slab.get(tag);
+    if (type == REF) {
+      refs[(int) slab.getLong(tag + 1)] = null;
+    }
+    slab.put(tag, (byte) (type | DELETED));
+    garbage += endOf(entry) - entry;
+    size--;
+    if (size == 0) {
+      used = 0;
+      garbage = 0;
+      refCount = 0;
+    }
+  }
+
+  private void write(String key, byte type, long bits, byte[] string, Object ref) {
+    if (key == null) {
+      throw new NullPointerException("Null keys are not supported");
+    }
+    int entry = find(key);
+    if (entry >= 0) {
+      int tag = tagAt(entry);
+      byte previous = slab.get(tag);
+      if (previous != STRING && type != STRING) {
+        /* same payload size: overwritten in place */
+        if (previous == REF && type == REF) {
+          refs[(int) slab.getLong(tag + 1)] = ref;
+          return;
+        }
+        if (previous == REF) {
+          refs[(int) slab.getLong(tag + 1)] = null;
+        } else if (type == REF) {
+          bits = addRef(ref);
+        }
+        slab.put(tag, type);
+        slab.putLong(tag + 1, bits);
+        return;
+      }
+      delete(entry);
+    }
+
+    byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+    if (keyBytes.length > Short.MAX_VALUE) {
+      throw new IllegalArgumentException("Keys are limited to " + Short.MAX_VALUE + " bytes");
+    }
+    int length = HEADER + keyBytes.length + 1 + (type == STRING ? 4 + string.length : SCALAR);
+    ensureCapacity(length);
+    if (type == REF) {
+      bits = addRef(ref);
+    }
+
+    int at = base + used;
+    slab.putInt(at, key.hashCode());
+    slab.putShort(at + 4, (short) keyBytes.length);
+    put(at + HEADER, keyBytes);
+    int tag = at + HEADER + keyBytes.length;
+    slab.put(tag, type);
+    if (type == STRING) {
+      slab.putInt(tag + 1, string.length);
+      put(tag + 5, string);
+    } else {
+      slab.putLong(tag + 1, bits);
+    }
+    used += length;
+    size++;
+  }
+
+  private void put(int at, byte[] bytes) {
+    ByteBuffer buffer = slab.duplicate();
+    buffer.position(at);
+    buffer.put(bytes);
+  }
+
+  private int addRef(Object ref) {
+    if (refCount == refs.length) {
+      refs = Arrays.copyOf(refs, Math.max(4, refCount * 2));
+    }
+    refs[refCount] = ref;
+    return refCount++;
+  }
+
+  /**
+   * Makes room for an entry of given length, moving the live entries to a new, larger block when needed
+   */
+  private void ensureCapacity(int length) {
+    if (used + length <= capacity) {
+      return;
+    }
+
+    int live = used - garbage;
+    int newCapacity = OffHeapArena.blockSize(Math.max(live + length, (live + length) * 3 / 2));
+    long newAddress = arena.allocate(newCapacity);
+    ByteBuffer newSlab = arena.buffer(newAddress);
+    int newBase = OffHeapArena.offset(newAddress);
+    Object[] newRefs = refCount == 0 ? refs : new Object[refs.length];
+    int newRefCount = 0;
+
+    int at = newBase;
+    int end = base + used;
+    for (int entry = base; entry < end; ) {
+      int next = endOf(entry);
+      int tag = tagAt(entry);
+      if ((slab.get(tag) & DELETED) == 0) {
+        ByteBuffer source = slab.duplicate();
+        source.limit(next).position(entry);
+        ByteBuffer target = newSlab.duplicate();
+        target.position(at);
+        target.put(source);
+        if (slab.get(tag) == REF) {
+          newRefs[newRefCount] = refs[(int) slab.getLong(tag + 1)];
+          newSlab.putLong(at + (tag - entry) + 1, newRefCount++);
+        }
+        at += next - entry;
+      }
+      entry = next;
+    }
+
+    if (capacity > 0) {
+      arena.free(address, capacity);
+    }
+    slab = newSlab;
+    address = newAddress;
+    base = newBase;
+    capacity = newCapacity;
+    used = at - newBase;
+    garbage = 0;
+    refs = newRefs;
+    refCount = newRefCount;
+  }
+
+  /* map */
+
+  @Override
+  public Object get(Object key) {
+    int entry = find(key);
+    return entry < 0 ? null : valueAt(entry);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return find(key) >= 0;
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    Object previous = get(key);
+    store(key, value);
+    return previous;
+  }
+
+  private void store(String key, Object value) {
+    if (value instanceof String) {
+      write(key, STRING, 0, ((String) value).getBytes(StandardCharsets.UTF_8), null);
+    } else if (value instanceof Long) {
+      write(key, LONG, (Long) value, null, null);
+    } else if (value instanceof Integer) {
+      write(key, INT, (Integer) value, null, null);
+    } else if (value instanceof Double) {
+      write(key, DOUBLE, Double.doubleToRawLongBits((Double) value), null, null);
+    } else if (value instanceof Float) {
+      write(key, FLOAT, Float.floatToRawIntBits((Float) value), null, null);
+    } else if (value instanceof Boolean) {
+      write(key, BOOLEAN, (Boolean) value ? 1 : 0, null, null);
+    } else if (value instanceof Date) {
+      write(key, DATE, ((Date) value).getTime(), null, null);
+    } else if (value == null) {
+      write(key, NULL, 0, null, null);
+    } else {
+      write(key, REF, 0, null, value);
+    }
+  }
+
+  @Override
+  public Object remove(Object key) {
+    int entry = find(key);
+    if (entry < 0) {
+      return null;
+    }
+    Object previous = valueAt(entry);
+    delete(entry);
+    return previous;
+  }
+
+  @Override
+  public int size() {
+    check();
+    return size;
+  }
+
+  @Override
+  public void clear() {
+    check();
+    used = 0;
+    garbage = 0;
+    size = 0;
+    refCount = 0;
+    Arrays.fill(refs, null);
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return new AbstractSet<Entry<String, Object>>() {
+
+      @Override
+      public Iterator<Entry<String, Object>> iterator() {
+        check();
+        return new Iterator<Entry<String, Object>>() {
+
+          private int next = skipDeleted(base);
+          private int current = -1;
+
+          private int skipDeleted(int entry) {
+            int end = base + used;
+            while (entry < end && (slab.get(tagAt(entry)) & DELETED) != 0) {
+              entry = endOf(entry);
+            }
+            return entry;
+          }
+
+          @Override
+          public boolean hasNext() {
+            check();
+            return next < base + used;
+          }
+
+          @Override
+          public Entry<String, Object> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            current = next;
+            next = skipDeleted(endOf(current));
+            return new SimpleImmutableEntry<>(keyAt(current), valueAt(current));
+          }
+
+          @Override
+          public void remove() {
+            if (current < 0) {
+              throw new IllegalStateException();
+            }
+            delete(current);
+            current = -1;
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return OffHeapSMap.this.size();
+      }
+    };
+  }
+
+  /* steroids */
+
+  @Override
+  public OffHeapSMap add(String key, Object value) {
+    if (value != null) {
+      store(key, value);
+    }
+    return this;
+  }
+
+  @Override
+  public OffHeapSMap add(String key, long value) {
+    write(key, LONG, value, null, null);
+    return this;
+  }
+
+  @Override
+  public OffHeapSMap add(String key, int value) {
+    write(key, INT, value, null, null);
+    return this;
+  }
+
+  @Override
+  public OffHeapSMap add(String key, double value) {
+    write(key, DOUBLE, Double.doubleToRawLongBits(value), null, null);
+    return this;
+  }
+
+  @Override
+  public OffHeapSMap add(String key, float value) {
+    write(key, FLOAT, Float.floatToRawIntBits(value), null, null);
+    return this;
+  }
+
+  @Override
+  public OffHeapSMap add(String key, boolean value) {
+    write(key, BOOLEAN, value ? 1 : 0, null, null);
+    return this;
+  }
+
+  @Override
+  public OffHeapSMap add(String key, char value) {
+    write(key, REF, 0, null, value);
+    return this;
+  }
+
+  @Override
+  public OffHeapSMap add(String key, short value) {
+    write(key, REF, 0, null, value);
+    return this;
+  }
+
+  @Override
+  public OffHeapSMap add(String key, byte value) {
+    write(key, REF, 0, null, value);
+    return this;
+  }
+
+  @Override
+  public boolean valued(String key) {
+    int entry = find(key);
+    return entry >= 0 && slab.get(tagAt(entry)) != NULL;
+  }
+
+  @Override
+  public long l(String key) {
+    int entry = find(key);
+    if (entry >= 0 && slab.get(tagAt(entry)) == LONG) {
+      return slab.getLong(tagAt(entry) + 1);
+    }
+    return (Long) get(key);
+  }
+
+  @Override
+  public int i(String key) {
+    int entry = find(key);
+    if (entry >= 0 && slab.get(tagAt(entry)) == INT) {
+      return (int) slab.getLong(tagAt(entry) + 1);
+    }
+    return (Integer) get(key);
+  }
+
+  @Override
+  public double d(String key) {
+    int entry = find(key);
+    if (entry >= 0 && slab.get(tagAt(entry)) == DOUBLE) {
+      return Double.longBitsToDouble(slab.getLong(tagAt(entry) + 1));
+    }
+    return (Double) get(key);
+  }
+
+  @Override
+  public float f(String key) {
+    int entry = find(key);
+    if (entry >= 0 && slab.get(tagAt(entry)) == FLOAT) {
+      return Float.intBitsToFloat((int) slab.getLong(tagAt(entry) + 1));
+    }
+    return (Float) get(key);
+  }
+
+  @Override
+  public boolean b(String key) {
+    int entry = find(key);
+    if (entry >= 0 && slab.get(tagAt(entry)) == BOOLEAN) {
+      return slab.getLong(tagAt(entry) + 1) != 0;
+    }
+    return (Boolean) get(key);
+  }
+
+}
@@ -0,0 +1,621 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * PersistentSMap is an immutable {@link SteroidMap}, backed by a hash array mapped trie.
+ * Methods that would modify the map, like {@link #add(String, Object)}, {@link #del(String...)} and {@link #renameKey(String, String)}, return a new version of the map instead, sharing most of its structure with the previous one: this instance is never modified.
+ * As a consequence, {@link #copy()} returns this very instance and no method synchronizes: a PersistentSMap can be freely shared among threads.
+ * <p>
+ * Always use the returned instance:
+ * <pre>
+ * PersistentSMap config = PersistentSMap.empty().add("host", "localhost").add("port", 8080);
+ * PersistentSMap newConfig = config.add("port", 8443);
+ * </pre>
+ * Methods of {@link Map} that modify the map, like {@link #put(String, Object)}, throw {@link UnsupportedOperationException}
+ */
+public final class PersistentSMap extends AbstractSteroidMap {
+
+  private static final PersistentSMap EMPTY = new PersistentSMap(null, 0);
+
+  private static final Object NOT_FOUND = new Object();
+
+  private final Node root;
+  private final int size;
+
+  private PersistentSMap(Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Returns the empty PersistentSMap
+   *
+   * @return the empty PersistentSMap
+   */
+  public static PersistentSMap empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Returns a PersistentSMap with all non null values of given map
+   *
+   * @param map the source map
+   * @return a new PersistentSMap
+   */
+  @SuppressWarnings("unchecked")
+  public static PersistentSMap of(Map<String, Object> map) {
+    return EMPTY.addAll(map);
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private Object find(Object key) {
+    if (root == null || key == null) {
+      return NOT_FOUND;
+    }
+    return root.find(0, hash(key), key);
+  }
+
+  @Override
+  public Object get(Object key) {
+    Object value = find(key);
+    return value == NOT_FOUND ? null : value;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return find(key) != NOT_FOUND;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    return new AbstractSet<Entry<String, Object>>() {
+      @Override
+      public Iterator<Entry<String, Object>> iterator() {
+        return new EntryIterator(root);
+      }
+
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+
+  /* versioning */
+
+  private PersistentSMap with(String key, Object value) {
+    if (key == null) {
+      throw new NullPointerException();
+    }
+    boolean[] added = new boolean[1];
+    Node newRoot = (root == null ? BitmapNode.EMPTY : root).assoc(0, hash(key), key, value, added);
+    if (newRoot == root) {
+      return this;
+    }
+    return new PersistentSMap(newRoot, added[0] ? size + 1 : size);
+  }
+
+  private PersistentSMap without(Object key) {
+    if (root == null || key == null) {
+      return this;
+    }
+    Node newRoot = root.without(0, hash(key), key);
+    if (newRoot == root) {
+      return this;
+    }
+    return newRoot == null ? EMPTY : new PersistentSMap(newRoot, size - 1);
+  }
+
+  /**
+   * Returns a new version of this map, with given value associated to given key. If value is null, this instance is returned
+   *
+   * @param key   key with which the specified value is to be associated
+   * @param value value to be associated with the specified key
+   * @return the new version of this map
+   */
+  @Override
+  public PersistentSMap add(String key, Object value) {
+    return value == null ? this : with(key, value);
+  }
+
+  @Override
+  public PersistentSMap add(String key, long value) {
+    return with(key, value);
+  }
+
+  @Override
+  public PersistentSMap add(String key, int value) {
+    return with(key, value);
+  }
+
+  @Override
+  public PersistentSMap add(String key, double value) {
+    return with(key, value);
+  }
+
+  @Override
+  public PersistentSMap add(String key, float value) {
+    return with(key, value);
+  }
+
+  @Override
+  public PersistentSMap add(String key, boolean value) {
+    return with(key, value);
+  }
+
+  @Override
+  public PersistentSMap add(String key, char value) {
+    return with(key, value);
+  }
+
+  @Override
+  public PersistentSMap add(String key, short value) {
+    return with(key, value);
+  }
+
+  @Override
+  public PersistentSMap add(String key, byte value) {
+    return with(key, value);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public PersistentSMap addAll(Map<String, Object>... sources) {
+    return addAll(Stream.of(sources));
+  }
+
+  @Override
+  public PersistentSMap addAll(Collection<Map<String, Object>> sources) {
+    return addAll(sources.stream());
+  }
+
+  /**
+   * Returns a new version of this map, with all non null values of given maps
+   *
+   * @param sources mappings to be stored in the new version of this map
+   * @return the new version of this map
+   */
+  @Override
+  public PersistentSMap addAll(Stream<Map<String, Object>> sources) {
+    PersistentSMap[] result = {this};
+    sources.forEach(source -> source.forEach((key, value) -> result[0] = result[0].add(key, value)));
+    return result[0];
+  }
+
+  @Override
+  public PersistentSMap addFrom(Map<String, Object> source, String... keys) {
+    return addFrom(source, new HashSet<>(Arrays.asList(keys)));
+  }
+
+  /**
+   * Returns a new version of this map, with non null values of given keys from source. If keys is not specified, it behaves as {@link #addAll(Map[])}
+   *
+   * @param source the map to add to the new version of this map
+   * @param keys   if specified, only these keys will be added
+   * @return the new version of this map
+   */
+  @Override
+  @SuppressWarnings("unchecked")
+  public PersistentSMap addFrom(Map<String, Object> source, Collection<String> keys) {
+    if (source == null) {
+      return this;
+    }
+
+    if (keys.isEmpty()) {
+      return addAll(source);
+    }
+
+    PersistentSMap result = this;
+    for (Entry<String, Object> entry : source.entrySet()) {
+      if (keys.contains(entry.getKey())) {
+        result = result.add(entry.getKey(), entry.getValue());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns a new version of this map, with the specified key renamed, if present
+   *
+   * @param oldKey the old key
+   * @param newKey the new key
+   * @return the new version of this map
+   */
+  @Override
+  public PersistentSMap renameKey(String oldKey, String newKey) {
+    Object value = find(oldKey);
+    if (value == NOT_FOUND) {
+      return this;
+    }
+    return without(oldKey).with(newKey, value);
+  }
+
+  @Override
+  public PersistentSMap del(String... keys) {
+    return del(Stream.of(keys));
+  }
+
+  @Override
+  public PersistentSMap del(Collection<String> keys) {
+    return del(keys.stream());
+  }
+
+  /**
+   * Returns a new version of this map, without given keys
+   *
+   * @param keys the keys to remove
+   * @return the new version of this map
+   */
+  @Override
+  public PersistentSMap del(Stream<String> keys) {
+    PersistentSMap[] result = {this};
+    keys.forEach(key -> result[0] = result[0].without(key));
+    return result[0];
+  }
+
+  /* content extraction, no need to synchronize */
+
+  @Override
+  public <V> V defaultIfMissing(String key, V defaultValue, Function<String, V> valueReturner) {
+    if (valued(key)) {
+      return valueReturner.apply(key);
+    }
+    return defaultValue;
+  }
+
+  @Override
+  public long l(String key, long defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (Long) value;
+  }
+
+  @Override
+  public int i(String key, int defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (Integer) value;
+  }
+
+  @Override
+  public double d(String key, double defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (Double) value;
+  }
+
+  @Override
+  public float f(String key, float defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (Float) value;
+  }
+
+  @Override
+  public boolean b(String key, boolean defaultValue) {
+    Object value = get(key);
+    return value == null ? defaultValue : (Boolean) value;
+  }
+
+  @Override
+  public PersistentSMap subMap(String... keys) {
+    return subMap(Stream.of(keys));
+  }
+
+  @Override
+  public PersistentSMap subMap(Collection<String> keys) {
+    return subMap(keys.stream());
+  }
+
+  @Override
+  public PersistentSMap subMap(Stream<String> keys) {
+    PersistentSMap[] result = {EMPTY};
+    keys.forEach(key -> result[0] = result[0].add(key, get(key)));
+    return result[0];
+  }
+
+  /**
+   * Returns this instance: being immutable, there's no need to copy it
+   *
+   * @return this instance
+   */
+  @Override
+  public PersistentSMap copy() {
+    return this;
+  }
+
+  /**
+   * Returns a deep copy of this map, which is this very instance unless it holds mutable maps or lists: those are replaced by their lazy deep copies
+   *
+   * @return a deep copy of this map
+   */
+  @Override
+  public PersistentSMap deepCopy() {
+    PersistentSMap copy = this;
+    for (Entry<String, Object> entry : entrySet()) {
+      Object value = entry.getValue();
+      Object child = LazyCopyMap.lazyCopy(value);
+      if (child != value) {
+        copy = copy.with(entry.getKey(), child);
+      }
+    }
+    return copy;
+  }
+
+  /* trie */
+
+  /**
+   * A node of the trie. Its array stores key/value pairs: when a key is null, its value is a child node
+   */
+  private abstract static class Node {
+
+    final Object[] array;
+
+    Node(Object[] array) {
+      this.array = array;
+    }
+
+    abstract Object find(int shift, int hash, Object key);
+
+    abstract Node assoc(int shift, int hash, String key, Object value, boolean[] added);
+
+    /**
+     * @return null if the resulting node is empty, this if key was not found
+     */
+    abstract Node without(int shift, int hash, Object key);
+
+  }
+
+  private static final class BitmapNode extends Node {
+
+    static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+    private final int bitmap;
+
+    BitmapNode(int bitmap, Object[] array) {
+      super(array);
+      this.bitmap = bitmap;
+    }
+
+    private static int bit(int hash, int shift) {
+      return 1 << ((hash >>> shift) & 31);
+    }
+
+    private int index(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    Object find(int shift, int hash, Object key) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return NOT_FOUND;
+      }
+      int i = 2 * index(bit);
+      Object k = array[i];
+      if (k == null) {
+        return ((Node) array[i + 1]).find(shift + 5, hash, key);
+      }
+      return key.equals(k) ? array[i + 1] : NOT_FOUND;
+    }
+
+    @Override
+    Node assoc(int shift, int hash, String key, Object value, boolean[] added) {
+      int bit = bit(hash, shift);
+      int i = 2 * index(bit);
+
+      if ((bitmap & bit) == 0) {
+        Object[] newArray = new Object[array.length + 2];
+        System.arraycopy(array, 0, newArray, 0, i);
+        newArray[i] = key;
+        newArray[i + 1] = value;
+        System.arraycopy(array, i, newArray, i + 2, array.length - i);
+        added[0] = true;
+        return new BitmapNode(bitmap | bit, newArray);
+      }
+
+      Object k = array[i];
+      Object v = array[i + 1];
+      if (k == null) {
+        Node child = ((Node) v).assoc(shift + 5, hash, key, value, added);
+        return child == v ? this : copyWith(i, null, child);
+      }
+      if (key.equals(k)) {
+        return value == v ? this : copyWith(i, k, value);
+      }
+      added[0] = true;
+      return copyWith(i, null, node(shift + 5, (String) k, v, hash, key, value));
+    }
+
+    private BitmapNode copyWith(int i, Object key, Object value) {
+      Object[] newArray = array.clone();
+      newArray[i] = key;
+      newArray[i + 1] = value;
+      return new BitmapNode(bitmap, newArray);
+    }
+
+    private static Node node(int shift, String key1, Object value1, int hash2, String key2, Object value2) {
+      int hash1 = hash(key1);
+      if (hash1 == hash2) {
+        return new CollisionNode(hash1, new Object[]{key1, value1, key2, value2});
+      }
+      boolean[] ignored = new boolean[1];
+      return EMPTY
+          .assoc(shift, hash1, key1, value1, ignored)
+          .assoc(shift, hash2, key2, value2, ignored);
+    }
+
+    @Override
+    Node without(int shift, int hash, Object key) {
+      int bit = bit(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+
+      int i = 2 * index(bit);
+      Object k = array[i];
+      Object v = array[i + 1];
+      if (k == null) {
+        Node child = ((Node) v).without(shift + 5, hash, key);
+        if (child == v) {
+          return this;
+        }
+        if (child != null) {
+          return copyWith(i, null, child);
+        }
+      } else if (!key.equals(k)) {
+        return this;
+      }
+
+      if (bitmap == bit) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, i);
+      System.arraycopy(array, i + 2, newArray, i, newArray.length - i);
+      return new BitmapNode(bitmap ^ bit, newArray);
+    }
+  }
+
+  private static final class CollisionNode extends Node {
+
+    private final int hash;
+
+    CollisionNode(int hash, Object[] array) {
+      super(array);
+      this.hash = hash;
+    }
+
+    private int indexOf(Object key) {
+      for (int i = 0; i < array.length; i += 2) {
+        if (key.equals(array[i])) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    Object find(int shift, int hash, Object key) {
+      int i = hash == this.hash ? indexOf(key) : -1;
+      return i < 0 ? NOT_FOUND : array[i + 1];
+    }
+
+    @Override
+    Node assoc(int shift, int hash, String key, Object value, boolean[] added) {
+      if (hash != this.hash) {
+        return new BitmapNode(BitmapNode.bit(this.hash, shift), new Object[]{null, this})
+            .assoc(shift, hash, key, value, added);
+      }
+
+      int i = indexOf(key);
+      if (i >= 0) {
+        if (array[i + 1] == value) {
+          return this;
+        }
+        Object[] newArray = array.clone();
+        newArray[i + 1] = value;
+        return new CollisionNode(hash, newArray);
+      }
+
+      Object[] newArray = Arrays.copyOf(array, array.length + 2);
+      newArray[array.length] = key;
+      newArray[array.length + 1] = value;
+      added[0] = true;
+      return new CollisionNode(hash, newArray);
+    }
+
+    @Override
+    Node without(int shift, int hash, Object key) {
+      int i = hash == this.hash ? indexOf(key) : -1;
+      if (i < 0) {
+        return this;
+      }
+      if (array.length == 2) {
+        return null;
+      }
+      Object[] newArray = new Object[array.length - 2];
+      System.arraycopy(array, 0, newArray, 0, i);
+      System.arraycopy(array, i + 2, newArray, i, newArray.length - i);
+      return new CollisionNode(hash, newArray);
+    }
+  }
+
+  private static final class EntryIterator implements Iterator<Entry<String, Object>> {
+
+    private final Deque<Object[]> arrays = new ArrayDeque<>();
+    private final Deque<Integer> indexes = new ArrayDeque<>();
+    private Entry<String, Object> next;
+
+    EntryIterator(Node root) {
+      if (root != null) {
+        arrays.push(root.array);
+        indexes.push(0);
+      }
+      advance();
+    }
+
+    private void advance() {
+      next = null;
+      while (next == null && !arrays.isEmpty()) {
+        Object[] array = arrays.peek();
+        int i = indexes.pop();
+        if (i >= array.length) {
+          arrays.pop();
+          continue;
+        }
+        indexes.push(i + 2);
+        if (array[i] == null) {
+          arrays.push(((Node) array[i + 1]).array);
+          indexes.push(0);
+        } else {
+          next = new SimpleImmutableEntry<>((String) array[i], array[i + 1]);
+        }
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return next != null;
+    }
+
+    @Override
+    public Entry<String, Object> next() {
+      if (next == null) {
+        throw new NoSuchElementException();
+      }
+      Entry<String, Object> entry = next;
+      advance();
+      return entry;
+    }
+  }
+
+}
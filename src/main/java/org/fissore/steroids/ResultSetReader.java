@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * ResultSetReader streams the rows of a JDBC {@link ResultSet} as {@link SMap}s, keyed by column label.
+ * <p>
+ * The metadata is read once: rows are backed by {@link ShapedMap}s sharing the same {@link Shape} of column labels, and <code>BIGINT</code>, <code>INTEGER</code>, <code>SMALLINT</code>,
+ * <code>TINYINT</code>, <code>DOUBLE</code>, <code>FLOAT</code>, <code>REAL</code>, <code>BOOLEAN</code> and <code>BIT</code> columns are read with the matching primitive getter and stored unboxed. Other columns are read with {@link ResultSet#getObject(int)}.
+ * SQL <code>NULL</code>s are null values, so that all rows have all the columns. When more columns have the same label, the last one wins.
+ * <p>
+ * Rows are read one at a time, as the stream is consumed. SQLExceptions are rethrown wrapped in RuntimeExceptions
+ */
+public final class ResultSetReader {
+
+  private ResultSetReader() {
+  }
+
+  /**
+   * Streams the rows of given result set, from its current row on. The result set is not closed
+   *
+   * @param resultSet the result set
+   * @return the stream of the rows
+   */
+  public static Stream<SMap> stream(ResultSet resultSet) {
+    return stream(resultSet, 0);
+  }
+
+  /**
+   * Streams the rows of given result set, from its current row on. The result set is not closed
+   *
+   * @param resultSet the result set
+   * @param fetchSize the number of rows to fetch from the database at once, see {@link ResultSet#setFetchSize(int)}. 0 leaves it to the driver
+   * @return the stream of the rows
+   */
+  public static Stream<SMap> stream(ResultSet resultSet, int fetchSize) {
+    try {
+      if (fetchSize > 0) {
+        resultSet.setFetchSize(fetchSize);
+      }
+      return StreamSupport.stream(new RowSpliterator(resultSet), false);
+    } catch (SQLException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private static final class RowSpliterator extends Spliterators.AbstractSpliterator<SMap> {
+
+    private final ResultSet resultSet;
+    private final Shape shape;
+    private final String[] labels;
+    private final int[] types;
+
+    private RowSpliterator(ResultSet resultSet) throws SQLException {
+      super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+      this.resultSet = resultSet;
+
+      ResultSetMetaData metaData = resultSet.getMetaData();
+      int columns = metaData.getColumnCount();
+      labels = new String[columns];
+      types = new int[columns];
+      for (int i = 0; i < columns; i++) {
+        labels[i] = metaData.getColumnLabel(i + 1);
+        types[i] = metaData.getColumnType(i + 1);
+      }
+      shape = Shape.of(labels);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super SMap> action) {
+      try {
+        if (!resultSet.next()) {
+          return false;
+        }
+        action.accept(new SMap(readRow(), SMap.SHAPED_MAP_FACTORY));
+        return true;
+      } catch (SQLException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private ShapedMap readRow() throws SQLException {
+      ShapedMap row = new ShapedMap(shape, new Object[shape.size()]);
+      for (int i = 0; i < labels.length; i++) {
+        int column = i + 1;
+        String label = labels[i];
+        switch (types[i]) {
+          case Types.BIGINT:
+            long l = resultSet.getLong(column);
+            if (!resultSet.wasNull()) {
+              row.putLong(label, l);
+              continue;
+            }
+            break;
+          case Types.INTEGER:
+          case Types.SMALLINT:
+          case Types.TINYINT:
+            int n = resultSet.getInt(column);
+            if (!resultSet.wasNull()) {
+              row.putInt(label, n);
+              continue;
+            }
+            break;
+          case Types.DOUBLE:
+          case Types.FLOAT:
+            double d = resultSet.getDouble(column);
+            if (!resultSet.wasNull()) {
+              row.putDouble(label, d);
+              continue;
+            }
+            break;
+          case Types.REAL:
+            float f = resultSet.getFloat(column);
+            if (!resultSet.wasNull()) {
+              row.putFloat(label, f);
+              continue;
+            }
+            break;
+          case Types.BOOLEAN:
+          case Types.BIT:
+            boolean b = resultSet.getBoolean(column);
+            if (!resultSet.wasNull()) {
+              row.putBoolean(label, b);
+              continue;
+            }
+            break;
+          default:
+            row.put(label, resultSet.getObject(column));
+            continue;
+        }
+        row.put(label, null);
+      }
+      return row;
+    }
+
+  }
+
+}
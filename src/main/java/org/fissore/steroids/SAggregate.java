@@ -0,0 +1,493 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+/**
+ * SAggregate groups maps by the values of some keys and aggregates each group in a single pass, with one set of primitive accumulators per group.
+ * <pre>
+ * List&lt;SMap&gt; totals = SAggregate.groupBy("surname").count().sumLong("amount").avgDouble("score").apply(mymap.maps("payments"));
+ * </pre>
+ * Each group results in an {@link SMap}, backed by a {@link ShapedMap}, holding the grouping keys and the aggregates.
+ * Unless named, aggregates are named after the aggregated key: <code>count</code>, <code>amountSum</code>, <code>scoreAvg</code>, <code>ageMin</code>, <code>ageMax</code>. Groups are returned in the order they are first met.
+ * Grouping values are compared as {@link SMapIndex} does, so that integers and longs, floats and doubles, of the same value end up in the same group: its map holds the value met first.
+ * <p>
+ * Null values are skipped. Averages, minimums and maximums of groups with no values are missing, sums are zero. Aggregated values must be {@link Number}s, otherwise an IllegalArgumentException is thrown.
+ * <p>
+ * Parallel streams are supported: each thread accumulates a partial table, and partial tables are merged at the end. SAggregate instances are immutable, thus thread safe: each method returns a new instance
+ */
+public final class SAggregate {
+
+  private static final int COUNT = 0;
+  private static final int SUM_LONG = 1;
+  private static final int SUM_DOUBLE = 2;
+  private static final int AVG_DOUBLE = 3;
+  private static final int MIN_LONG = 4;
+  private static final int MAX_LONG = 5;
+  private static final int MIN_DOUBLE = 6;
+  private static final int MAX_DOUBLE = 7;
+
+  private final String[] keys;
+  private final int[] kinds;
+  private final String[] sources;
+  private final String[] names;
+
+  private SAggregate(String[] keys, int[] kinds, String[] sources, String[] names) {
+    this.keys = keys;
+    this.kinds = kinds;
+    this.sources = sources;
+    this.names = names;
+  }
+
+  /**
+   * Starts an aggregation grouping by given keys. Without keys, all maps end up in a single group
+   *
+   * @param keys the keys to group by
+   * @return the new aggregation, with no aggregates
+   */
+  public static SAggregate groupBy(String... keys) {
+    return new SAggregate(keys.clone(), new int[0], new String[0], new String[0]);
+  }
+
+  private SAggregate with(int kind, String source, String name) {
+    int n = kinds.length;
+    int[] newKinds = Arrays.copyOf(kinds, n + 1);
+    String[] newSources = Arrays.copyOf(sources, n + 1);
+    String[] newNames = Arrays.copyOf(names, n + 1);
+    newKinds[n] = kind;
+    newSources[n] = source;
+    newNames[n] = name;
+    return new SAggregate(keys, newKinds, newSources, newNames);
+  }
+
+  /**
+   * Counts the maps of each group, as <code>count</code>
+   *
+   * @return the new aggregation
+   */
+  public SAggregate count() {
+    return count("count");
+  }
+
+  /**
+   * Counts the maps of each group
+   *
+   * @param as the name of the aggregate
+   * @return the new aggregation
+   */
+  public SAggregate count(String as) {
+    return with(COUNT, null, as);
+  }
+
+  /**
+   * Sums the values of given key as longs, as <code>keySum</code>
+   *
+   * @param key the key to sum
+   * @return the new aggregation
+   */
+  public SAggregate sumLong(String key) {
+    return sumLong(key, key + "Sum");
+  }
+
+  /**
+   * Sums the values of given key as longs
+   *
+   * @param key the key to sum
+   * @param as  the name of the aggregate
+   * @return the new aggregation
+   */
+  public SAggregate sumLong(String key, String as) {
+    return with(SUM_LONG, key, as);
+  }
+
+  /**
+   * Sums the values of given key as doubles, as <code>keySum</code>
+   *
+   * @param key the key to sum
+   * @return the new aggregation
+   */
+  public SAggregate sumDouble(String key) {
+    return sumDouble(key, key + "Sum");
+  }
+
+  /**
+   * Sums the values of given key as doubles
+   *
+   * @param key the key to sum
+   * @param as  the name of the aggregate
+   * @return the new aggregation
+   */
+  public SAggregate sumDouble(String key, String as) {
+    return with(SUM_DOUBLE, key, as);
+  }
+
+  /**
+   * Averages the values of given key as doubles, as <code>keyAvg</code>
+   *
+   * @param key the key to average
+   * @return the new aggregation
+   */
+  public SAggregate avgDouble(String key) {
+    return avgDouble(key, key + "Avg");
+  }
+
+  /**
+   * Averages the values of given key as doubles
+   *
+   * @param key the key to average
+   * @param as  the name of the aggregate
+   * @return the new aggregation
+   */
+  public SAggregate avgDouble(String key, String as) {
+    return with(AVG_DOUBLE, key, as);
+  }
+
+  /**
+   * Finds the minimum of the values of given key as longs, as <code>keyMin</code>
+   *
+   * @param key the key
+   * @return the new aggregation
+   */
+  public SAggregate minLong(String key) {
+    return minLong(key, key + "Min");
+  }
+
+  /**
+   * Finds the minimum of the values of given key as longs
+   *
+   * @param key the key
+   * @param as  the name of the aggregate
+   * @return the new aggregation
+   */
+  public SAggregate minLong(String key, String as) {
+    return with(MIN_LONG, key, as);
+  }
+
+  /**
+   * Finds the maximum of the values of given key as longs, as <code>keyMax</code>
+   *
+   * @param key the key
+   * @return the new aggregation
+   */
+  public SAggregate maxLong(String key) {
+    return maxLong(key, key + "Max");
+  }
+
+  /**
+   * Finds the maximum of the values of given key as longs
+   *
+   * @param key the key
+   * @param as  the name of the aggregate
+   * @return the new aggregation
+   */
+  public SAggregate maxLong(String key, String as) {
+    return with(MAX_LONG, key, as);
+  }
+
+  /**
+   * Finds the minimum of the values of given key as doubles, as <code>keyMin</code>
+   *
+   * @param key the key
+   * @return the new aggregation
+   */
+  public SAggregate minDouble(String key) {
+    return minDouble(key, key + "Min");
+  }
+
+  /**
+   * Finds the minimum of the values of given key as doubles
+   *
+   * @param key the key
+   * @param as  the name of the aggregate
+   * @return the new aggregation
+   */
+  public SAggregate minDouble(String key, String as) {
+    return with(MIN_DOUBLE, key, as);
+  }
+
+  /**
+   * Finds the maximum of the values of given key as doubles, as <code>keyMax</code>
+   *
+   * @param key the key
+   * @return the new aggregation
+   */
+  public SAggregate maxDouble(String key) {
+    return maxDouble(key, key + "Max");
+  }
+
+  /**
+   * Finds the maximum of the values of given key as doubles
+   *
+   * @param key the key
+   * @param as  the name of the aggregate
+   * @return the new aggregation
+   */
+  public SAggregate maxDouble(String key, String as) {
+    return with(MAX_DOUBLE, key, as);
+  }
+
+  /**
+   * Aggregates given maps
+   *
+   * @param maps the maps to aggregate
+   * @return one map per group
+   */
+  public List<SMap> apply(Collection<? extends Map<String, Object>> maps) {
+    return apply(maps.stream());
+  }
+
+  /**
+   * Aggregates given maps, consuming the stream. Parallel streams are aggregated in parallel
+   *
+   * @param maps the maps to aggregate
+   * @return one map per group
+   */
+  public List<SMap> apply(Stream<? extends Map<String, Object>> maps) {
+    return maps.collect(collector());
+  }
+
+  /**
+   * Returns a {@link Collector} performing this aggregation, to be used with {@link Stream#collect(Collector)}
+   *
+   * @return the collector
+   */
+  public Collector<Map<String, Object>, ?, List<SMap>> collector() {
+    return Collector.of(Table::new, Table::accumulate, Table::merge, Table::finish);
+  }
+
+  /**
+   * The groups met by a thread, by the {@link SMapIndex#normalize(Object) normalized} values of the grouping keys: a single value, or a {@link GroupKey}
+   */
+  private final class Table {
+
+    private final Map<Object, Group> groups = new LinkedHashMap<>();
+    /* looks up groups of many keys, copied only when a new group is met */
+    private final GroupKey probe = new GroupKey(new Object[keys.length]);
+
+    private void accumulate(Map<String, Object> map) {
+      Object groupKey;
+      if (keys.length == 1) {
+        groupKey = SMapIndex.normalize(map.get(keys[0]));
+      } else {
+        for (int i = 0; i < keys.length; i++) {
+          probe.values[i] = SMapIndex.normalize(map.get(keys[i]));
+        }
+        probe.rehash();
+        groupKey = probe;
+      }
+      Group group = groups.get(groupKey);
+      if (group == null) {
+        Object[] values = new Object[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+          values[i] = map.get(keys[i]);
+        }
+        group = new Group(values, kinds.length);
+        groups.put(groupKey == probe ? probe.copy() : groupKey, group);
+      }
+      group.accumulate(map);
+    }
+
+    private Table merge(Table other) {
+      other.groups.forEach((groupKey, group) -> {
+        Group mine = groups.get(groupKey);
+        if (mine == null) {
+          groups.put(groupKey, group);
+        } else {
+          mine.merge(group);
+        }
+      });
+      return this;
+    }
+
+    private List<SMap> finish() {
+      List<SMap> result = new ArrayList<>(groups.size());
+      for (Group group : groups.values()) {
+        result.add(group.finish());
+      }
+      return result;
+    }
+
+  }
+
+  /**
+   * The values of many grouping keys, with their hash computed once
+   */
+  private static final class GroupKey {
+
+    private final Object[] values;
+    private int hash;
+
+    private GroupKey(Object[] values) {
+      this.values = values;
+      rehash();
+    }
+
+    private void rehash() {
+      hash = Arrays.hashCode(values);
+    }
+
+    private GroupKey copy() {
+      return new GroupKey(values.clone());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof GroupKey && Arrays.equals(values, ((GroupKey) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+  }
+
+  /**
+   * The accumulators of a group: for each aggregate, the number of values met and either a long or a double accumulator
+   */
+  private final class Group {
+
+    private final Object[] values;
+    private final long[] counts;
+    private final long[] longs;
+    private final double[] doubles;
+
+    private Group(Object[] values, int aggregates) {
+      this.values = values;
+      this.counts = new long[aggregates];
+      this.longs = new long[aggregates];
+      this.doubles = new double[aggregates];
+    }
+
+    private void accumulate(Map<String, Object> map) {
+      for (int i = 0; i < kinds.length; i++) {
+        if (kinds[i] == COUNT) {
+          counts[i]++;
+          continue;
+        }
+        Object raw = map.get(sources[i]);
+        if (raw == null) {
+          continue;
+        }
+        if (!(raw instanceof Number)) {
+          throw new IllegalArgumentException("Expected a number as value of " + sources[i] + ", found a " + raw.getClass().getName());
+        }
+        Number value = (Number) raw;
+        boolean first = counts[i]++ == 0;
+        switch (kinds[i]) {
+          case SUM_LONG:
+            longs[i] += value.longValue();
+            break;
+          case SUM_DOUBLE:
+          case AVG_DOUBLE:
+            doubles[i] += value.doubleValue();
+            break;
+          case MIN_LONG:
+            longs[i] = first ? value.longValue() : Math.min(longs[i], value.longValue());
+            break;
+          case MAX_LONG:
+            longs[i] = first ? value.longValue() : Math.max(longs[i], value.longValue());
+            break;
+          case MIN_DOUBLE:
+            doubles[i] = first ? value.doubleValue() : Math.min(doubles[i], value.doubleValue());
+            break;
+          case MAX_DOUBLE:
+            doubles[i] = first ? value.doubleValue() : Math.max(doubles[i], value.doubleValue());
+            break;
+        }
+      }
+    }
+
+    private void merge(Group other) {
+      for (int i = 0; i < kinds.length; i++) {
+        if (other.counts[i] == 0) {
+          continue;
+        }
+        boolean first = counts[i] == 0;
+        counts[i] += other.counts[i];
+        switch (kinds[i]) {
+          case SUM_LONG:
+            longs[i] += other.longs[i];
+            break;
+          case SUM_DOUBLE:
+          case AVG_DOUBLE:
+            doubles[i] += other.doubles[i];
+            break;
+          case MIN_LONG:
+            longs[i] = first ? other.longs[i] : Math.min(longs[i], other.longs[i]);
+            break;
+          case MAX_LONG:
+            longs[i] = first ? other.longs[i] : Math.max(longs[i], other.longs[i]);
+            break;
+          case MIN_DOUBLE:
+            doubles[i] = first ? other.doubles[i] : Math.min(doubles[i], other.doubles[i]);
+            break;
+          case MAX_DOUBLE:
+            doubles[i] = first ? other.doubles[i] : Math.max(doubles[i], other.doubles[i]);
+            break;
+        }
+      }
+    }
+
+    private SMap finish() {
+      SMap result = new SMap(new ShapedMap());
+      for (int i = 0; i < keys.length; i++) {
+        result.add(keys[i], values[i]);
+      }
+      for (int i = 0; i < kinds.length; i++) {
+        switch (kinds[i]) {
+          case COUNT:
+            result.add(names[i], counts[i]);
+            break;
+          case SUM_LONG:
+            result.add(names[i], longs[i]);
+            break;
+          case SUM_DOUBLE:
+            result.add(names[i], doubles[i]);
+            break;
+          case AVG_DOUBLE:
+            if (counts[i] > 0) {
+              result.add(names[i], doubles[i] / counts[i]);
+            }
+            break;
+          case MIN_LONG:
+          case MAX_LONG:
+            if (counts[i] > 0) {
+              result.add(names[i], longs[i]);
+            }
+            break;
+          case MIN_DOUBLE:
+          case MAX_DOUBLE:
+            if (counts[i] > 0) {
+              result.add(names[i], doubles[i]);
+            }
+            break;
+        }
+      }
+      return result;
+    }
+
+  }
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a bean to be converted to and from {@link SMap}s. At compile time, <code>org.fissore.steroids.processor.SBeanProcessor</code> generates a class named after the bean with a <code>Mapper</code> suffix,
+ * whose static <code>toSMap</code> and <code>fromSMap</code> methods copy each field with plain Java code, without reflection.
+ * <pre>
+ * &#64;SBean
+ * public class Friend {
+ *   String name;
+ *   private long age;
+ *   // getAge() and setAge(long)
+ * }
+ *
+ * SMap map = FriendMapper.toSMap(friend);
+ * Friend copy = FriendMapper.fromSMap(map);
+ * </pre>
+ * Non static, non transient fields are mapped to the key with their name, unless annotated with {@link Key}. Fields are accessed directly when visible from the bean package, through getters and setters otherwise.
+ * Fields whose type is another SBean are converted to nested maps. Beans need a constructor without arguments, visible from their package.
+ * Missing or null keys leave fields untouched, null fields are not added to maps
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface SBean {
+
+  /**
+   * Overrides the key a field of an {@link SBean} is mapped to
+   */
+  @Documented
+  @Retention(RetentionPolicy.CLASS)
+  @Target(ElementType.FIELD)
+  @interface Key {
+
+    /**
+     * @return the key
+     */
+    String value();
+
+  }
+
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * SJoin joins two collections of maps on the values of one or more keys, with a hash join: a hash table is built on one side and probed with each map of the other side, instead of comparing each pair of maps.
+ * <pre>
+ * List&lt;SMap&gt; ordersWithCustomer = SJoin.on("customerId").left().apply(orders, customers);
+ * </pre>
+ * Each pair of matching maps results in a new {@link SMap}, with the entries of the left map {@link SMap#addAll(Map[]) added} first and then those of the right map: on collisions, right values win.
+ * If {@link #prefixes(String, String) prefixes} are given, colliding keys are prefixed instead, so that both values are kept. Join keys never collide.
+ * <p>
+ * Results follow the order of the left side and, for each left map, the order of the right side. Maps with a null value in any join key match no map.
+ * Values are compared with {@link Object#equals(Object)}, after widening integers, shorts and bytes to longs and floats to doubles.
+ * SJoin instances are immutable, thus thread safe: each method returns a new instance
+ */
+public final class SJoin {
+
+  private final String[] keys;
+  private final boolean leftJoin;
+  private final String leftPrefix;
+  private final String rightPrefix;
+
+  private SJoin(String[] keys, boolean leftJoin, String leftPrefix, String rightPrefix) {
+    this.keys = keys;
+    this.leftJoin = leftJoin;
+    this.leftPrefix = leftPrefix;
+    this.rightPrefix = rightPrefix;
+  }
+
+  /**
+   * Starts an inner join on given keys
+   *
+   * @param keys the keys to join on
+   * @return the new join
+   */
+  public static SJoin on(String... keys) {
+    if (keys.length == 0) {
+      throw new IllegalArgumentException("At least one key is needed");
+    }
+    return new SJoin(keys.clone(), false, null, null);
+  }
+
+  /**
+   * Makes this join a left join: left maps matching no right map are kept, alone
+   *
+   * @return the new join
+   */
+  public SJoin left() {
+    return new SJoin(keys, true, leftPrefix, rightPrefix);
+  }
+
+  /**
+   * Makes this join an inner join, the default: left maps matching no right map are dropped
+   *
+   * @return the new join
+   */
+  public SJoin inner() {
+    return new SJoin(keys, false, leftPrefix, rightPrefix);
+  }
+
+  /**
+   * Prefixes keys found in both maps of a pair, except join keys, so that both values are kept
+   *
+   * @param leftPrefix  the prefix of the keys of the left map
+   * @param rightPrefix the prefix of the keys of the right map
+   * @return the new join
+   */
+  public SJoin prefixes(String leftPrefix, String rightPrefix) {
+    return new SJoin(keys, leftJoin, leftPrefix, rightPrefix);
+  }
+
+  /**
+   * Joins given collections. The hash table is built on the smaller one
+   *
+   * @param left  the left maps
+   * @param right the right maps
+   * @return the joined maps
+   */
+  public List<SMap> apply(Collection<? extends Map<String, Object>> left, Collection<? extends Map<String, Object>> right) {
+    Object[] leftMaps = left.toArray();
+    Object[] rightMaps = right.toArray();
+    List<SMap> result = new ArrayList<>(Math.max(leftMaps.length, rightMaps.length));
+    if (rightMaps.length <= leftMaps.length) {
+      Table table = new Table(rightMaps);
+      for (Object map : leftMaps) {
+        table.probe(asMap(map), result);
+      }
+      return result;
+    }
+
+    Table table = new Table(leftMaps);
+    List<List<Map<String, Object>>> matches = table.match(rightMaps);
+    for (int i = 0; i < leftMaps.length; i++) {
+      Map<String, Object> leftMap = asMap(leftMaps[i]);
+      if (matches.get(i) != null) {
+        for (Map<String, Object> rightMap : matches.get(i)) {
+          result.add(merge(leftMap, rightMap));
+        }
+      } else if (leftJoin) {
+        result.add(merge(leftMap, null));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Joins given streams. The right stream is consumed to build the hash table, the left one is consumed lazily, as the returned stream is
+   *
+   * @param left  the left maps
+   * @param right the right maps
+   * @return the joined maps
+   */
+  public Stream<SMap> apply(Stream<? extends Map<String, Object>> left, Stream<? extends Map<String, Object>> right) {
+    Table table = new Table(right.collect(Collectors.toList()).toArray());
+    return left.flatMap(leftMap -> {
+      List<SMap> result = new ArrayList<>(1);
+      table.probe(leftMap, result);
+      return result.stream();
+    });
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> asMap(Object map) {
+    return (Map<String, Object>) map;
+  }
+
+  private boolean isKey(String key) {
+    for (String joined : keys) {
+      if (joined.equals(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the value of the join keys of given map, null if any of them is null
+   */
+  private Object joinKeyOf(Map<String, Object> map) {
+    if (keys.length == 1) {
+      return SMapIndex.normalize(map.get(keys[0]));
+    }
+    Object[] values = new Object[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      Object value = map.get(keys[i]);
+      if (value == null) {
+        return null;
+      }
+      values[i] = SMapIndex.normalize(value);
+    }
+    return Arrays.asList(values);
+  }
+
+  private SMap merge(Map<String, Object> leftMap, Map<String, Object> rightMap) {
+    if (rightMap == null) {
+      SMap result = new SMap(leftMap.size());
+      leftMap.forEach(result::add);
+      return result;
+    }
+
+    SMap result = new SMap(leftMap.size() + rightMap.size());
+    if (leftPrefix == null) {
+      leftMap.forEach(result::add);
+      rightMap.forEach((key, value) -> {
+        if (!isKey(key)) {
+          result.add(key, value);
+        }
+      });
+      return result;
+    }
+
+    leftMap.forEach((key, value) -> {
+      boolean collides = rightMap.containsKey(key) && !isKey(key);
+      result.add(collides ? leftPrefix + key : key, value);
+    });
+    rightMap.forEach((key, value) -> {
+      if (!isKey(key)) {
+        result.add(leftMap.containsKey(key) ? rightPrefix + key : key, value);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * The hash table of one side: for each value of the join keys, the chain of the indexes of the matching maps, in their order
+   */
+  private final class Table {
+
+    private final Object[] maps;
+    private final int[] next;
+    /* first and last index of each chain */
+    private final Map<Object, int[]> chains;
+
+    private Table(Object[] maps) {
+      this.maps = maps;
+      this.next = new int[maps.length];
+      this.chains = new HashMap<>(Math.max(16, (int) (maps.length / .75f) + 1));
+      for (int i = 0; i < maps.length; i++) {
+        next[i] = -1;
+        Object joinKey = joinKeyOf(asMap(maps[i]));
+        if (joinKey == null) {
+          continue;
+        }
+        int[] chain = chains.get(joinKey);
+        if (chain == null) {
+          chains.put(joinKey, new int[]{i, i});
+        } else {
+          next[chain[1]] = i;
+          chain[1] = i;
+        }
+      }
+    }
+
+    private int first(Map<String, Object> map) {
+      Object joinKey = joinKeyOf(map);
+      if (joinKey == null) {
+        return -1;
+      }
+      int[] chain = chains.get(joinKey);
+      return chain == null ? -1 : chain[0];
+    }
+
+    private void probe(Map<String, Object> leftMap, List<SMap> result) {
+      int i = first(leftMap);
+      if (i < 0) {
+        if (leftJoin) {
+          result.add(merge(leftMap, null));
+        }
+        return;
+      }
+      for (; i >= 0; i = next[i]) {
+        result.add(merge(leftMap, asMap(maps[i])));
+      }
+    }
+
+    /**
+     * Probes this table, built on the left side, with the right maps
+     *
+     * @return for each left map, the matching right maps, in their order, or null if none
+     */
+    private List<List<Map<String, Object>>> match(Object[] rightMaps) {
+      List<List<Map<String, Object>>> matches = new ArrayList<>(Collections.nCopies(maps.length, null));
+      for (Object map : rightMaps) {
+        Map<String, Object> rightMap = asMap(map);
+        for (int i = first(rightMap); i >= 0; i = next[i]) {
+          if (matches.get(i) == null) {
+            matches.set(i, new ArrayList<>(1));
+          }
+          matches.get(i).add(rightMap);
+        }
+      }
+      return matches;
+    }
+
+  }
+
+}
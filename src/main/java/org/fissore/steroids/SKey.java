@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+/**
+ * SKey is a typed key: it carries the name of the key together with the type of its value, so that values can be read with {@link SteroidMap#getKey(SKey)} without casts.
+ * <pre>
+ * static final SKey&lt;Long&gt; AMOUNT = SKey.of("amount", Long.class);
+ *
+ * long amount = map.getKey(AMOUNT);
+ * map.putKey(AMOUNT, amount + 1);
+ * </pre>
+ * Keys are meant to be created once and stored in constants. When used with an {@link SMap} backed by a {@link ShapedMap}, a key remembers its position in the last {@link Shape} it was looked up in:
+ * call sites reading lots of maps with the same keys find the value without comparing key names.
+ * SKeys are immutable, thus thread safe
+ *
+ * @param <T> the type of the value
+ */
+public final class SKey<T> {
+
+  private final String name;
+  private final Class<T> type;
+  private final int hash;
+  /* racy cache: Slot is immutable, so a stale or missing read only costs a lookup */
+  private Slot slot;
+
+  private SKey(String name, Class<T> type) {
+    this.name = name;
+    this.type = type;
+    this.hash = name.hashCode();
+  }
+
+  /**
+   * Creates a new key
+   *
+   * @param name the name of the key
+   * @param type the type of the value
+   * @param <T>  the type of the value
+   * @return the new key
+   */
+  public static <T> SKey<T> of(String name, Class<T> type) {
+    if (name == null || type == null) {
+      throw new IllegalArgumentException("Both name and type are needed");
+    }
+    return new SKey<>(name, type);
+  }
+
+  /**
+   * @return the name of this key
+   */
+  public String name() {
+    return name;
+  }
+
+  /**
+   * @return the type of the value of this key
+   */
+  public Class<T> type() {
+    return type;
+  }
+
+  /**
+   * Returns the index of this key in given shape, -1 if missing
+   */
+  int indexIn(Shape shape) {
+    Slot cached = slot;
+    if (cached != null && cached.shape == shape) {
+      return cached.index;
+    }
+    int i = shape.indexOf(name);
+    if (i >= 0) {
+      slot = new Slot(shape, i);
+    }
+    return i;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof SKey)) {
+      return false;
+    }
+    SKey<?> other = (SKey<?>) o;
+    return hash == other.hash && name.equals(other.name) && type == other.type;
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+
+  private static final class Slot {
+
+    private final Shape shape;
+    private final int index;
+
+    private Slot(Shape shape, int index) {
+      this.shape = shape;
+      this.index = index;
+    }
+
+  }
+
+}
@@ -15,28 +15,59 @@
  */
 package org.fissore.steroids;
 
-import java.util.Collection;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Set;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
 import java.util.function.BiConsumer;
 import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.function.IntFunction;
 import java.util.stream.Stream;
 
 /**
  * SMap is the default implementation of {@link SteroidMap}. By default it's backed by a {@link HashMap}.
- * It provides some useful constructors as well as implementations to {@link #map(String)}, {@link #subMap(Stream)} and {@link #subMap(Map, Stream)} methods
+ * It provides some useful constructors as well as implementations to {@link #map(String)}, {@link #subMap(Stream)} and {@link #subMap(Map, Stream)} methods.
+ * When dealing with lots of maps sharing the same keys, consider backing them with a {@link ShapedMap}: primitive values added with {@link #add(String, long)} and its siblings are then stored unboxed.
+ * <p>
+ * Each SMap carries a map factory, used to create the backing maps of {@link #subMap(Stream) sub maps}, {@link #copy() copies} and {@link #map(String) nested maps}.
+ * Unless provided, the factory is chosen after the class of the backing map: {@link HashMap}, {@link LinkedHashMap}, {@link TreeMap}, {@link ConcurrentHashMap} and {@link ShapedMap} are known, other classes are instantiated with reflection
+ * <p>
+ * SMaps added to a {@link SMapIndex} notify it when their indexed keys change
  */
 public class SMap implements SteroidMap<String> {
 
+  /**
+   * The number of mappings a default {@link HashMap}, of 16 buckets, holds without resizing, used when the expected size is unknown
+   */
+  private static final int DEFAULT_EXPECTED_SIZE = 12;
+
+  static final IntFunction<Map<String, Object>> HASH_MAP_FACTORY = expectedSize -> new HashMap<>(capacity(expectedSize));
+  private static final IntFunction<Map<String, Object>> LINKED_HASH_MAP_FACTORY = expectedSize -> new LinkedHashMap<>(capacity(expectedSize));
+  private static final IntFunction<Map<String, Object>> CONCURRENT_HASH_MAP_FACTORY = ConcurrentHashMap::new;
+  private static final IntFunction<Map<String, Object>> TREE_MAP_FACTORY = expectedSize -> new TreeMap<>();
+  static final IntFunction<Map<String, Object>> SHAPED_MAP_FACTORY = expectedSize -> new ShapedMap();
+
+  private static final AtomicReferenceFieldUpdater<SMap, SMapIndex[]> INDEXES = AtomicReferenceFieldUpdater.newUpdater(SMap.class, SMapIndex[].class, "indexes");
+
   private final Map<String, Object> map;
+  private final IntFunction<Map<String, Object>> mapFactory;
+  /* the indexes this map notifies of its changes, null if none. Copied on write, so that indexes can watch maps from any thread */
+  private volatile SMapIndex[] indexes;
 
   /**
    * Creates a new SMap, using {@link HashMap} as backing map
    */
   public SMap() {
-    this(new HashMap<>());
+    this(new HashMap<>(), HASH_MAP_FACTORY);
+  }
+
+  /**
+   * Creates a new SMap, using a {@link HashMap} sized to hold expectedSize mappings as backing map
+   *
+   * @param expectedSize the number of mappings the map is expected to hold
+   */
+  public SMap(int expectedSize) {
+    this(HASH_MAP_FACTORY.apply(expectedSize), HASH_MAP_FACTORY);
   }
 
   /**
@@ -45,10 +76,21 @@ public class SMap implements SteroidMap<String> {
    * @param map the map to use as backing map
    */
   public SMap(Map<String, Object> map) {
-    if (map == null) {
+    this(map, factoryOf(map));
+  }
+
+  /**
+   * Creates a new SMap, using given map as backing map and given factory to create new backing maps
+   *
+   * @param map        the map to use as backing map
+   * @param mapFactory the factory of new backing maps. It's given the number of mappings the new map is expected to hold
+   */
+  public SMap(Map<String, Object> map, IntFunction<Map<String, Object>> mapFactory) {
+    if (map == null || mapFactory == null) {
       throw new NullPointerException();
     }
     this.map = map;
+    this.mapFactory = mapFactory;
   }
 
   /**
@@ -96,26 +138,153 @@ public class SMap implements SteroidMap<String> {
     add(key3, value3);
   }
 
+  /**
+   * Returns the smallest initial capacity of a hash map holding given number of mappings without resizing, e.g. 16 for 12 mappings
+   */
+  static int capacity(int expectedSize) {
+    return expectedSize < 3 ? expectedSize + 1 : (int) Math.ceil(expectedSize / 0.75d);
+  }
+
   @SuppressWarnings("unchecked")
+  private static IntFunction<Map<String, Object>> factoryOf(Map<String, Object> map) {
+    if (map == null) {
+      throw new NullPointerException();
+    }
+
+    Class<?> mapClass = map.getClass();
+    if (mapClass == HashMap.class) {
+      return HASH_MAP_FACTORY;
+    }
+    if (mapClass == LinkedHashMap.class) {
+      return LINKED_HASH_MAP_FACTORY;
+    }
+    if (mapClass == ConcurrentHashMap.class) {
+      return CONCURRENT_HASH_MAP_FACTORY;
+    }
+    if (mapClass == ShapedMap.class) {
+      return SHAPED_MAP_FACTORY;
+    }
+    if (mapClass == TreeMap.class) {
+      Comparator<? super String> comparator = ((TreeMap<String, Object>) map).comparator();
+      return comparator == null ? TREE_MAP_FACTORY : expectedSize -> new TreeMap<>(comparator);
+    }
+
+    return expectedSize -> {
+      Object event = Events.begin(Events.REFLECTIVE_FACTORY);
+      try {
+        Map<String, Object> newMap = (Map<String, Object>) mapClass.newInstance();
+        Events.end(event, newMap);
+        return newMap;
+      } catch (Exception e) {
+        String error = "Error while using reflection to create a new instance of " + mapClass + ". Consider using a backing map with a public default constructor, providing a map factory or providing backing map on your own and calling subMap(Map, keys...)";
+        throw new RuntimeException(error, e);
+      }
+    };
+  }
+
+  Class<?> backingMapClass() {
+    return map.getClass();
+  }
+
+  boolean watch(SMapIndex index) {
+    while (true) {
+      SMapIndex[] current = indexes;
+      SMapIndex[] updated;
+      if (current == null) {
+        updated = new SMapIndex[]{index};
+      } else {
+        for (SMapIndex watching : current) {
+          if (watching == index) {
+            return false;
+          }
+        }
+        updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = index;
+      }
+      if (INDEXES.compareAndSet(this, current, updated)) {
+        return true;
+      }
+    }
+  }
+
+  boolean unwatch(SMapIndex index) {
+    while (true) {
+      SMapIndex[] current = indexes;
+      if (current == null) {
+        return false;
+      }
+      int i = 0;
+      while (i < current.length && current[i] != index) {
+        i++;
+      }
+      if (i == current.length) {
+        return false;
+      }
+      SMapIndex[] updated = null;
+      if (current.length > 1) {
+        updated = new SMapIndex[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, i);
+        System.arraycopy(current, i + 1, updated, i, updated.length - i);
+      }
+      if (INDEXES.compareAndSet(this, current, updated)) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Detaches this map from the indexes covering given key, before it changes. A null key stands for any key
+   *
+   * @return the detached indexes, to be given to {@link #reindex(SMapIndex[], Object)} once the change is done, null if none
+   */
+  private SMapIndex[] unindex(Object key) {
+    SMapIndex[] watching = indexes;
+    if (watching == null) {
+      return null;
+    }
+    boolean detached = false;
+    for (SMapIndex index : watching) {
+      if (key == null || index.covers(key)) {
+        index.detach(this);
+        detached = true;
+      }
+    }
+    return detached ? watching : null;
+  }
+
+  private void reindex(SMapIndex[] watching, Object key) {
+    if (watching == null) {
+      return;
+    }
+    for (SMapIndex index : watching) {
+      if (key == null || index.covers(key)) {
+        index.attach(this);
+      }
+    }
+  }
+
+  private Map<String, Object> newInnerMapInstance(int expectedSize) {
+    return mapFactory.apply(expectedSize);
+  }
+
   @Override
   public SMap subMap(Stream<String> keys) {
-    Map<String, Object> map = newInnerMapInstance();
-    return subMap(map, keys);
+    return subMap(DEFAULT_EXPECTED_SIZE, keys);
   }
 
-  private Map newInnerMapInstance() {
-    try {
-      return this.map.getClass().newInstance();
-    } catch (Exception e) {
-      String error = "Error while using reflection to create a new instance of " + this.map.getClass() + ". Consider using a backing map with a public default constructor or providing backing map on your own and calling subMap(Map, keys...)";
-      throw new RuntimeException(error, e);
-    }
+  private SMap subMap(int expectedSize, Stream<String> keys) {
+    return addKeys(new SMap(newInnerMapInstance(expectedSize), mapFactory), keys);
   }
 
   @Override
   public SMap subMap(Map<String, Object> backingMap, Stream<String> keys) {
-    SMap subMap = new SMap(backingMap);
+    return addKeys(new SMap(backingMap), keys);
+  }
+
+  private SMap addKeys(SMap subMap, Stream<String> keys) {
+    Object event = Events.begin(Events.SUB_MAP);
     keys.forEach(key -> subMap.add(key, get(key)));
+    Events.end(event, subMap);
     return subMap;
   }
 
@@ -134,7 +303,7 @@ public class SMap implements SteroidMap<String> {
       return (SMap) value;
     }
     if (value instanceof Map) {
-      return new SMap((Map<String, Object>) value);
+      return new SMap((Map<String, Object>) value, mapFactory);
     }
     throw new IllegalArgumentException(value + " is neither a Map or a SteroidMap");
   }
@@ -144,6 +313,107 @@ public class SMap implements SteroidMap<String> {
     return (SMap) SteroidMap.super.add(key, value);
   }
 
+  @Override
+  public SMap add(String key, long value) {
+    if (map instanceof ShapedMap) {
+      SMapIndex[] watching = unindex(key);
+      try {
+        ((ShapedMap) map).putLong(key, value);
+      } finally {
+        reindex(watching, key);
+      }
+      return this;
+    }
+    return (SMap) SteroidMap.super.add(key, value);
+  }
+
+  @Override
+  public SMap add(String key, int value) {
+    if (map instanceof ShapedMap) {
+      SMapIndex[] watching = unindex(key);
+      try {
+        ((ShapedMap) map).putInt(key, value);
+      } finally {
+        reindex(watching, key);
+      }
+      return this;
+    }
+    return (SMap) SteroidMap.super.add(key, value);
+  }
+
+  @Override
+  public SMap add(String key, double value) {
+    if (map instanceof ShapedMap) {
+      SMapIndex[] watching = unindex(key);
+      try {
+        ((ShapedMap) map).putDouble(key, value);
+      } finally {
+        reindex(watching, key);
+      }
+      return this;
+    }
+    return (SMap) SteroidMap.super.add(key, value);
+  }
+
+  @Override
+  public SMap add(String key, float value) {
+    if (map instanceof ShapedMap) {
+      SMapIndex[] watching = unindex(key);
+      try {
+        ((ShapedMap) map).putFloat(key, value);
+      } finally {
+        reindex(watching, key);
+      }
+      return this;
+    }
+    return (SMap) SteroidMap.super.add(key, value);
+  }
+
+  @Override
+  public SMap add(String key, boolean value) {
+    if (map instanceof ShapedMap) {
+      SMapIndex[] watching = unindex(key);
+      try {
+        ((ShapedMap) map).putBoolean(key, value);
+      } finally {
+        reindex(watching, key);
+      }
+      return this;
+    }
+    return (SMap) SteroidMap.super.add(key, value);
+  }
+
+  @Override
+  public SMap add(String key, char value) {
+    return (SMap) SteroidMap.super.add(key, value);
+  }
+
+  @Override
+  public SMap add(String key, short value) {
+    return (SMap) SteroidMap.super.add(key, value);
+  }
+
+  @Override
+  public SMap add(String key, byte value) {
+    return (SMap) SteroidMap.super.add(key, value);
+  }
+
+  @Override
+  public <T> T putKey(SKey<T> key, T value) {
+    if (key == null || !(map instanceof ShapedMap)) {
+      return SteroidMap.super.putKey(key, value);
+    }
+    Object checked = key.type().cast(value);
+    SMapIndex[] watching = unindex(key.name());
+    try {
+      @SuppressWarnings("unchecked")
+      T previous = (T) ((ShapedMap) map).putKey(key, checked);
+      return previous;
+    } finally {
+      reindex(watching, key.name());
+    }
+  }
+
   @Override
   public SMap addAll(Map<String, Object>... sources) {
     return (SMap) SteroidMap.super.addAll(sources);
@@ -191,12 +461,12 @@ public class SMap implements SteroidMap<String> {
 
   @Override
   public SMap subMap(String... keys) {
-    return (SMap) SteroidMap.super.subMap(keys);
+    return subMap(keys.length, Stream.of(keys));
   }
 
   @Override
   public SMap subMap(Collection<String> keys) {
-    return (SMap) SteroidMap.super.subMap(keys);
+    return subMap(keys.size(), keys.stream());
   }
 
   @Override
@@ -224,31 +494,130 @@ public class SMap implements SteroidMap<String> {
     return SteroidMap.super.maps(key, defaultValue).map(s -> (SMap) s);
   }
 
+  @Override
+  public boolean valued(String key) {
+    if (map instanceof ShapedMap) {
+      return ((ShapedMap) map).valued(key);
+    }
+    return SteroidMap.super.valued(key);
+  }
+
+  @Override
+  public <T> T getKey(SKey<T> key) {
+    if (key == null || !(map instanceof ShapedMap)) {
+      return SteroidMap.super.getKey(key);
+    }
+    return key.type().cast(((ShapedMap) map).getKey(key));
+  }
+
+  @Override
+  public long l(String key) {
+    if (map instanceof ShapedMap) {
+      return ((ShapedMap) map).getLong(key);
+    }
+    return SteroidMap.super.l(key);
+  }
+
+  @Override
+  public int i(String key) {
+    if (map instanceof ShapedMap) {
+      return ((ShapedMap) map).getInt(key);
+    }
+    return SteroidMap.super.i(key);
+  }
+
+  @Override
+  public double d(String key) {
+    if (map instanceof ShapedMap) {
+      return ((ShapedMap) map).getDouble(key);
+    }
+    return SteroidMap.super.d(key);
+  }
+
+  @Override
+  public float f(String key) {
+    if (map instanceof ShapedMap) {
+      return ((ShapedMap) map).getFloat(key);
+    }
+    return SteroidMap.super.f(key);
+  }
+
+  @Override
+  public boolean b(String key) {
+    if (map instanceof ShapedMap) {
+      return ((ShapedMap) map).getBoolean(key);
+    }
+    return SteroidMap.super.b(key);
+  }
+
+  @Override
+  public SMap promoteMap(String key) {
+    return (SMap) SteroidMap.super.promoteMap(key);
+  }
+
+  @Override
+  public Stream<SMap> promoteMaps(String key) {
+    return SteroidMap.super.promoteMaps(key).map(s -> (SMap) s);
+  }
+
+  @Override
+  public Stream<SMap> parallelMaps(String key) {
+    return maps(key).parallel();
+  }
+
   @Override
   public SMap copy() {
-    return new SMap().addAll(this);
+    Object event = Events.begin(Events.COPY);
+    SMap copy = new SMap(newInnerMapInstance(size()), mapFactory).addAll(this);
+    Events.end(event, copy);
+    return copy;
+  }
+
+  @Override
+  public SMap deepCopy() {
+    return (SMap) SteroidMap.super.deepCopy();
   }
 
   /* GENERATED DELEGATE METHODS */
 
   @Override
   public void clear() {
-    map.clear();
+    SMapIndex[] watching = unindex(null);
+    try {
+      map.clear();
+    } finally {
+      reindex(watching, null);
+    }
   }
 
   @Override
   public Object compute(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
-    return map.compute(key, remappingFunction);
+    SMapIndex[] watching = unindex(key);
+    try {
+      return map.compute(key, remappingFunction);
+    } finally {
+      reindex(watching, key);
+    }
   }
 
   @Override
   public Object computeIfAbsent(String key, Function<? super String, ?> mappingFunction) {
-    return map.computeIfAbsent(key, mappingFunction);
+    SMapIndex[] watching = unindex(key);
+    try {
+      return map.computeIfAbsent(key, mappingFunction);
+    } finally {
+      reindex(watching, key);
+    }
   }
 
   @Override
   public Object computeIfPresent(String key, BiFunction<? super String, ? super Object, ?> remappingFunction) {
-    return map.computeIfPresent(key, remappingFunction);
+    SMapIndex[] watching = unindex(key);
+    try {
+      return map.computeIfPresent(key, remappingFunction);
+    } finally {
+      reindex(watching, key);
+    }
   }
 
   @Override
@@ -303,47 +672,92 @@ public class SMap implements SteroidMap<String> {
 
   @Override
   public Object merge(String key, Object value, BiFunction<? super Object, ? super Object, ?> remappingFunction) {
-    return map.merge(key, value, remappingFunction);
+    SMapIndex[] watching = unindex(key);
+    try {
+      return map.merge(key, value, remappingFunction);
+    } finally {
+      reindex(watching, key);
+    }
   }
 
   @Override
   public Object put(String key, Object value) {
-    return map.put(key, value);
+    SMapIndex[] watching = unindex(key);
+    try {
+      return map.put(key, value);
+    } finally {
+      reindex(watching, key);
+    }
   }
 
   @Override
   public void putAll(Map<? extends String, ?> m) {
-    map.putAll(m);
+    SMapIndex[] watching = unindex(null);
+    try {
+      map.putAll(m);
+    } finally {
+      reindex(watching, null);
+    }
   }
 
   @Override
   public Object putIfAbsent(String key, Object value) {
-    return map.putIfAbsent(key, value);
+    SMapIndex[] watching = unindex(key);
+    try {
+      return map.putIfAbsent(key, value);
+    } finally {
+      reindex(watching, key);
+    }
   }
 
   @Override
   public Object remove(Object key) {
-    return map.remove(key);
+    SMapIndex[] watching = unindex(key);
+    try {
+      return map.remove(key);
+    } finally {
+      reindex(watching, key);
+    }
   }
 
   @Override
   public boolean remove(Object key, Object value) {
-    return map.remove(key, value);
+    SMapIndex[] watching = unindex(key);
+    try {
+      return map.remove(key, value);
+    } finally {
+      reindex(watching, key);
+    }
   }
 
   @Override
   public boolean replace(String key, Object oldValue, Object newValue) {
-    return map.replace(key, oldValue, newValue);
+    SMapIndex[] watching = unindex(key);
+    try {
+      return map.replace(key, oldValue, newValue);
+    } finally {
+      reindex(watching, key);
+    }
   }
 
   @Override
   public Object replace(String key, Object value) {
-    return map.replace(key, value);
+    SMapIndex[] watching = unindex(key);
+    try {
+      return map.replace(key, value);
+    } finally {
+      reindex(watching, key);
+    }
   }
 
   @Override
   public void replaceAll(BiFunction<? super String, ? super Object, ?> function) {
-    map.replaceAll(function);
+    SMapIndex[] watching = unindex(null);
+    try {
+      map.replaceAll(function);
+    } finally {
+      reindex(watching, null);
+    }
   }
 
   @Override
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * SMapIndex is a hash index over a collection of {@link SMap}s: it finds the maps whose values of one or more keys equal given ones without scanning the whole collection.
+ * <pre>
+ * SMapIndex bySurname = SMapIndex.of(mymap.promoteMaps("friends"), "surname");
+ * List&lt;SMap&gt; does = bySurname.get("Doe");
+ * </pre>
+ * The index stays in sync with its maps: changing an indexed key through {@link SMap} methods, such as {@link SMap#add(String, Object) add}, {@link SMap#del(String...) del} or {@link SMap#renameKey(String, String) renameKey}, moves the map to its new bucket.
+ * Changes made through the backing map or through {@link SMap#keySet()}, {@link SMap#entrySet()} and {@link SMap#values()} views are not seen. When indexing nested maps, use {@link SMap#promoteMaps(String)}, so that later reads return the indexed instances.
+ * <p>
+ * Values are compared with {@link Object#equals(Object)}, after widening integers, shorts and bytes to longs and floats to doubles. Missing keys are indexed as nulls.
+ * Maps are tracked by identity: equal maps are distinct entries. Indexes are not thread safe: {@link #close() close} an index when done with it, so that its maps stop notifying it
+ */
+public final class SMapIndex implements AutoCloseable {
+
+  private final String[] keys;
+  private final Map<Object, Object> buckets;
+  private int size;
+
+  private SMapIndex(String[] keys) {
+    if (keys.length == 0) {
+      throw new IllegalArgumentException("At least one key is needed");
+    }
+    this.keys = keys.clone();
+    this.buckets = new HashMap<>();
+  }
+
+  /**
+   * Creates a new index over given maps
+   *
+   * @param maps the maps to index
+   * @param keys the keys to index the maps by
+   * @return the new index
+   */
+  public static SMapIndex of(Collection<? extends SMap> maps, String... keys) {
+    return of(maps.stream(), keys);
+  }
+
+  /**
+   * Creates a new index over given maps, consuming the stream
+   *
+   * @param maps the maps to index
+   * @param keys the keys to index the maps by
+   * @return the new index
+   */
+  public static SMapIndex of(Stream<? extends SMap> maps, String... keys) {
+    SMapIndex index = new SMapIndex(keys);
+    maps.forEachOrdered(index::add);
+    return index;
+  }
+
+  /**
+   * Adds a map to this index. Adding a map twice has no effect
+   *
+   * @param map the map to add
+   * @return this instance
+   */
+  public SMapIndex add(SMap map) {
+    if (map.watch(this)) {
+      attach(map);
+    }
+    return this;
+  }
+
+  /**
+   * Removes a map from this index
+   *
+   * @param map the map to remove
+   * @return this instance
+   */
+  public SMapIndex remove(SMap map) {
+    if (map.unwatch(this)) {
+      detach(map);
+    }
+    return this;
+  }
+
+  /**
+   * Returns the maps whose indexed keys equal given values, in the order the keys were given when creating this index
+   *
+   * @param values the values of the indexed keys
+   * @return a read only list of the matching maps, empty if none
+   */
+  public List<SMap> get(Object... values) {
+    Object bucket = buckets.get(bucketKey(values));
+    if (bucket == null) {
+      return Collections.emptyList();
+    }
+    if (bucket instanceof SMap) {
+      return Collections.singletonList((SMap) bucket);
+    }
+    Bucket maps = (Bucket) bucket;
+    return Collections.unmodifiableList(Arrays.asList(Arrays.copyOf(maps.maps, maps.size)));
+  }
+
+  /**
+   * Returns the first map, in insertion order, whose indexed keys equal given values
+   *
+   * @param values the values of the indexed keys
+   * @return the first matching map, null if none
+   */
+  public SMap first(Object... values) {
+    Object bucket = buckets.get(bucketKey(values));
+    if (bucket == null || bucket instanceof SMap) {
+      return (SMap) bucket;
+    }
+    return ((Bucket) bucket).maps[0];
+  }
+
+  /**
+   * Returns true if at least a map has indexed keys equal to given values
+   *
+   * @param values the values of the indexed keys
+   * @return true if at least a map matches
+   */
+  public boolean contains(Object... values) {
+    return buckets.containsKey(bucketKey(values));
+  }
+
+  /**
+   * Returns the keys of this index
+   *
+   * @return the indexed keys
+   */
+  public List<String> keys() {
+    return Collections.unmodifiableList(Arrays.asList(keys));
+  }
+
+  /**
+   * Returns the number of maps in this index
+   *
+   * @return the number of maps
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Removes all maps from this index, so that they stop notifying it
+   */
+  @Override
+  public void close() {
+    for (Object bucket : buckets.values()) {
+      if (bucket instanceof SMap) {
+        ((SMap) bucket).unwatch(this);
+      } else {
+        Bucket maps = (Bucket) bucket;
+        for (int i = 0; i < maps.size; i++) {
+          maps.maps[i].unwatch(this);
+        }
+      }
+    }
+    buckets.clear();
+    size = 0;
+  }
+
+  boolean covers(Object key) {
+    for (String indexed : keys) {
+      if (indexed.equals(key)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  void attach(SMap map) {
+    Object bucketKey = bucketKeyOf(map);
+    Object bucket = buckets.get(bucketKey);
+    if (bucket == null) {
+      buckets.put(bucketKey, map);
+    } else if (bucket instanceof SMap) {
+      buckets.put(bucketKey, new Bucket((SMap) bucket, map));
+    } else {
+      ((Bucket) bucket).add(map);
+    }
+    size++;
+  }
+
+  void detach(SMap map) {
+    Object bucketKey = bucketKeyOf(map);
+    Object bucket = buckets.get(bucketKey);
+    if (bucket == map) {
+      buckets.remove(bucketKey);
+      size--;
+    } else if (bucket instanceof Bucket && ((Bucket) bucket).remove(map)) {
+      if (((Bucket) bucket).size == 0) {
+        buckets.remove(bucketKey);
+      }
+      size--;
+    }
+  }
+
+  private Object bucketKeyOf(SMap map) {
+    if (keys.length == 1) {
+      return normalize(map.get(keys[0]));
+    }
+    Object[] values = new Object[keys.length];
+    for (int i = 0; i < keys.length; i++) {
+      values[i] = normalize(map.get(keys[i]));
+    }
+    return Arrays.asList(values);
+  }
+
+  private Object bucketKey(Object[] values) {
+    if (values == null) {
+      values = new Object[]{null};
+    }
+    if (values.length != keys.length) {
+      throw new IllegalArgumentException("Expected " + keys.length + " values, one for each of " + Arrays.toString(keys) + ", got " + values.length);
+    }
+    if (keys.length == 1) {
+      return normalize(values[0]);
+    }
+    Object[] normalized = new Object[values.length];
+    for (int i = 0; i < values.length; i++) {
+      normalized[i] = normalize(values[i]);
+    }
+    return Arrays.asList(normalized);
+  }
+
+  /**
+   * Widens integers, shorts and bytes to longs and floats to doubles, so that equal numbers hash the same whatever their type
+   */
+  static Object normalize(Object value) {
+    if (value instanceof Integer || value instanceof Short || value instanceof Byte) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof Float) {
+      return ((Float) value).doubleValue();
+    }
+    return value;
+  }
+
+  /**
+   * The maps sharing the same values of the indexed keys, compared by identity
+   */
+  private static final class Bucket {
+
+    private SMap[] maps;
+    private int size;
+
+    private Bucket(SMap first, SMap second) {
+      this.maps = new SMap[]{first, second, null, null};
+      this.size = 2;
+    }
+
+    private void add(SMap map) {
+      if (size == maps.length) {
+        maps = Arrays.copyOf(maps, size * 2);
+      }
+      maps[size++] = map;
+    }
+
+    private boolean remove(SMap map) {
+      for (int i = 0; i < size; i++) {
+        if (maps[i] == map) {
+          System.arraycopy(maps, i + 1, maps, i, size - i - 1);
+          maps[--size] = null;
+          return true;
+        }
+      }
+      return false;
+    }
+
+  }
+
+}
@@ -0,0 +1,425 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.DoublePredicate;
+import java.util.function.LongPredicate;
+import java.util.function.Predicate;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * SMapTable stores lots of maps with the same keys column by column: the values of each key are stored together, in an array of their type.
+ * Longs, integers, doubles, floats and booleans are stored unboxed, strings are dictionary encoded, so that each distinct string is stored once per column.
+ * Integers mixed with longs are stored as longs, and floats as doubles, still read with their own type. Columns whose values have other mixed types store objects.
+ * <p>
+ * Rows are exposed as read only {@link SteroidMap} views. Filters, projections and aggregations work on whole columns at once:
+ * filters and projections return new tables sharing the columns of this one, filters keep a vector of the indexes of the matching rows.
+ * <pre>
+ * SMapTable people = SMapTable.of(list);
+ * double averageAge = people.filterString("city", "Turin"::equals).avg("age");
+ * </pre>
+ * Null values are stored as such, and are skipped by filters and aggregations. Tables are immutable, thus thread safe
+ */
+public final class SMapTable {
+
+  private final Shape shape;
+  private final Column[] columns;
+  /* indexes of the rows of this table, null for all rows */
+  private final int[] selection;
+  private final int size;
+
+  private SMapTable(Shape shape, Column[] columns, int[] selection, int size) {
+    this.shape = shape;
+    this.columns = columns;
+    this.selection = selection;
+    this.size = size;
+  }
+
+  /**
+   * Creates a new table with given rows. Rows with different keys are supported: missing keys are stored as nulls
+   *
+   * @param rows the rows
+   * @return the new table
+   */
+  public static SMapTable of(Collection<? extends Map<String, Object>> rows) {
+    return of(rows.stream());
+  }
+
+  /**
+   * Creates a new table with given rows, consuming the stream one row at a time. Rows with different keys are supported: missing keys are stored as nulls
+   *
+   * @param rows the rows
+   * @return the new table
+   */
+  public static SMapTable of(Stream<? extends Map<String, Object>> rows) {
+    Shape shape = Shape.EMPTY;
+    List<Column> columns = new ArrayList<>();
+    int size = 0;
+
+    Iterator<? extends Map<String, Object>> iterator = rows.iterator();
+    while (iterator.hasNext()) {
+      for (Map.Entry<String, Object> entry : iterator.next().entrySet()) {
+        Object value = entry.getValue();
+        if (value == null) {
+          continue;
+        }
+
+        int i = shape.indexOf(entry.getKey());
+        if (i < 0) {
+          i = shape.size();
+          shape = shape.with(entry.getKey());
+          Column column = Column.of(value);
+          column.ensureCapacity(size + 1);
+          while (column.length < size) {
+            column.appendNull();
+          }
+          columns.add(column);
+        }
+
+        Column column = columns.get(i);
+        if (!column.append(value)) {
+          column = column.widen(value);
+          column.append(value);
+          columns.set(i, column);
+        }
+      }
+
+      size++;
+      for (Column column : columns) {
+        if (column.length < size) {
+          column.appendNull();
+        }
+      }
+    }
+
+    return new SMapTable(shape, columns.toArray(new Column[0]), null, size);
+  }
+
+  /**
+   * @return the number of rows
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @return the names of the columns, that is the keys of the rows
+   */
+  public List<String> columns() {
+    List<String> names = new ArrayList<>(shape.size());
+    for (int i = 0; i < shape.size(); i++) {
+      names.add(shape.key(i));
+    }
+    return Collections.unmodifiableList(names);
+  }
+
+  /**
+   * Returns a read only view of a row
+   *
+   * @param index the index of the row
+   * @return the row
+   * @throws IndexOutOfBoundsException if index is out of range
+   */
+  public SteroidMap<String> row(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    return new Row(Column.rowAt(selection, index));
+  }
+
+  /**
+   * @return a stream of read only views of the rows
+   */
+  public Stream<SteroidMap<String>> rows() {
+    return IntStream.range(0, size).mapToObj(i -> new Row(Column.rowAt(selection, i)));
+  }
+
+  private Column column(String name) {
+    int i = shape.indexOf(name);
+    if (i < 0) {
+      throw new IllegalArgumentException("Unknown column " + name);
+    }
+    return columns[i];
+  }
+
+  private SMapTable select(int[] matches, int count) {
+    return new SMapTable(shape, columns, Arrays.copyOf(matches, count), count);
+  }
+
+  /* filters */
+
+  /**
+   * Keeps the rows whose long or integer value of given column matches given predicate
+   *
+   * @param column    the column
+   * @param predicate the predicate
+   * @return a table of the matching rows
+   * @throws IllegalArgumentException if the column is missing, or if it's not a long or integer column
+   */
+  public SMapTable filterLong(String column, LongPredicate predicate) {
+    int[] matches = new int[size];
+    return select(matches, column(column).filterLong(selection, size, predicate, matches));
+  }
+
+  /**
+   * Keeps the rows whose numeric value of given column matches given predicate
+   *
+   * @param column    the column
+   * @param predicate the predicate
+   * @return a table of the matching rows
+   * @throws IllegalArgumentException if the column is missing, or if it's not a numeric column
+   */
+  public SMapTable filterDouble(String column, DoublePredicate predicate) {
+    int[] matches = new int[size];
+    return select(matches, column(column).filterDouble(selection, size, predicate, matches));
+  }
+
+  /**
+   * Keeps the rows whose string value of given column matches given predicate. The predicate is tested once per distinct string
+   *
+   * @param column    the column
+   * @param predicate the predicate
+   * @return a table of the matching rows
+   * @throws IllegalArgumentException if the column is missing, or if it's not a string column
+   */
+  public SMapTable filterString(String column, Predicate<String> predicate) {
+    int[] matches = new int[size];
+    return select(matches, column(column).filterString(selection, size, predicate, matches));
+  }
+
+  /**
+   * Keeps the rows whose non null value of given column matches given predicate
+   *
+   * @param column    the column
+   * @param predicate the predicate
+   * @return a table of the matching rows
+   * @throws IllegalArgumentException if the column is missing
+   */
+  public SMapTable filter(String column, Predicate<Object> predicate) {
+    int[] matches = new int[size];
+    return select(matches, column(column).filter(selection, size, predicate, matches));
+  }
+
+  /**
+   * Keeps the rows matching given predicate
+   *
+   * @param predicate the predicate
+   * @return a table of the matching rows
+   */
+  public SMapTable filter(Predicate<SteroidMap<String>> predicate) {
+    int[] matches = new int[size];
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      int row = Column.rowAt(selection, i);
+      if (predicate.test(new Row(row))) {
+        matches[count++] = row;
+      }
+    }
+    return select(matches, count);
+  }
+
+  /**
+   * Keeps given columns only: it's the columnar equivalent of {@link SteroidMap#subMap(Object[])}. Missing columns are ignored
+   *
+   * @param columns the columns to keep
+   * @return a table with given columns
+   */
+  public SMapTable project(String... columns) {
+    Shape projection = Shape.EMPTY;
+    List<Column> projected = new ArrayList<>();
+    for (String column : columns) {
+      int i = shape.indexOf(column);
+      if (i >= 0 && projection.indexOf(column) < 0) {
+        projection = projection.with(column);
+        projected.add(this.columns[i]);
+      }
+    }
+    return new SMapTable(projection, projected.toArray(new Column[0]), selection, size);
+  }
+
+  /* aggregations */
+
+  /**
+   * @param column the column
+   * @return the number of non null values of given column
+   * @throws IllegalArgumentException if the column is missing
+   */
+  public long count(String column) {
+    return column(column).count(selection, size);
+  }
+
+  /**
+   * @param column the column
+   * @return the exact sum of the non null values of given column
+   * @throws IllegalArgumentException if the column is missing, or if it's not a long or integer column
+   */
+  public long sumLong(String column) {
+    return column(column).sumLong(selection, size);
+  }
+
+  /**
+   * @param column the column
+   * @return the sum of the non null values of given column
+   * @throws IllegalArgumentException if the column is missing, or if it's not a numeric column
+   */
+  public double sum(String column) {
+    return column(column).sumDouble(selection, size);
+  }
+
+  /**
+   * @param column the column
+   * @return the average of the non null values of given column, NaN if there are none
+   * @throws IllegalArgumentException if the column is missing, or if it's not a numeric column
+   */
+  public double avg(String column) {
+    Column values = column(column);
+    double sum = values.sumDouble(selection, size);
+    long count = values.count(selection, size);
+    return count == 0 ? Double.NaN : sum / count;
+  }
+
+  /**
+   * @param column the column
+   * @return the minimum of the non null values of given column, NaN if there are none
+   * @throws IllegalArgumentException if the column is missing, or if it's not a numeric column
+   */
+  public double min(String column) {
+    return column(column).min(selection, size);
+  }
+
+  /**
+   * @param column the column
+   * @return the maximum of the non null values of given column, NaN if there are none
+   * @throws IllegalArgumentException if the column is missing, or if it's not a numeric column
+   */
+  public double max(String column) {
+    return column(column).max(selection, size);
+  }
+
+  /**
+   * A read only view of a row
+   */
+  private final class Row extends AbstractSteroidMap {
+
+    private final int row;
+
+    private Row(int row) {
+      this.row = row;
+    }
+
+    @Override
+    public Object get(Object key) {
+      int i = shape.indexOf(key);
+      return i < 0 ? null : columns[i].get(row);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      int i = shape.indexOf(key);
+      return i >= 0 && !columns[i].isNull(row);
+    }
+
+    @Override
+    public boolean valued(String key) {
+      return containsKey(key);
+    }
+
+    @Override
+    public long l(String key) {
+      int i = shape.indexOf(key);
+      return i < 0 ? super.l(key) : columns[i].getLong(row);
+    }
+
+    @Override
+    public int i(String key) {
+      int i = shape.indexOf(key);
+      return i < 0 ? super.i(key) : columns[i].getInt(row);
+    }
+
+    @Override
+    public double d(String key) {
+      int i = shape.indexOf(key);
+      return i < 0 ? super.d(key) : columns[i].getDouble(row);
+    }
+
+    @Override
+    public boolean b(String key) {
+      int i = shape.indexOf(key);
+      return i < 0 ? super.b(key) : columns[i].getBoolean(row);
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet() {
+      return new AbstractSet<Entry<String, Object>>() {
+
+        @Override
+        public Iterator<Entry<String, Object>> iterator() {
+          return new Iterator<Entry<String, Object>>() {
+
+            private int next = skipNulls(0);
+
+            private int skipNulls(int i) {
+              while (i < columns.length && columns[i].isNull(row)) {
+                i++;
+              }
+              return i;
+            }
+
+            @Override
+            public boolean hasNext() {
+              return next < columns.length;
+            }
+
+            @Override
+            public Entry<String, Object> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              Entry<String, Object> entry = new SimpleImmutableEntry<>(shape.key(next), columns[next].valueAt(row));
+              next = skipNulls(next + 1);
+              return entry;
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          int size = 0;
+          for (Column column : columns) {
+            if (!column.isNull(row)) {
+              size++;
+            }
+          }
+          return size;
+        }
+      };
+    }
+
+  }
+
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * SPath is a precompiled path to a nested value, such as <code>address.streetname</code>.
+ * Compile it once, store it in a static field and evaluate it against any map: evaluation walks the nested maps directly, without wrapping each of them in a {@link SteroidMap}, as chaining {@link SteroidMap#map(Object)} calls does.
+ * <pre>
+ * private static final SPath STREETNAME = SPath.compile("address.streetname");
+ * ...
+ * String streetname = STREETNAME.s(mymap);
+ * </pre>
+ * If any map along the path is missing, or is not a map, the path is not valued. SPath instances are immutable and thread safe
+ */
+public final class SPath {
+
+  private static final Pattern SEPARATOR = Pattern.compile("\\.");
+
+  private final String path;
+  private final String[] parents;
+  private final String last;
+
+  private SPath(String path, String[] segments) {
+    this.path = path;
+    this.parents = new String[segments.length - 1];
+    System.arraycopy(segments, 0, this.parents, 0, this.parents.length);
+    this.last = segments[segments.length - 1];
+  }
+
+  /**
+   * Compiles given path. Path segments are separated by dots
+   *
+   * @param path the path, such as <code>address.streetname</code>
+   * @return the compiled path
+   */
+  public static SPath compile(String path) {
+    if (path == null) {
+      throw new NullPointerException();
+    }
+    String[] segments = SEPARATOR.split(path, -1);
+    for (String segment : segments) {
+      if (segment.isEmpty()) {
+        throw new IllegalArgumentException("Invalid path " + path + ": it contains an empty segment");
+      }
+    }
+    return new SPath(path, segments);
+  }
+
+  /**
+   * Returns the map holding the last segment of this path, or null if any map along the path is missing
+   */
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> parent(Map<String, ?> map) {
+    Object current = map;
+    for (String segment : parents) {
+      if (!(current instanceof Map)) {
+        return null;
+      }
+      current = ((Map<String, ?>) current).get(segment);
+    }
+    return current instanceof Map ? (Map<String, Object>) current : null;
+  }
+
+  /**
+   * Evaluates this path against given map
+   *
+   * @param map the map
+   * @return the value at the end of this path, or null if the path is not valued
+   */
+  public Object get(Map<String, ?> map) {
+    Map<String, Object> parent = parent(map);
+    return parent == null ? null : parent.get(last);
+  }
+
+  /**
+   * A path is valued if <code>{@link #get(Map) get(map)} != null</code>
+   *
+   * @param map the map
+   * @return true if {@link #get(Map) get(map)} != null
+   */
+  public boolean valued(Map<String, ?> map) {
+    Map<String, Object> parent = parent(map);
+    if (parent instanceof SMap) {
+      return ((SMap) parent).valued(last);
+    }
+    return parent != null && parent.get(last) != null;
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Long
+   *
+   * @param map the map
+   * @return value at the end of this path casted to Long
+   */
+  public long l(Map<String, ?> map) {
+    Map<String, Object> parent = parent(map);
+    if (parent instanceof SMap) {
+      return ((SMap) parent).l(last);
+    }
+    return (Long) get(map);
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Long. If the path is not {@link #valued(Map) valued}, it returns defaultValue
+   *
+   * @param map          the map
+   * @param defaultValue the defaultValue to return if the path is not {@link #valued(Map) valued}
+   * @return value at the end of this path, casted to Long. defaultValue if the path is not {@link #valued(Map) valued}
+   */
+  public long l(Map<String, ?> map, long defaultValue) {
+    return valued(map) ? l(map) : defaultValue;
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Integer
+   *
+   * @param map the map
+   * @return value at the end of this path casted to Integer
+   */
+  public int i(Map<String, ?> map) {
+    Map<String, Object> parent = parent(map);
+    if (parent instanceof SMap) {
+      return ((SMap) parent).i(last);
+    }
+    return (Integer) get(map);
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Integer. If the path is not {@link #valued(Map) valued}, it returns defaultValue
+   *
+   * @param map          the map
+   * @param defaultValue the defaultValue to return if the path is not {@link #valued(Map) valued}
+   * @return value at the end of this path, casted to Integer. defaultValue if the path is not {@link #valued(Map) valued}
+   */
+  public int i(Map<String, ?> map, int defaultValue) {
+    return valued(map) ? i(map) : defaultValue;
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Double
+   *
+   * @param map the map
+   * @return value at the end of this path casted to Double
+   */
+  public double d(Map<String, ?> map) {
+    Map<String, Object> parent = parent(map);
+    if (parent instanceof SMap) {
+      return ((SMap) parent).d(last);
+    }
+    return (Double) get(map);
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Double. If the path is not {@link #valued(Map) valued}, it returns defaultValue
+   *
+   * @param map          the map
+   * @param defaultValue the defaultValue to return if the path is not {@link #valued(Map) valued}
+   * @return value at the end of this path, casted to Double. defaultValue if the path is not {@link #valued(Map) valued}
+   */
+  public double d(Map<String, ?> map, double defaultValue) {
+    return valued(map) ? d(map) : defaultValue;
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Float
+   *
+   * @param map the map
+   * @return value at the end of this path casted to Float
+   */
+  public float f(Map<String, ?> map) {
+    Map<String, Object> parent = parent(map);
+    if (parent instanceof SMap) {
+      return ((SMap) parent).f(last);
+    }
+    return (Float) get(map);
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Float. If the path is not {@link #valued(Map) valued}, it returns defaultValue
+   *
+   * @param map          the map
+   * @param defaultValue the defaultValue to return if the path is not {@link #valued(Map) valued}
+   * @return value at the end of this path, casted to Float. defaultValue if the path is not {@link #valued(Map) valued}
+   */
+  public float f(Map<String, ?> map, float defaultValue) {
+    return valued(map) ? f(map) : defaultValue;
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Boolean
+   *
+   * @param map the map
+   * @return value at the end of this path casted to Boolean
+   */
+  public boolean b(Map<String, ?> map) {
+    Map<String, Object> parent = parent(map);
+    if (parent instanceof SMap) {
+      return ((SMap) parent).b(last);
+    }
+    return (Boolean) get(map);
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Boolean. If the path is not {@link #valued(Map) valued}, it returns defaultValue
+   *
+   * @param map          the map
+   * @param defaultValue the defaultValue to return if the path is not {@link #valued(Map) valued}
+   * @return value at the end of this path, casted to Boolean. defaultValue if the path is not {@link #valued(Map) valued}
+   */
+  public boolean b(Map<String, ?> map, boolean defaultValue) {
+    return valued(map) ? b(map) : defaultValue;
+  }
+
+  /**
+   * Evaluates this path and cast the value to a String
+   *
+   * @param map the map
+   * @return value at the end of this path casted to String
+   */
+  public String s(Map<String, ?> map) {
+    return (String) get(map);
+  }
+
+  /**
+   * Evaluates this path and cast the value to a String. If the path is not {@link #valued(Map) valued}, it returns defaultValue
+   *
+   * @param map          the map
+   * @param defaultValue the defaultValue to return if the path is not {@link #valued(Map) valued}
+   * @return value at the end of this path, casted to String. defaultValue if the path is not {@link #valued(Map) valued}
+   */
+  public String s(Map<String, ?> map, String defaultValue) {
+    String value = s(map);
+    return value == null ? defaultValue : value;
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Date
+   *
+   * @param map the map
+   * @return value at the end of this path casted to Date
+   */
+  public Date date(Map<String, ?> map) {
+    return (Date) get(map);
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Date. If the path is not {@link #valued(Map) valued}, it returns defaultValue
+   *
+   * @param map          the map
+   * @param defaultValue the defaultValue to return if the path is not {@link #valued(Map) valued}
+   * @return value at the end of this path, casted to Date. defaultValue if the path is not {@link #valued(Map) valued}
+   */
+  public Date date(Map<String, ?> map, Date defaultValue) {
+    Date value = date(map);
+    return value == null ? defaultValue : value;
+  }
+
+  /**
+   * Evaluates this path and cast the value to type V
+   *
+   * @param map the map
+   * @param <V> the return type
+   * @return value at the end of this path casted to type V
+   */
+  @SuppressWarnings("unchecked")
+  public <V> V o(Map<String, ?> map) {
+    return (V) get(map);
+  }
+
+  /**
+   * Evaluates this path and cast the value to type V. If the path is not {@link #valued(Map) valued}, it returns defaultValue
+   *
+   * @param map          the map
+   * @param defaultValue the defaultValue to return if the path is not {@link #valued(Map) valued}
+   * @param <V>          the return type
+   * @return value at the end of this path, casted to type V. defaultValue if the path is not {@link #valued(Map) valued}
+   */
+  public <V> V o(Map<String, ?> map, V defaultValue) {
+    V value = o(map);
+    return value == null ? defaultValue : value;
+  }
+
+  /**
+   * Evaluates this path and cast the value to a Collection&lt;V&gt;
+   *
+   * @param map the map
+   * @param <V> the return type
+   * @return value at the end of this path casted to Collection&lt;V&gt;
+   */
+  @SuppressWarnings("unchecked")
+  public <V> Collection<V> collection(Map<String, ?> map) {
+    return (Collection<V>) get(map);
+  }
+
+  /**
+   * Evaluates this path and cast the value to a List&lt;V&gt;
+   *
+   * @param map the map
+   * @param <V> the return type
+   * @return value at the end of this path casted to List&lt;V&gt;
+   */
+  @SuppressWarnings("unchecked")
+  public <V> List<V> list(Map<String, ?> map) {
+    return (List<V>) get(map);
+  }
+
+  /**
+   * Evaluates this path and, if the value is not of type SMap, a new SMap is created using value as backing map. Otherwise value is casted to SMap and returned
+   *
+   * @param map the map
+   * @return value at the end of this path, either casted to SMap or used as backing map for a new SMap. Null if the path is not {@link #valued(Map) valued}
+   */
+  @SuppressWarnings("unchecked")
+  public SMap map(Map<String, ?> map) {
+    Object value = get(map);
+    if (value == null || value instanceof SMap) {
+      return (SMap) value;
+    }
+    if (value instanceof Map) {
+      return new SMap((Map<String, Object>) value);
+    }
+    throw new IllegalArgumentException(value + " is neither a Map or a SteroidMap");
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof SPath && path.equals(((SPath) o).path);
+  }
+
+  @Override
+  public int hashCode() {
+    return path.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+
+}
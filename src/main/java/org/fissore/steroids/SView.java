@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks an interface whose getters are to be read from an {@link SMap}. At compile time, <code>org.fissore.steroids.processor.SViewProcessor</code> generates a class implementing the interface, named after it with a <code>View</code> suffix, whose getters read the map directly, without reflection.
+ * <pre>
+ * &#64;SView
+ * public interface Friend {
+ *   String name();
+ *   long age();
+ * }
+ *
+ * Friend friend = new FriendView(mymap.map("friend"));
+ * </pre>
+ * Getters are named after their key: <code>name()</code>, <code>getName()</code> and <code>isName()</code> all read <code>name</code>, unless they are annotated with {@link Key}.
+ * Primitive and {@link String} getters use {@link SMap#l(String)}, {@link SMap#s(String)} and their siblings, getters returning another SView interface wrap the nested map in its view, other getters cast the value.
+ * Nested interfaces get the names of their enclosing types as prefix, e.g. <code>Outer_FriendView</code>. Default and static methods are left as they are
+ */
+@Documented
+@Retention(RetentionPolicy.CLASS)
+@Target(ElementType.TYPE)
+public @interface SView {
+
+  /**
+   * Overrides the key read by a getter of an {@link SView} interface
+   */
+  @Documented
+  @Retention(RetentionPolicy.CLASS)
+  @Target(ElementType.METHOD)
+  @interface Key {
+
+    /**
+     * @return the key
+     */
+    String value();
+
+  }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The ordered set of keys of a {@link ShapedMap}, shared by all maps having the same keys.
+ * Shapes are immutable: adding or removing a key transitions to another shape. Transitions are cached, so that maps built adding the same keys in the same order end up sharing the very same shape instance.
+ * <p>
+ * The cache is bounded: it holds shapes weakly, so that shapes no longer used by any map are collected, it holds a limited number of transitions per shape, and it doesn't hold shapes with more than {@link #MAX_CACHED_KEYS} keys
+ */
+final class Shape {
+
+  /**
+   * Up to this number of keys, lookups scan the keys array instead of using an index
+   */
+  private static final int LINEAR_SCAN_THRESHOLD = 8;
+
+  /**
+   * Max number of cached transitions per shape. Past it, new shapes are created but not cached, so that maps with ever-changing keys don't grow the shape tree forever
+   */
+  private static final int MAX_TRANSITIONS = 32;
+
+  /**
+   * Shapes with more keys than this are never cached. {@link ShapedMap}s growing past it move their entries to a plain map
+   */
+  static final int MAX_CACHED_KEYS = 64;
+
+  static final Shape EMPTY = new Shape(new String[0]);
+
+  private final String[] keys;
+  private final Map<String, Integer> index;
+  /* created on first transition */
+  private volatile Map<String, WeakReference<Shape>> additions;
+  private volatile Map<String, WeakReference<Shape>> removals;
+
+  private Shape(String[] keys) {
+    this.keys = keys;
+    if (keys.length > LINEAR_SCAN_THRESHOLD) {
+      this.index = new HashMap<>(keys.length * 2);
+      for (int i = 0; i < keys.length; i++) {
+        this.index.put(keys[i], i);
+      }
+    } else {
+      this.index = null;
+    }
+  }
+
+  /**
+   * Returns the shape made of the given keys, in the given order. Duplicate keys are ignored
+   *
+   * @param keys the keys
+   * @return the shape
+   */
+  static Shape of(String... keys) {
+    if (keys.length > MAX_CACHED_KEYS) {
+      Set<String> distinct = new LinkedHashSet<>(Arrays.asList(keys));
+      return new Shape(distinct.toArray(new String[0]));
+    }
+
+    Shape shape = EMPTY;
+    for (String key : keys) {
+      if (shape.indexOf(key) < 0) {
+        shape = shape.with(key);
+      }
+    }
+    return shape;
+  }
+
+  int size() {
+    return keys.length;
+  }
+
+  String key(int i) {
+    return keys[i];
+  }
+
+  int indexOf(Object key) {
+    if (index != null) {
+      Integer i = index.get(key);
+      return i == null ? -1 : i;
+    }
+    for (int i = 0; i < keys.length; i++) {
+      if (keys[i].equals(key)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Transitions to the shape having given key appended. The key must not be part of this shape
+   *
+   * @param key the key to add
+   * @return the new shape
+   */
+  Shape with(String key) {
+    Shape shape = cached(additions, key);
+    if (shape != null) {
+      return shape;
+    }
+
+    String[] newKeys = Arrays.copyOf(keys, keys.length + 1);
+    newKeys[keys.length] = key;
+    shape = new Shape(newKeys);
+    if (newKeys.length > MAX_CACHED_KEYS) {
+      return shape;
+    }
+    if (additions == null) {
+      synchronized (this) {
+        if (additions == null) {
+          additions = new ConcurrentHashMap<>();
+        }
+      }
+    }
+    return cache(additions, key, shape);
+  }
+
+  /**
+   * Transitions to the shape not having given key. The key must be part of this shape
+   *
+   * @param key the key to remove
+   * @return the new shape
+   */
+  Shape without(String key) {
+    Shape shape = cached(removals, key);
+    if (shape != null) {
+      return shape;
+    }
+
+    int i = indexOf(key);
+    String[] newKeys = new String[keys.length - 1];
+    System.arraycopy(keys, 0, newKeys, 0, i);
+    System.arraycopy(keys, i + 1, newKeys, i, keys.length - i - 1);
+    shape = Shape.of(newKeys);
+    if (keys.length > MAX_CACHED_KEYS) {
+      return shape;
+    }
+    if (removals == null) {
+      synchronized (this) {
+        if (removals == null) {
+          removals = new ConcurrentHashMap<>();
+        }
+      }
+    }
+    return cache(removals, key, shape);
+  }
+
+  private static Shape cached(Map<String, WeakReference<Shape>> transitions, String key) {
+    if (transitions == null) {
+      return null;
+    }
+    WeakReference<Shape> cached = transitions.get(key);
+    return cached == null ? null : cached.get();
+  }
+
+  private static Shape cache(Map<String, WeakReference<Shape>> transitions, String key, Shape shape) {
+    if (transitions.size() >= MAX_TRANSITIONS) {
+      transitions.values().removeIf(cached -> cached.get() == null);
+      if (transitions.size() >= MAX_TRANSITIONS) {
+        return shape;
+      }
+    }
+    WeakReference<Shape> reference = new WeakReference<>(shape);
+    WeakReference<Shape> previous = transitions.putIfAbsent(key, reference);
+    if (previous == null) {
+      return shape;
+    }
+    Shape cached = previous.get();
+    if (cached != null) {
+      return cached;
+    }
+    transitions.replace(key, previous, reference);
+    return shape;
+  }
+
+}
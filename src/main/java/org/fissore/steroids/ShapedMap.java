@@ -0,0 +1,462 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.*;
+
+/**
+ * ShapedMap is a {@link Map} meant to back record-like {@link SMap}s: lots of maps sharing the same keys, such as the rows of a <code>select</code> or the elements of a list of JSON objects.
+ * Keys are not stored in each map: they are stored in a {@link Shape} shared by all maps having the same keys, added in the same order. Each map stores just an array of values.
+ * Adding or removing keys transitions the map to a different, shared, shape.
+ * <p>
+ * Primitive values added with {@link SMap#add(String, long)} and its siblings are stored unboxed, and read back without allocations by {@link SMap#l(String)} and its siblings. They are boxed only when read as objects, e.g. with {@link #get(Object)}.
+ * <p>
+ * Usage: <code>new SMap(new ShapedMap())</code>. Lookups are linear on small maps, so it's not meant as a replacement for {@link HashMap} when maps have lots of keys:
+ * past {@value Shape#MAX_CACHED_KEYS} keys, entries are moved to a {@link LinkedHashMap} and the map behaves as such until {@link #clear() cleared}.
+ * Null keys are not supported. Like {@link HashMap}, it's not thread safe
+ */
+public class ShapedMap extends AbstractMap<String, Object> {
+
+  private static final Object[] NO_VALUES = new Object[0];
+
+  private static final byte OBJECT = 0;
+  private static final byte LONG = 1;
+  private static final byte INT = 2;
+  private static final byte DOUBLE = 3;
+  private static final byte FLOAT = 4;
+  private static final byte BOOLEAN = 5;
+
+  private Shape shape;
+  private Object[] values;
+  /* allocated on first unboxed value. when types[i] != OBJECT, the value of slot i is stored in primitives[i] */
+  private byte[] types;
+  private long[] primitives;
+  /* not null once the map has too many keys to be shaped: it then holds all entries */
+  private Map<String, Object> overflow;
+
+  /**
+   * Creates a new, empty, ShapedMap
+   */
+  public ShapedMap() {
+    this.shape = Shape.EMPTY;
+    this.values = NO_VALUES;
+  }
+
+  /**
+   * Creates a new ShapedMap with the same mappings of given map
+   *
+   * @param map the map whose mappings are to be placed in this map
+   */
+  public ShapedMap(Map<String, Object> map) {
+    this();
+    putAll(map);
+  }
+
+  ShapedMap(Shape shape, Object[] values) {
+    this.shape = shape;
+    this.values = values;
+  }
+
+  Shape shape() {
+    return shape;
+  }
+
+  @Override
+  public int size() {
+    if (overflow != null) {
+      return overflow.size();
+    }
+    return shape.size();
+  }
+
+  @Override
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    if (overflow != null) {
+      return overflow.containsKey(key);
+    }
+    return shape.indexOf(key) >= 0;
+  }
+
+  @Override
+  public Object get(Object key) {
+    if (overflow != null) {
+      return overflow.get(key);
+    }
+    int i = shape.indexOf(key);
+    return i < 0 ? null : valueAt(i);
+  }
+
+  @Override
+  public Object put(String key, Object value) {
+    int i = slotOf(key);
+    if (i < 0) {
+      return overflow.put(key, value);
+    }
+    Object previous = valueAt(i);
+    setValueAt(i, value);
+    return previous;
+  }
+
+  Object getKey(SKey<?> key) {
+    if (overflow != null) {
+      return overflow.get(key.name());
+    }
+    int i = key.indexIn(shape);
+    return i < 0 ? null : valueAt(i);
+  }
+
+  Object putKey(SKey<?> key, Object value) {
+    int i = overflow != null ? -1 : key.indexIn(shape);
+    if (i < 0) {
+      i = slotOf(key.name());
+    }
+    if (i < 0) {
+      return overflow.put(key.name(), value);
+    }
+    Object previous = valueAt(i);
+    setValueAt(i, value);
+    return previous;
+  }
+
+  boolean valued(Object key) {
+    if (overflow != null) {
+      return overflow.get(key) != null;
+    }
+    int i = shape.indexOf(key);
+    return i >= 0 && (typeAt(i) != OBJECT || values[i] != null);
+  }
+
+  long getLong(Object key) {
+    int i = shape.indexOf(key);
+    if (i >= 0 && typeAt(i) == LONG) {
+      return primitives[i];
+    }
+    return (Long) get(key);
+  }
+
+  int getInt(Object key) {
+    int i = shape.indexOf(key);
+    if (i >= 0 && typeAt(i) == INT) {
+      return (int) primitives[i];
+    }
+    return (Integer) get(key);
+  }
+
+  double getDouble(Object key) {
+    int i = shape.indexOf(key);
+    if (i >= 0 && typeAt(i) == DOUBLE) {
+      return Double.longBitsToDouble(primitives[i]);
+    }
+    return (Double) get(key);
+  }
+
+  float getFloat(Object key) {
+    int i = shape.indexOf(key);
+    if (i >= 0 && typeAt(i) == FLOAT) {
+      return Float.intBitsToFloat((int) primitives[i]);
+    }
+    return (Float) get(key);
+  }
+
+  boolean getBoolean(Object key) {
+    int i = shape.indexOf(key);
+    if (i >= 0 && typeAt(i) == BOOLEAN) {
+      return primitives[i] != 0;
+    }
+    return (Boolean) get(key);
+  }
+
+  void putLong(String key, long value) {
+    int i = slotOf(key);
+    if (i < 0) {
+      overflow.put(key, value);
+      return;
+    }
+    setPrimitiveAt(i, LONG, value);
+  }
+
+  void putInt(String key, int value) {
+    int i = slotOf(key);
+    if (i < 0) {
+      overflow.put(key, value);
+      return;
+    }
+    setPrimitiveAt(i, INT, value);
+  }
+
+  void putDouble(String key, double value) {
+    int i = slotOf(key);
+    if (i < 0) {
+      overflow.put(key, value);
+      return;
+    }
+    setPrimitiveAt(i, DOUBLE, Double.doubleToRawLongBits(value));
+  }
+
+  void putFloat(String key, float value) {
+    int i = slotOf(key);
+    if (i < 0) {
+      overflow.put(key, value);
+      return;
+    }
+    setPrimitiveAt(i, FLOAT, Float.floatToRawIntBits(value));
+  }
+
+  void putBoolean(String key, boolean value) {
+    int i = slotOf(key);
+    if (i < 0) {
+      overflow.put(key, value);
+      return;
+    }
+    setPrimitiveAt(i, BOOLEAN, value ? 1 : 0);
+  }
+
+  /**
+   * Returns the slot of given key, adding the key if missing. Returns -1 if the entries are, or have just been moved, in the overflow map
+   */
+  private int slotOf(String key) {
+    if (key == null) {
+      throw new NullPointerException("ShapedMap doesn't support null keys");
+    }
+    if (overflow != null) {
+      return -1;
+    }
+    int i = shape.indexOf(key);
+    if (i >= 0) {
+      return i;
+    }
+
+    i = shape.size();
+    if (i >= Shape.MAX_CACHED_KEYS) {
+      overflow();
+      return -1;
+    }
+    if (i == values.length) {
+      int capacity = Math.max(4, i * 2);
+      values = Arrays.copyOf(values, capacity);
+      if (types != null) {
+        types = Arrays.copyOf(types, capacity);
+        primitives = Arrays.copyOf(primitives, capacity);
+      }
+    }
+    shape = shape.with(key);
+    return i;
+  }
+
+  private void overflow() {
+    Map<String, Object> entries = new LinkedHashMap<>(shape.size() * 2);
+    for (int i = 0; i < shape.size(); i++) {
+      entries.put(shape.key(i), valueAt(i));
+    }
+    overflow = entries;
+    shape = Shape.EMPTY;
+    values = NO_VALUES;
+    types = null;
+    primitives = null;
+  }
+
+  private byte typeAt(int i) {
+    return types == null ? OBJECT : types[i];
+  }
+
+  private Object valueAt(int i) {
+    switch (typeAt(i)) {
+      case LONG:
+        return primitives[i];
+      case INT:
+        return (int) primitives[i];
+      case DOUBLE:
+        return Double.longBitsToDouble(primitives[i]);
+      case FLOAT:
+        return Float.intBitsToFloat((int) primitives[i]);
+      case BOOLEAN:
+        return primitives[i] != 0;
+      default:
+        return values[i];
+    }
+  }
+
+  private void setValueAt(int i, Object value) {
+    values[i] = value;
+    if (types != null) {
+      types[i] = OBJECT;
+    }
+  }
+
+  private void setPrimitiveAt(int i, byte type, long value) {
+    if (types == null) {
+      types = new byte[values.length];
+      primitives = new long[values.length];
+    }
+    values[i] = null;
+    types[i] = type;
+    primitives[i] = value;
+  }
+
+  @Override
+  public Object remove(Object key) {
+    if (overflow != null) {
+      return overflow.remove(key);
+    }
+    int i = shape.indexOf(key);
+    if (i < 0) {
+      return null;
+    }
+    return removeAt(i);
+  }
+
+  private Object removeAt(int i) {
+    Object previous = valueAt(i);
+    int size = shape.size();
+    System.arraycopy(values, i + 1, values, i, size - i - 1);
+    values[size - 1] = null;
+    if (types != null) {
+      System.arraycopy(types, i + 1, types, i, size - i - 1);
+      System.arraycopy(primitives, i + 1, primitives, i, size - i - 1);
+      types[size - 1] = OBJECT;
+    }
+    shape = shape.without(shape.key(i));
+    return previous;
+  }
+
+  @Override
+  public void clear() {
+    if (overflow != null) {
+      overflow = null;
+      return;
+    }
+    Arrays.fill(values, 0, shape.size(), null);
+    if (types != null) {
+      Arrays.fill(types, 0, shape.size(), OBJECT);
+    }
+    shape = Shape.EMPTY;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    if (overflow != null) {
+      return overflow.entrySet();
+    }
+    return new AbstractSet<Entry<String, Object>>() {
+      @Override
+      public Iterator<Entry<String, Object>> iterator() {
+        return new EntryIterator();
+      }
+
+      @Override
+      public int size() {
+        return shape.size();
+      }
+    };
+  }
+
+  private final class EntryIterator implements Iterator<Entry<String, Object>> {
+
+    private Shape expectedShape = shape;
+    private int next;
+    private int last = -1;
+
+    @Override
+    public boolean hasNext() {
+      return next < expectedShape.size();
+    }
+
+    @Override
+    public Entry<String, Object> next() {
+      if (shape != expectedShape) {
+        throw new ConcurrentModificationException();
+      }
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      last = next++;
+      return new SlotEntry(shape, last);
+    }
+
+    @Override
+    public void remove() {
+      if (last < 0) {
+        throw new IllegalStateException();
+      }
+      if (shape != expectedShape) {
+        throw new ConcurrentModificationException();
+      }
+      removeAt(last);
+      expectedShape = shape;
+      next = last;
+      last = -1;
+    }
+  }
+
+  private final class SlotEntry implements Entry<String, Object> {
+
+    private final String key;
+    private final Shape entryShape;
+    private final int slot;
+
+    private SlotEntry(Shape entryShape, int slot) {
+      this.key = entryShape.key(slot);
+      this.entryShape = entryShape;
+      this.slot = slot;
+    }
+
+    @Override
+    public String getKey() {
+      return key;
+    }
+
+    @Override
+    public Object getValue() {
+      return shape == entryShape ? valueAt(slot) : get(key);
+    }
+
+    @Override
+    public Object setValue(Object value) {
+      return shape == entryShape ? swap(slot, value) : put(key, value);
+    }
+
+    private Object swap(int i, Object value) {
+      Object previous = valueAt(i);
+      setValueAt(i, value);
+      return previous;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Entry)) {
+        return false;
+      }
+      Entry<?, ?> e = (Entry<?, ?>) o;
+      return key.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode() ^ Objects.hashCode(getValue());
+    }
+
+    @Override
+    public String toString() {
+      return key + "=" + getValue();
+    }
+  }
+
+}
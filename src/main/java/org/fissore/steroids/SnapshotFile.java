@@ -0,0 +1,218 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * SnapshotFile stores many maps, such as reference data or lookup tables, in a single immutable file, which is memory mapped when opened.
+ * <p>
+ * Maps are {@link BinaryEncoder binary encoded}, their keys collected in a dictionary shared by the whole file. Opening a file only reads the dictionary:
+ * maps are read only views over the mapped bytes, whose values are decoded on access, so that the file is paged in by the OS as needed, and its pages are shared by all the processes reading it.
+ * <p>
+ * Files are limited to 2GB. A SnapshotFile is thread safe
+ */
+public final class SnapshotFile {
+
+  /* the last bytes of the file: dictionary offset, offsets table offset, number of maps, magic */
+  private static final int TRAILER_SIZE = 16;
+  private static final int MAGIC = 0x534D4150;
+
+  private final ByteBuffer bytes;
+  private final List<String> keys;
+  private final int offsets;
+  private final int size;
+
+  private SnapshotFile(ByteBuffer bytes, List<String> keys, int offsets, int size) {
+    this.bytes = bytes;
+    this.keys = keys;
+    this.offsets = offsets;
+    this.size = size;
+  }
+
+  /**
+   * Writes given maps to a new file, replacing any existing one. The file is written aside and moved over the existing one once complete, so that readers never see it half written
+   *
+   * @param path the file to write
+   * @param maps the maps to write
+   * @throws IOException              if writing the file fails
+   * @throws IllegalArgumentException if a value of the maps is not supported by {@link BinaryEncoder}, or if the file would be larger than 2GB
+   */
+  public static void write(Path path, Collection<? extends Map<String, Object>> maps) throws IOException {
+    write(path, maps.stream());
+  }
+
+  /**
+   * Writes given maps to a new file, replacing any existing one. Maps are encoded one at a time, as the stream is consumed.
+   * <p>
+   * The file is written aside and moved over the existing one once complete, so that readers never see it half written, and files already opened keep reading the old one
+   *
+   * @param path the file to write
+   * @param maps the maps to write
+   * @throws IOException              if writing the file fails
+   * @throws IllegalArgumentException if a value of the maps is not supported by {@link BinaryEncoder}, or if the file would be larger than 2GB
+   */
+  public static void write(Path path, Stream<? extends Map<String, Object>> maps) throws IOException {
+    Path parent = path.toAbsolutePath().getParent();
+    Path tmp;
+    OutputStream out;
+    while (true) {
+      tmp = parent.resolve(path.getFileName() + "." + Long.toUnsignedString(ThreadLocalRandom.current().nextLong(), 36) + ".tmp");
+      try {
+        /* not Files.createTempFile, whose files are readable by their owner only: the file gets the default permissions of any new file */
+        out = Files.newOutputStream(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        break;
+      } catch (FileAlreadyExistsException e) {
+        /* taken by another writer, try another name */
+      }
+    }
+    try {
+      writeTo(out, maps);
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException | RuntimeException e) {
+      Files.deleteIfExists(tmp);
+      throw e;
+    }
+  }
+
+  private static void writeTo(OutputStream file, Stream<? extends Map<String, Object>> maps) throws IOException {
+    BinaryEncoder encoder = new BinaryEncoder();
+    int[] offsets = new int[1024];
+    int size = 0;
+
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 1 << 16))) {
+      Iterator<? extends Map<String, Object>> iterator = maps.iterator();
+      while (iterator.hasNext()) {
+        Map<String, Object> map = iterator.next();
+        if (map == null) {
+          throw new IllegalArgumentException("Maps can't be null");
+        }
+        if (size == offsets.length) {
+          offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        offsets[size++] = checkSize(out.size());
+        out.write(encoder.encode(map));
+      }
+
+      int dictionary = checkSize(out.size());
+      List<String> keys = encoder.keys();
+      out.write(encoder.encode(keys));
+
+      int offsetsTable = checkSize(out.size());
+      for (int i = 0; i < size; i++) {
+        out.writeInt(offsets[i]);
+      }
+      out.writeInt(dictionary);
+      out.writeInt(offsetsTable);
+      out.writeInt(size);
+      out.writeInt(MAGIC);
+      checkSize(out.size());
+    }
+  }
+
+  private static int checkSize(int size) {
+    /* DataOutputStream stops counting at Integer.MAX_VALUE */
+    if (size == Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Snapshot files are limited to 2GB");
+    }
+    return size;
+  }
+
+  /**
+   * Opens a file written by {@link #write(Path, Stream)}, mapping it in memory. The file must not change as long as it's open
+   *
+   * @param path the file to open
+   * @return the opened file
+   * @throws IOException              if reading the file fails
+   * @throws IllegalArgumentException if the file is not a snapshot file
+   */
+  public static SnapshotFile open(Path path) throws IOException {
+    ByteBuffer bytes;
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long length = channel.size();
+      if (length > Integer.MAX_VALUE) {
+        throw new IllegalArgumentException(path + " is larger than 2GB");
+      }
+      bytes = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+    }
+
+    int trailer = bytes.limit() - TRAILER_SIZE;
+    if (trailer < 0 || bytes.getInt(trailer + 12) != MAGIC) {
+      throw new IllegalArgumentException(path + " is not a snapshot file");
+    }
+    int dictionary = bytes.getInt(trailer);
+    int offsets = bytes.getInt(trailer + 4);
+    int size = bytes.getInt(trailer + 8);
+
+    ByteBuffer buffer = bytes.duplicate();
+    buffer.position(dictionary);
+    List<String> keys = new ArrayList<>();
+    for (Object key : (List<?>) new BinaryDecoder().decode(buffer)) {
+      keys.add((String) key);
+    }
+    return new SnapshotFile(bytes, Collections.unmodifiableList(keys), offsets, size);
+  }
+
+  /**
+   * @return the number of maps in the file
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns a read only view of the map at given index. Its values are decoded on access
+   *
+   * @param index the index of the map, in the order the maps were written
+   * @return the map
+   * @throws IndexOutOfBoundsException if index is out of range
+   */
+  public SteroidMap<String> get(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    return new BinaryMap(bytes, bytes.getInt(offsets + index * Integer.BYTES), keys);
+  }
+
+  /**
+   * @return a stream of the maps in the file, in the order they were written
+   * @see #get(int)
+   */
+  public Stream<SteroidMap<String>> stream() {
+    return IntStream.range(0, size).mapToObj(this::get);
+  }
+
+}
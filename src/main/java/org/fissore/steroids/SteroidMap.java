@@ -16,8 +16,11 @@
 package org.fissore.steroids;
 
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * SteroidMap is a {@link Map} on steroids.
@@ -45,6 +48,119 @@ public interface SteroidMap<K> extends Map<K, Object> {
     return this;
   }
 
+  /**
+   * {@link #put(Object, Object) Puts} a long value. Implementations may store it unboxed
+   *
+   * @param key   key with which the specified value is to be associated
+   * @param value value to be associated with the specified key
+   * @return this instance
+   */
+  default SteroidMap<K> add(K key, long value) {
+    put(key, value);
+    return this;
+  }
+
+  /**
+   * {@link #put(Object, Object) Puts} a int value. Implementations may store it unboxed
+   *
+   * @param key   key with which the specified value is to be associated
+   * @param value value to be associated with the specified key
+   * @return this instance
+   */
+  default SteroidMap<K> add(K key, int value) {
+    put(key, value);
+    return this;
+  }
+
+  /**
+   * {@link #put(Object, Object) Puts} a double value. Implementations may store it unboxed
+   *
+   * @param key   key with which the specified value is to be associated
+   * @param value value to be associated with the specified key
+   * @return this instance
+   */
+  default SteroidMap<K> add(K key, double value) {
+    put(key, value);
+    return this;
+  }
+
+  /**
+   * {@link #put(Object, Object) Puts} a float value. Implementations may store it unboxed
+   *
+   * @param key   key with which the specified value is to be associated
+   * @param value value to be associated with the specified key
+   * @return this instance
+   */
+  default SteroidMap<K> add(K key, float value) {
+    put(key, value);
+    return this;
+  }
+
+  /**
+   * {@link #put(Object, Object) Puts} a boolean value. Implementations may store it unboxed
+   *
+   * @param key   key with which the specified value is to be associated
+   * @param value value to be associated with the specified key
+   * @return this instance
+   */
+  default SteroidMap<K> add(K key, boolean value) {
+    put(key, value);
+    return this;
+  }
+
+  /**
+   * {@link #put(Object, Object) Puts} a char value, boxed to a Character rather than widened to an Integer
+   *
+   * @param key   key with which the specified value is to be associated
+   * @param value value to be associated with the specified key
+   * @return this instance
+   */
+  default SteroidMap<K> add(K key, char value) {
+    put(key, (Character) value);
+    return this;
+  }
+
+  /**
+   * {@link #put(Object, Object) Puts} a short value, boxed to a Short rather than widened to an Integer
+   *
+   * @param key   key with which the specified value is to be associated
+   * @param value value to be associated with the specified key
+   * @return this instance
+   */
+  default SteroidMap<K> add(K key, short value) {
+    put(key, (Short) value);
+    return this;
+  }
+
+  /**
+   * {@link #put(Object, Object) Puts} a byte value, boxed to a Byte rather than widened to an Integer
+   *
+   * @param key   key with which the specified value is to be associated
+   * @param value value to be associated with the specified key
+   * @return this instance
+   */
+  default SteroidMap<K> add(K key, byte value) {
+    put(key, (Byte) value);
+    return this;
+  }
+
+  /**
+   * {@link #put(Object, Object) Puts} a value using the name of given typed key. A null key is handled as {@link #put(Object, Object)} does
+   *
+   * @param key   typed key with which the specified value is to be associated
+   * @param value value to be associated with the specified key
+   * @param <T>   the type of the value
+   * @return the previous value associated with key, or null if there was none
+   * @throws ClassCastException if value is not of the type of the key
+   */
+  @SuppressWarnings("unchecked")
+  default <T> T putKey(SKey<T> key, T value) {
+    if (key == null) {
+      return (T) put((K) null, value);
+    }
+    return (T) put((K) key.name(), key.type().cast(value));
+  }
+
   /**
    * {@link #put(Object, Object) Puts} all non null values from given maps into this map. Fluent version of {@link #putAll(Map)}
    *
@@ -74,9 +190,13 @@ public interface SteroidMap<K> extends Map<K, Object> {
    * @return this instance
    */
   default SteroidMap<K> addAll(Stream<Map<K, Object>> sources) {
+    Object event = Events.begin(Events.ADD_ALL);
+    Object wait = Events.begin(Events.MONITOR_WAIT);
     synchronized (this) {
+      Events.end(wait, this);
       sources.forEach(source -> source.forEach(this::add));
     }
+    Events.end(event, this);
     return this;
   }
 
@@ -107,7 +227,9 @@ public interface SteroidMap<K> extends Map<K, Object> {
       return addAll(source);
     }
 
+    Object wait = Events.begin(Events.MONITOR_WAIT);
     synchronized (this) {
+      Events.end(wait, this);
       source.entrySet().stream()
           .filter(e -> keys.contains(e.getKey()))
           .forEach(e -> add(e.getKey(), e.getValue()));
@@ -124,13 +246,16 @@ public interface SteroidMap<K> extends Map<K, Object> {
    * @return this instance
    */
   default SteroidMap<K> renameKey(K oldKey, K newKey) {
+    Object event = Events.begin(Events.RENAME_KEY);
+    Object wait = Events.begin(Events.MONITOR_WAIT);
     synchronized (this) {
-      if (!containsKey(oldKey)) {
-        return this;
+      Events.end(wait, this);
+      if (containsKey(oldKey)) {
+        put(newKey, get(oldKey));
+        remove(oldKey);
       }
-      put(newKey, get(oldKey));
-      remove(oldKey);
     }
+    Events.end(event, this);
     return this;
   }
 
@@ -163,7 +288,9 @@ public interface SteroidMap<K> extends Map<K, Object> {
    * @return this instance
    */
   default SteroidMap<K> del(Stream<K> keys) {
+    Object wait = Events.begin(Events.MONITOR_WAIT);
     synchronized (this) {
+      Events.end(wait, this);
       keys.forEach(this::remove);
     }
     return this;
@@ -171,6 +298,22 @@ public interface SteroidMap<K> extends Map<K, Object> {
 
   /* content extraction */
 
+  /**
+   * {@link #get(Object) Gets} the value of given typed key, cast to its type. A null key is handled as {@link #get(Object)} does
+   *
+   * @param key the typed key
+   * @param <T> the type of the value
+   * @return value associated to key, null if missing
+   * @throws ClassCastException if the value is not of the type of the key
+   */
+  @SuppressWarnings("unchecked")
+  default <T> T getKey(SKey<T> key) {
+    if (key == null) {
+      return (T) get((Object) null);
+    }
+    return key.type().cast(get((Object) key.name()));
+  }
+
   /**
    * If given key is {@link #valued(Object) valued}, it's applied to provided valueReturner. Otherwise, defaultValue is returned.
    * Both checking if the key is {@link #valued(Object) valued} and applying valueReturner run in a synchronized block
@@ -208,7 +351,9 @@ public interface SteroidMap<K> extends Map<K, Object> {
    * @return value associated to key, casted to Long. defaultValue if key is not {@link #valued(Object) valued}
    */
   default long l(K key, long defaultValue) {
-    return defaultIfMissing(key, defaultValue, this::l);
+    synchronized (this) {
+      return valued(key) ? l(key) : defaultValue;
+    }
   }
 
   /**
@@ -229,7 +374,9 @@ public interface SteroidMap<K> extends Map<K, Object> {
    * @return value associated to key, casted to Integer. defaultValue if key is not {@link #valued(Object) valued}
    */
   default int i(K key, int defaultValue) {
-    return defaultIfMissing(key, defaultValue, this::i);
+    synchronized (this) {
+      return valued(key) ? i(key) : defaultValue;
+    }
   }
 
   /**
@@ -250,7 +397,9 @@ public interface SteroidMap<K> extends Map<K, Object> {
    * @return value associated to key, casted to Double. defaultValue if key is not {@link #valued(Object) valued}
    */
   default double d(K key, double defaultValue) {
-    return defaultIfMissing(key, defaultValue, this::d);
+    synchronized (this) {
+      return valued(key) ? d(key) : defaultValue;
+    }
   }
 
   /**
@@ -271,7 +420,9 @@ public interface SteroidMap<K> extends Map<K, Object> {
    * @return value associated to key, casted to Float. defaultValue if key is not {@link #valued(Object) valued}
    */
   default float f(K key, float defaultValue) {
-    return defaultIfMissing(key, defaultValue, this::f);
+    synchronized (this) {
+      return valued(key) ? f(key) : defaultValue;
+    }
   }
 
   /**
@@ -313,7 +464,9 @@ public interface SteroidMap<K> extends Map<K, Object> {
    * @return value associated to key, casted to Boolean. defaultValue if key is not {@link #valued(Object) valued}
    */
   default boolean b(K key, boolean defaultValue) {
-    return defaultIfMissing(key, defaultValue, this::b);
+    synchronized (this) {
+      return valued(key) ? b(key) : defaultValue;
+    }
   }
 
   /**
@@ -491,6 +644,31 @@ public interface SteroidMap<K> extends Map<K, Object> {
     return defaultIfMissing(key, defaultValue, this::stream);
   }
 
+  /**
+   * Parallel version of {@link #stream(Object)}. The collection is split by its own spliterator, which binds to its size once the stream starts: lists such as {@link ArrayList} are split by index, in balanced halves of known size, so that work is evenly spread among threads
+   *
+   * @param key the key
+   * @param <V> the return type
+   * @return value associated to key casted to a Collection&lt;V&gt; and converted to a parallel Stream&lt;V&gt;
+   */
+  default <V> Stream<V> parallelStream(K key) {
+    return this.<V>collection(key).parallelStream();
+  }
+
+  /**
+   * Runs given pipeline on {@link #parallelStream(Object)}, in given pool rather than in the common pool
+   *
+   * @param key      the key
+   * @param pool     the pool to run the pipeline in
+   * @param pipeline the pipeline, ending with a terminal operation
+   * @param <V>      the type of the elements
+   * @param <R>      the type of the result
+   * @return the result of the pipeline
+   */
+  default <V, R> R parallelStream(K key, ForkJoinPool pool, Function<Stream<V>, R> pipeline) {
+    return pool.submit(() -> pipeline.apply(this.<V>parallelStream(key))).join();
+  }
+
   /**
    * Creates a new SteroidMap made of given keys only. Keys must be {@link #valued(Object) valued}
    *
@@ -594,6 +772,89 @@ public interface SteroidMap<K> extends Map<K, Object> {
     return defaultIfMissing(key, defaultValue, this::maps);
   }
 
+  /**
+   * Same as {@link #map(Object)} but, if value is not of type SteroidMap, the new SteroidMap replaces value in this map: following calls will return the same SteroidMap, without allocating a new one.
+   * Read only maps are left untouched
+   *
+   * @param key the key
+   * @return value associated to key, either casted to SteroidMap or used as backing map for a new SteroidMap
+   */
+  default SteroidMap<K> promoteMap(K key) {
+    Object value = get(key);
+    SteroidMap<K> map = ensureMapIsOnSteroid(value);
+    if (map != value) {
+      try {
+        replace(key, value, map);
+      } catch (UnsupportedOperationException e) {
+        // read only map: the new SteroidMap won't be reused
+      }
+    }
+    return map;
+  }
+
+  /**
+   * Same as {@link #maps(Object)} but, if the collection is a modifiable {@link List}, each entry that is not of type SteroidMap is replaced in the list by the new SteroidMap: following calls will stream the same SteroidMaps, without allocating new ones.
+   * Entries are replaced lazily, as the stream consumes them, through a {@link ListIterator} of the list: a list changing size meanwhile makes it fail as any iteration would
+   *
+   * @param key the key
+   * @return value associated to key casted to a Collection&lt;? extends SteroidMap&lt;K&gt;&gt; and converted to a Stream&lt;? extends SteroidMap&lt;K&gt;&gt;, or an empty Stream if key is not {@link #valued(Object) valued}
+   */
+  @SuppressWarnings("unchecked")
+  default Stream<? extends SteroidMap<K>> promoteMaps(K key) {
+    Object value = get(key);
+    if (!(value instanceof List)) {
+      return maps(key);
+    }
+
+    List<Object> list = (List<Object>) value;
+    return StreamSupport.stream(() -> {
+      ListIterator<Object> entries = list.listIterator();
+      return new Spliterators.AbstractSpliterator<SteroidMap<K>>(Long.MAX_VALUE, Spliterator.ORDERED) {
+        @Override
+        public boolean tryAdvance(Consumer<? super SteroidMap<K>> action) {
+          if (!entries.hasNext()) {
+            return false;
+          }
+          Object entry = entries.next();
+          SteroidMap<K> map = ensureMapIsOnSteroid(entry);
+          if (map != entry) {
+            try {
+              entries.set(map);
+            } catch (UnsupportedOperationException e) {
+              // read only list: the new SteroidMap won't be reused
+            }
+          }
+          action.accept(map);
+          return true;
+        }
+      };
+    }, Spliterator.ORDERED, false);
+  }
+
+  /**
+   * Parallel version of {@link #maps(Object)}, split as {@link #parallelStream(Object)} is.
+   * Unlike {@link #promoteMaps(Object)}, entries are not replaced: the collection is only read, so other threads never modify it
+   *
+   * @param key the key
+   * @return value associated to key casted to a Collection&lt;? extends SteroidMap&lt;K&gt;&gt; and converted to a parallel Stream&lt;? extends SteroidMap&lt;K&gt;&gt;, an empty stream if key is not {@link #valued(Object) valued}
+   */
+  default Stream<? extends SteroidMap<K>> parallelMaps(K key) {
+    return maps(key).parallel();
+  }
+
+  /**
+   * Runs given pipeline on {@link #parallelMaps(Object)}, in given pool rather than in the common pool
+   *
+   * @param key      the key
+   * @param pool     the pool to run the pipeline in
+   * @param pipeline the pipeline, ending with a terminal operation
+   * @param <R>      the type of the result
+   * @return the result of the pipeline
+   */
+  default <R> R parallelMaps(K key, ForkJoinPool pool, Function<Stream<? extends SteroidMap<K>>, R> pipeline) {
+    return pool.submit(() -> pipeline.apply(parallelMaps(key))).join();
+  }
+
   SteroidMap<K> ensureMapIsOnSteroid(Object value);
 
   /**
@@ -603,4 +864,14 @@ public interface SteroidMap<K> extends Map<K, Object> {
    */
   SteroidMap<K> copy();
 
+  /**
+   * Returns a deep copy of this map. The copy is lazy: nested maps and lists are copied the first time they are modified through the copy. Until then, they are shared with this map.
+   * For this reason, neither this map nor its nested maps and lists must be modified after being deep copied: changes may show up in the copy
+   *
+   * @return a lazy deep copy of this map
+   */
+  default SteroidMap<K> deepCopy() {
+    return ensureMapIsOnSteroid(new LazyCopyMap<>(this));
+  }
+
 }
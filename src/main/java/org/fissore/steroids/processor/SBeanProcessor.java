@@ -0,0 +1,337 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import org.fissore.steroids.SBean;
+
+/**
+ * Generates the mappers of {@link SBean} classes. Each field is copied with plain Java code, into an {@link org.fissore.steroids.SMap} sized after the number of fields:
+ * <code>long age</code> becomes <code>map.add("age", bean.age)</code> one way and <code>bean.age = map.l("age")</code> the other way.
+ * <p>
+ * It's registered as a service, so <code>javac</code> runs it as soon as steroidmap is on the classpath
+ */
+@SupportedAnnotationTypes({"org.fissore.steroids.SBean", "org.fissore.steroids.SBean.Key"})
+public class SBeanProcessor extends AbstractProcessor {
+
+  static final String SUFFIX = "Mapper";
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (Element element : roundEnv.getElementsAnnotatedWith(SBean.class)) {
+      if (element.getKind() != ElementKind.CLASS) {
+        error(element, "@SBean can only be used on classes");
+        continue;
+      }
+      TypeElement type = (TypeElement) element;
+      if (!type.getTypeParameters().isEmpty()) {
+        error(element, "@SBean classes can't have type parameters");
+        continue;
+      }
+      try {
+        generate(type);
+      } catch (IOException e) {
+        error(element, "Unable to write the mapper of " + type + ": " + e.getMessage());
+      }
+    }
+    return true;
+  }
+
+  private void generate(TypeElement type) throws IOException {
+    PackageElement beanPackage = Sources.packageOf(type);
+    if (!checkInstantiable(type, beanPackage)) {
+      return;
+    }
+
+    List<Property> properties = new ArrayList<>();
+    for (VariableElement field : fieldsOf(type)) {
+      Property property = new Property(field);
+      if (!property.resolve(type, beanPackage)) {
+        return;
+      }
+      properties.add(property);
+    }
+
+    String packageName = beanPackage.getQualifiedName().toString();
+    String mapperName = Sources.generatedName(type, SUFFIX);
+    String beanName = type.getQualifiedName().toString();
+
+    try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(Sources.qualifiedGeneratedName(type, SUFFIX), type).openWriter())) {
+      if (!packageName.isEmpty()) {
+        out.println("package " + packageName + ";");
+        out.println();
+      }
+      out.println("/**");
+      out.println(" * Converts {@link " + beanName + "} to and from {@link org.fissore.steroids.SMap}s. Generated by " + SBeanProcessor.class.getName());
+      out.println(" */");
+      out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+      out.println((type.getModifiers().contains(Modifier.PUBLIC) ? "public " : "") + "final class " + mapperName + " {");
+      out.println();
+      out.println("  private " + mapperName + "() {");
+      out.println("  }");
+      out.println();
+      out.println("  /**");
+      out.println("   * @param bean the bean to convert");
+      out.println("   * @return a new map holding the non null fields of bean, null if bean is null");
+      out.println("   */");
+      out.println("  public static org.fissore.steroids.SMap toSMap(" + beanName + " bean) {");
+      out.println("    if (bean == null) {");
+      out.println("      return null;");
+      out.println("    }");
+      out.println("    org.fissore.steroids.SMap map = new org.fissore.steroids.SMap(" + properties.size() + ");");
+      for (Property property : properties) {
+        property.writeToSMap(out);
+      }
+      out.println("    return map;");
+      out.println("  }");
+      out.println();
+      out.println("  /**");
+      out.println("   * @param map the map to convert");
+      out.println("   * @return a new bean holding the values of map, null if map is null");
+      out.println("   */");
+      out.println("  public static " + beanName + " fromSMap(org.fissore.steroids.SteroidMap<String> map) {");
+      out.println("    if (map == null) {");
+      out.println("      return null;");
+      out.println("    }");
+      out.println("    " + beanName + " bean = new " + beanName + "();");
+      if (properties.stream().anyMatch(property -> !property.unboxed())) {
+        out.println("    Object value;");
+      }
+      for (Property property : properties) {
+        property.writeFromSMap(out);
+      }
+      out.println("    return bean;");
+      out.println("  }");
+      out.println();
+      out.println("}");
+    }
+  }
+
+  private boolean checkInstantiable(TypeElement type, PackageElement beanPackage) {
+    if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+      error(type, "@SBean classes can't be abstract");
+      return false;
+    }
+    if (type.getEnclosingElement() instanceof TypeElement && !type.getModifiers().contains(Modifier.STATIC)) {
+      error(type, "Nested @SBean classes must be static");
+      return false;
+    }
+    for (Element enclosing = type; enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+      if (!Sources.accessibleFrom(enclosing, beanPackage)) {
+        error(type, "@SBean classes must be visible from their package");
+        return false;
+      }
+    }
+    for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+      if (constructor.getParameters().isEmpty() && Sources.accessibleFrom(constructor, beanPackage)) {
+        return true;
+      }
+    }
+    error(type, "@SBean classes need a constructor without arguments, visible from their package");
+    return false;
+  }
+
+  /**
+   * Returns the non static, non transient fields of given type, those of superclasses first
+   */
+  private List<VariableElement> fieldsOf(TypeElement type) {
+    Deque<TypeElement> hierarchy = new ArrayDeque<>();
+    for (TypeElement current = type; current != null; current = superclassOf(current)) {
+      hierarchy.push(current);
+    }
+    List<VariableElement> fields = new ArrayList<>();
+    for (TypeElement current : hierarchy) {
+      for (VariableElement field : ElementFilter.fieldsIn(current.getEnclosedElements())) {
+        if (!field.getModifiers().contains(Modifier.STATIC) && !field.getModifiers().contains(Modifier.TRANSIENT)) {
+          fields.add(field);
+        }
+      }
+    }
+    return fields;
+  }
+
+  private static TypeElement superclassOf(TypeElement type) {
+    TypeMirror superclass = type.getSuperclass();
+    if (superclass.getKind() != TypeKind.DECLARED) {
+      return null;
+    }
+    TypeElement element = (TypeElement) ((DeclaredType) superclass).asElement();
+    return element.getQualifiedName().contentEquals("java.lang.Object") ? null : element;
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+  /**
+   * A mapped field, with the expressions reading and writing it
+   */
+  private final class Property {
+
+    private final VariableElement field;
+    private final TypeMirror type;
+    private final String key;
+    private String read;
+    /* the statement writing the field, with %s in place of the value */
+    private String write;
+
+    private Property(VariableElement field) {
+      this.field = field;
+      this.type = field.asType();
+      SBean.Key key = field.getAnnotation(SBean.Key.class);
+      this.key = Sources.literal(key != null ? key.value() : field.getSimpleName().toString());
+    }
+
+    /**
+     * Finds how to read and write this field: directly if visible, through its getter and setter otherwise
+     *
+     * @return false if the field can't be either read or written
+     */
+    private boolean resolve(TypeElement bean, PackageElement beanPackage) {
+      String name = field.getSimpleName().toString();
+      String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+      boolean visible = Sources.accessibleFrom(field, beanPackage);
+      List<ExecutableElement> methods = ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(bean));
+
+      if (visible) {
+        read = "bean." + name;
+      } else {
+        for (ExecutableElement method : methods) {
+          String methodName = method.getSimpleName().toString();
+          boolean getterName = methodName.equals("get" + capitalized) || type.getKind() == TypeKind.BOOLEAN && methodName.equals("is" + capitalized);
+          if (getterName && method.getParameters().isEmpty() && Sources.accessibleFrom(method, beanPackage)
+              && processingEnv.getTypeUtils().isSameType(method.getReturnType(), type)) {
+            read = "bean." + methodName + "()";
+            break;
+          }
+        }
+      }
+
+      if (visible && !field.getModifiers().contains(Modifier.FINAL)) {
+        write = "bean." + name + " = %s;";
+      } else {
+        for (ExecutableElement method : methods) {
+          if (method.getSimpleName().contentEquals("set" + capitalized) && method.getParameters().size() == 1 && Sources.accessibleFrom(method, beanPackage)
+              && processingEnv.getTypeUtils().isSameType(method.getParameters().get(0).asType(), type)) {
+            write = "bean.set" + capitalized + "(%s);";
+            break;
+          }
+        }
+      }
+
+      if (read == null || write == null) {
+        error(field, "Field " + name + " of @SBean classes needs to be visible from the bean package, or to have " + (read == null ? "a getter" : "a setter") + " visible from there");
+        return false;
+      }
+      return true;
+    }
+
+    /**
+     * Returns true if this field is read from maps with an unboxed accessor, such as {@link org.fissore.steroids.SMap#l(String)}
+     */
+    private boolean unboxed() {
+      return accessor() != null;
+    }
+
+    private String accessor() {
+      switch (type.getKind()) {
+        case LONG:
+          return "l";
+        case INT:
+          return "i";
+        case DOUBLE:
+          return "d";
+        case FLOAT:
+          return "f";
+        case BOOLEAN:
+          return "b";
+        default:
+          return null;
+      }
+    }
+
+    private TypeElement nestedBean() {
+      if (type.getKind() != TypeKind.DECLARED) {
+        return null;
+      }
+      TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+      return element.getAnnotation(SBean.class) != null ? element : null;
+    }
+
+    private void writeToSMap(PrintWriter out) {
+      TypeElement nested = nestedBean();
+      if (nested != null) {
+        out.println("    map.add(" + key + ", " + Sources.qualifiedGeneratedName(nested, SUFFIX) + ".toSMap(" + read + "));");
+      } else {
+        out.println("    map.add(" + key + ", " + read + ");");
+      }
+    }
+
+    private void writeFromSMap(PrintWriter out) {
+      TypeElement nested = nestedBean();
+      if (unboxed()) {
+        out.println("    if (map.valued(" + key + ")) {");
+        out.println("      " + String.format(write, "map." + accessor() + "(" + key + ")"));
+        out.println("    }");
+        return;
+      }
+      out.println("    value = map.get(" + key + ");");
+      out.println("    if (value != null) {");
+      if (nested != null) {
+        out.println("      " + String.format(write, Sources.qualifiedGeneratedName(nested, SUFFIX) + ".fromSMap(map.map(" + key + "))"));
+      } else if (type.getKind() == TypeKind.BYTE || type.getKind() == TypeKind.SHORT) {
+        /* maps read by JsonReader, or decoded from values written as ints, hold Integers: any Number is narrowed */
+        out.println("      " + String.format(write, "((Number) value)." + type + "Value()"));
+      } else {
+        TypeMirror castType = type.getKind().isPrimitive() ? processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).asType() : type;
+        out.println("      " + String.format(write, "(" + castType + ") value"));
+      }
+      out.println("    }");
+    }
+
+  }
+
+}
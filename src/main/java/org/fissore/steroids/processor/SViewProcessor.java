@@ -0,0 +1,200 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids.processor;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+
+import org.fissore.steroids.SView;
+
+/**
+ * Generates the classes implementing {@link SView} interfaces. Each getter becomes a direct lookup on the wrapped {@link org.fissore.steroids.SMap}:
+ * <code>long age()</code> becomes <code>return map.l("age");</code>.
+ * <p>
+ * It's registered as a service, so <code>javac</code> runs it as soon as steroidmap is on the classpath
+ */
+@SupportedAnnotationTypes({"org.fissore.steroids.SView", "org.fissore.steroids.SView.Key"})
+public class SViewProcessor extends AbstractProcessor {
+
+  static final String SUFFIX = "View";
+
+  @Override
+  public SourceVersion getSupportedSourceVersion() {
+    return SourceVersion.latestSupported();
+  }
+
+  @Override
+  public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+    for (Element element : roundEnv.getElementsAnnotatedWith(SView.class)) {
+      if (element.getKind() != ElementKind.INTERFACE) {
+        error(element, "@SView can only be used on interfaces");
+        continue;
+      }
+      TypeElement type = (TypeElement) element;
+      if (!type.getTypeParameters().isEmpty()) {
+        error(element, "@SView interfaces can't have type parameters");
+        continue;
+      }
+      try {
+        generate(type);
+      } catch (IOException e) {
+        error(element, "Unable to write the view of " + type + ": " + e.getMessage());
+      }
+    }
+    return true;
+  }
+
+  private void generate(TypeElement type) throws IOException {
+    List<ExecutableElement> getters = new ArrayList<>();
+    for (ExecutableElement method : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+      if (!method.getModifiers().contains(Modifier.ABSTRACT) || Sources.isObjectMethod(method)) {
+        continue;
+      }
+      if (!method.getParameters().isEmpty() || method.getReturnType().getKind() == TypeKind.VOID || !method.getTypeParameters().isEmpty()) {
+        error(method, "@SView interfaces can only have getters: " + method + " takes parameters, returns void or is generic");
+        return;
+      }
+      getters.add(method);
+    }
+
+    String packageName = Sources.packageOf(type).getQualifiedName().toString();
+    String viewName = Sources.generatedName(type, SUFFIX);
+    String qualifiedName = Sources.qualifiedGeneratedName(type, SUFFIX);
+    String interfaceName = type.getQualifiedName().toString();
+
+    try (PrintWriter out = new PrintWriter(processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter())) {
+      if (!packageName.isEmpty()) {
+        out.println("package " + packageName + ";");
+        out.println();
+      }
+      out.println("/**");
+      out.println(" * {@link " + interfaceName + "} reading its values from an {@link org.fissore.steroids.SMap}. Generated by " + SViewProcessor.class.getName());
+      out.println(" */");
+      out.println("@SuppressWarnings({\"unchecked\", \"rawtypes\"})");
+      out.println((type.getModifiers().contains(Modifier.PUBLIC) ? "public " : "") + "final class " + viewName + " implements " + interfaceName + " {");
+      out.println();
+      out.println("  private final org.fissore.steroids.SMap map;");
+      out.println();
+      out.println("  /**");
+      out.println("   * @param map the map to read values from");
+      out.println("   */");
+      out.println("  public " + viewName + "(org.fissore.steroids.SMap map) {");
+      out.println("    this.map = java.util.Objects.requireNonNull(map);");
+      out.println("  }");
+      for (ExecutableElement getter : getters) {
+        out.println();
+        out.println("  @Override");
+        out.println("  public " + getter.getReturnType() + " " + getter.getSimpleName() + "() {");
+        writeGetter(out, getter);
+        out.println("  }");
+      }
+      out.println();
+      out.println("  @Override");
+      out.println("  public boolean equals(Object o) {");
+      out.println("    return o instanceof " + viewName + " && map.equals(((" + viewName + ") o).map);");
+      out.println("  }");
+      out.println();
+      out.println("  @Override");
+      out.println("  public int hashCode() {");
+      out.println("    return map.hashCode();");
+      out.println("  }");
+      out.println();
+      out.println("  @Override");
+      out.println("  public String toString() {");
+      out.println("    return map.toString();");
+      out.println("  }");
+      out.println();
+      out.println("}");
+    }
+  }
+
+  private void writeGetter(PrintWriter out, ExecutableElement getter) {
+    String key = Sources.literal(keyOf(getter));
+    TypeMirror returnType = getter.getReturnType();
+    switch (returnType.getKind()) {
+      case LONG:
+        out.println("    return map.l(" + key + ");");
+        return;
+      case INT:
+        out.println("    return map.i(" + key + ");");
+        return;
+      case DOUBLE:
+        out.println("    return map.d(" + key + ");");
+        return;
+      case FLOAT:
+        out.println("    return map.f(" + key + ");");
+        return;
+      case BOOLEAN:
+        out.println("    return map.b(" + key + ");");
+        return;
+      case DECLARED:
+        TypeElement returned = (TypeElement) ((DeclaredType) returnType).asElement();
+        if (returned.getQualifiedName().contentEquals("java.lang.String")) {
+          out.println("    return map.s(" + key + ");");
+          return;
+        }
+        if (returned.getAnnotation(SView.class) != null) {
+          out.println("    org.fissore.steroids.SMap nested = map.map(" + key + ");");
+          out.println("    return nested == null ? null : new " + Sources.qualifiedGeneratedName(returned, SUFFIX) + "(nested);");
+          return;
+        }
+        out.println("    return (" + processingEnv.getTypeUtils().erasure(returnType) + ") map.get(" + key + ");");
+        return;
+      default:
+        out.println("    return (" + returnType + ") map.get(" + key + ");");
+    }
+  }
+
+  /**
+   * Returns the key read by given getter: the value of {@link SView.Key}, if present, otherwise the name of the getter without <code>get</code>/<code>is</code> prefix
+   */
+  static String keyOf(ExecutableElement getter) {
+    SView.Key key = getter.getAnnotation(SView.Key.class);
+    if (key != null) {
+      return key.value();
+    }
+    String name = getter.getSimpleName().toString();
+    for (String prefix : new String[]{"get", "is"}) {
+      if (name.length() > prefix.length() && name.startsWith(prefix) && Character.isUpperCase(name.charAt(prefix.length()))) {
+        return Character.toLowerCase(name.charAt(prefix.length())) + name.substring(prefix.length() + 1);
+      }
+    }
+    return name;
+  }
+
+  private void error(Element element, String message) {
+    processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, message, element);
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids.processor;
+
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+
+/**
+ * Helpers shared by the processors to name and write generated sources
+ */
+final class Sources {
+
+  private Sources() {
+  }
+
+  /**
+   * Returns the simple name of the class generated for given type: nested types are prefixed with the names of their enclosing types
+   */
+  static String generatedName(TypeElement type, String suffix) {
+    StringBuilder name = new StringBuilder(type.getSimpleName());
+    for (Element enclosing = type.getEnclosingElement(); enclosing instanceof TypeElement; enclosing = enclosing.getEnclosingElement()) {
+      name.insert(0, enclosing.getSimpleName() + "_");
+    }
+    return name.append(suffix).toString();
+  }
+
+  static String qualifiedGeneratedName(TypeElement type, String suffix) {
+    String packageName = packageOf(type).getQualifiedName().toString();
+    return packageName.isEmpty() ? generatedName(type, suffix) : packageName + "." + generatedName(type, suffix);
+  }
+
+  static PackageElement packageOf(Element element) {
+    while (!(element instanceof PackageElement)) {
+      element = element.getEnclosingElement();
+    }
+    return (PackageElement) element;
+  }
+
+  /**
+   * Returns true if given element can be used by a class generated in given package
+   */
+  static boolean accessibleFrom(Element element, PackageElement from) {
+    if (element.getModifiers().contains(Modifier.PUBLIC)) {
+      return true;
+    }
+    return !element.getModifiers().contains(Modifier.PRIVATE) && packageOf(element).equals(from);
+  }
+
+  /**
+   * Returns true for equals, hashCode and toString
+   */
+  static boolean isObjectMethod(ExecutableElement method) {
+    String name = method.getSimpleName().toString();
+    int parameters = method.getParameters().size();
+    return parameters == 0 && (name.equals("hashCode") || name.equals("toString")) || parameters == 1 && name.equals("equals");
+  }
+
+  /**
+   * Returns the Java literal of given string. Chars other than printable ASCII are written as unicode escapes, except line terminators, which would end the literal
+   */
+  static String literal(String value) {
+    StringBuilder literal = new StringBuilder("\"");
+    for (char c : value.toCharArray()) {
+      switch (c) {
+        case '"':
+          literal.append("\\\"");
+          break;
+        case '\\':
+          literal.append("\\\\");
+          break;
+        case '\n':
+          literal.append("\\n");
+          break;
+        case '\r':
+          literal.append("\\r");
+          break;
+        default:
+          if (c < 0x20 || c > 0x7E) {
+            literal.append(String.format("\\u%04x", (int) c));
+          } else {
+            literal.append(c);
+          }
+      }
+    }
+    return literal.append('"').toString();
+  }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * The JFR events of steroidmap, used through {@link Events} only: this class is loaded only when JFR is available.
+ * It's compiled apart from the rest of the library, for Java 11, as jdk.jfr is missing from Java 8.
+ * Events are enabled by default with a 10 ms threshold, which recording settings can lower, e.g. <code>org.fissore.steroids.Copy#threshold=0 ms</code>
+ */
+final class JfrEvents implements Events.Recorder {
+
+  private static final SteroidMapEvent[] PROBES = {new CopyEvent(), new AddAllEvent(), new SubMapEvent(), new RenameKeyEvent(), new ReflectiveFactoryEvent(), new MonitorWaitEvent()};
+
+  @Override
+  public Object begin(int type) {
+    if (!PROBES[type].isEnabled()) {
+      return null;
+    }
+    SteroidMapEvent event = newEvent(type);
+    event.begin();
+    return event;
+  }
+
+  private static SteroidMapEvent newEvent(int type) {
+    switch (type) {
+      case Events.COPY:
+        return new CopyEvent();
+      case Events.ADD_ALL:
+        return new AddAllEvent();
+      case Events.SUB_MAP:
+        return new SubMapEvent();
+      case Events.RENAME_KEY:
+        return new RenameKeyEvent();
+      case Events.REFLECTIVE_FACTORY:
+        return new ReflectiveFactoryEvent();
+      case Events.MONITOR_WAIT:
+        return new MonitorWaitEvent();
+      default:
+        throw new IllegalArgumentException("Unknown event type " + type);
+    }
+  }
+
+  @Override
+  public void end(Object started, Map<?, ?> map) {
+    SteroidMapEvent event = (SteroidMapEvent) started;
+    event.end();
+    if (event.shouldCommit()) {
+      event.mapClass = map instanceof SMap ? ((SMap) map).backingMapClass() : map.getClass();
+      event.size = map.size();
+      event.commit();
+    }
+  }
+
+  @Category("SteroidMap")
+  @StackTrace
+  @Threshold("10 ms")
+  abstract static class SteroidMapEvent extends Event {
+
+    @Label("Map Class")
+    @Description("The class of the map, the class of the backing map for SMaps")
+    Class<?> mapClass;
+
+    @Label("Size")
+    @Description("The number of mappings of the map, once the operation is done")
+    int size;
+
+  }
+
+  @Name("org.fissore.steroids.Copy")
+  @Label("Map Copy")
+  @Description("A map copied to a new one")
+  static final class CopyEvent extends SteroidMapEvent {
+  }
+
+  @Name("org.fissore.steroids.AddAll")
+  @Label("Map Add All")
+  @Description("Mappings of other maps added to a map")
+  static final class AddAllEvent extends SteroidMapEvent {
+  }
+
+  @Name("org.fissore.steroids.SubMap")
+  @Label("Sub Map")
+  @Description("Some keys of a map copied to a new map")
+  static final class SubMapEvent extends SteroidMapEvent {
+  }
+
+  @Name("org.fissore.steroids.RenameKey")
+  @Label("Key Rename")
+  @Description("A key of a map renamed")
+  static final class RenameKeyEvent extends SteroidMapEvent {
+  }
+
+  @Name("org.fissore.steroids.ReflectiveFactory")
+  @Label("Reflective Map Creation")
+  @Description("A backing map created with reflection, as its class is unknown and no map factory was provided")
+  static final class ReflectiveFactoryEvent extends SteroidMapEvent {
+  }
+
+  @Name("org.fissore.steroids.MonitorWait")
+  @Label("Map Monitor Wait")
+  @Description("Time spent waiting to enter a block synchronized on a map by a bulk operation, such as addAll or renameKey")
+  static final class MonitorWaitEvent extends SteroidMapEvent {
+  }
+
+}
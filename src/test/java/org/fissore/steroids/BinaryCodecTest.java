@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BinaryCodecTest {
+
+  private final BinaryEncoder encoder = new BinaryEncoder();
+  private final BinaryDecoder decoder = new BinaryDecoder();
+
+  private SMap person(String name, int age) {
+    return new SMap()
+        .add("name", name)
+        .add("age", age)
+        .add("born", new Date(1500000000000L - age))
+        .add("height", 1.82d)
+        .add("weight", 80.5f)
+        .add("married", age % 2 == 0)
+        .add("id", Long.MAX_VALUE - age)
+        .add("address", new SMap().add("streetname", "Via Roma ✓ 😀").add("number", -1))
+        .add("tags", Arrays.asList("a", 1, null, Collections.emptyList()))
+        .add("avatar", new byte[]{1, 2, 3});
+  }
+
+  private Object roundTrip(Object value) {
+    return decoder.decode(ByteBuffer.wrap(encoder.encode(value)));
+  }
+
+  private static void assertMapEquals(SMap expected, SMap actual) {
+    assertArrayEquals(expected.<byte[]>o("avatar"), actual.o("avatar"));
+    assertEquals(expected.copy().del("avatar"), actual.copy().del("avatar"));
+  }
+
+  @Test
+  public void shouldRoundTripMaps() {
+    SMap person = person("John", 42);
+    SMap decoded = (SMap) roundTrip(person);
+    assertMapEquals(person, decoded);
+    assertEquals(Integer.class, decoded.get("age").getClass());
+    assertEquals(Long.class, decoded.get("id").getClass());
+    assertEquals(Float.class, decoded.get("weight").getClass());
+  }
+
+  @Test
+  public void shouldRoundTripValues() {
+    for (Object value : Arrays.asList(null, true, false, 0, -1, Integer.MIN_VALUE, Integer.MAX_VALUE, 0L, Long.MIN_VALUE, Long.MAX_VALUE,
+        Double.NaN, -0.5d, Float.MAX_VALUE, "", "caffè", new Date(-1), 'a', '✓', BigInteger.ZERO, BigInteger.ONE.shiftLeft(100).negate(),
+        new BigDecimal("-123.456"), new BigDecimal("1E+20"))) {
+      assertEquals(value, roundTrip(value));
+    }
+    assertEquals((short) 7, roundTrip((short) 7));
+    assertEquals(Arrays.asList(1, "a"), roundTrip(new Object[]{1, "a"}));
+  }
+
+  @Test
+  public void shouldRoundTripParsedBigNumbers() {
+    SMap parsed = new JsonReader().readMap("{\"big\": 123456789012345678901234567890, \"values\": [1, 2]}".getBytes(StandardCharsets.UTF_8));
+    assertEquals(new BigInteger("123456789012345678901234567890"), parsed.get("big"));
+    assertEquals(parsed, roundTrip(parsed));
+  }
+
+  @Test
+  public void shouldRoundTripLargeMapsAndLists() {
+    SMap map = new SMap();
+    for (int i = 0; i < 20000; i++) {
+      map.add("key" + i, i);
+    }
+    List<Object> list = Collections.nCopies(300, "value");
+    SMap nested = new SMap("map", map, "list", list);
+
+    assertEquals(nested, roundTrip(nested));
+    ByteBuffer direct = ByteBuffer.allocateDirect(1 << 20);
+    encoder.encode(nested, direct);
+    direct.flip();
+    assertEquals(nested, decoder.decode(direct));
+
+    assertEquals(list, roundTrip(new ConcurrentLinkedQueue<>(list)));
+    assertEquals(map, roundTrip(new ConcurrentHashMap<>(map)));
+  }
+
+  @Test
+  public void shouldRoundTripShortsAndBytes() {
+    for (Object value : Arrays.asList((short) 0, Short.MIN_VALUE, Short.MAX_VALUE, (byte) 0, Byte.MIN_VALUE, Byte.MAX_VALUE)) {
+      Object decoded = roundTrip(value);
+      assertEquals(value, decoded);
+      assertEquals(value.getClass(), decoded.getClass());
+    }
+    assertEquals(2, encoder.encode((byte) -1).length);
+  }
+
+  @Test
+  public void shouldWriteSizesFirst() {
+    SMap map = new SMap();
+    for (int i = 0; i < 200; i++) {
+      map.add("k" + i, i);
+    }
+    byte[] bytes = encoder.encode(map);
+    assertEquals(BinaryFormat.MAP, bytes[0]);
+    assertEquals((byte) (0x80 | (200 & 0x7F)), bytes[1]);
+    assertEquals(200 >>> 7, bytes[2]);
+  }
+
+  @Test(expected = ConcurrentModificationException.class)
+  public void shouldFailOnMapsChangingWhileWritten() {
+    Map<String, Object> map = new HashMap<String, Object>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public Set<Map.Entry<String, Object>> entrySet() {
+        // a removal, once the size is already written
+        remove("b");
+        return super.entrySet();
+      }
+    };
+    map.put("a", 1);
+    map.put("b", 2);
+    encoder.encode(Collections.singletonList(map));
+  }
+
+  @Test
+  public void shouldWriteTheEntriesActuallyWritten() {
+    Map<String, Object> map = new ConcurrentHashMap<String, Object>() {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public Set<Map.Entry<String, Object>> entrySet() {
+        // a concurrent removal, once the map is already being written
+        remove("b");
+        return super.entrySet();
+      }
+    };
+    map.put("a", 1);
+    map.put("b", 2);
+
+    assertEquals(new SMap("a", 1), roundTrip(map));
+  }
+
+  @Test
+  public void shouldWriteKeysOnce() {
+    ByteBuffer buffer = ByteBuffer.allocate(4096);
+    encoder.encode(person("John", 42), buffer);
+    int first = buffer.position();
+    encoder.encode(person("Jane", 41), buffer);
+    int second = buffer.position() - first;
+    assertTrue(first + " " + second, second < first - 50);
+    assertEquals(12, encoder.keys().size());
+
+    buffer.flip();
+    assertMapEquals(person("John", 42), decoder.decodeMap(buffer));
+    assertMapEquals(person("Jane", 41), decoder.decodeMap(buffer));
+    assertFalse(buffer.hasRemaining());
+  }
+
+  @Test
+  public void shouldBeCompact() {
+    assertEquals(2, encoder.encode(1).length);
+    assertEquals(2, encoder.encode(-1L).length);
+    assertEquals(3, encoder.encode(200).length);
+    assertEquals(3, encoder.encode("a").length);
+  }
+
+  @Test
+  public void shouldDecodeFromDirectBuffers() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(4096);
+    encoder.encode(person("John", 42), buffer);
+    buffer.flip();
+    assertMapEquals(person("John", 42), decoder.decodeMap(buffer));
+  }
+
+  @Test
+  public void shouldRollBackOnOverflow() {
+    ByteBuffer buffer = ByteBuffer.allocate(64);
+    buffer.put((byte) 1);
+    try {
+      encoder.encode(person("John", 42), buffer);
+      fail();
+    } catch (BufferOverflowException e) {
+      assertEquals(1, buffer.position());
+      assertTrue(encoder.keys().isEmpty());
+    }
+    assertMapEquals(person("John", 42), (SMap) roundTrip(person("John", 42)));
+  }
+
+  @Test
+  public void shouldReset() {
+    encoder.encode(person("John", 42));
+    encoder.reset();
+    assertMapEquals(person("Jane", 41), (SMap) roundTrip(person("Jane", 41)));
+  }
+
+  @Test
+  public void shouldWriteManyKeysAsLiterals() {
+    Map<String, Object> map = new HashMap<>();
+    for (int i = 0; i < BinaryFormat.MAX_KEYS + 10; i++) {
+      map.put(String.valueOf(i), i);
+    }
+    map.put(String.join("", Collections.nCopies(200, "k")), "long");
+    SMap decoded = (SMap) roundTrip(map);
+    assertEquals(map, decoded);
+    assertEquals(BinaryFormat.MAX_KEYS, encoder.keys().size());
+    assertEquals(map, roundTrip(map));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailOnUnsupportedValues() {
+    encoder.encode(new SMap().add("thread", Thread.currentThread()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailOnNonStringKeys() {
+    encoder.encode(Collections.singletonMap(1, "a"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailOnUnknownKeys() {
+    encoder.encode(person("John", 42));
+    decoder.decode(encoder.encode(person("Jane", 41)));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailOnTooManyKeyDefinitions() {
+    ByteBuffer buffer = ByteBuffer.allocate(BinaryFormat.MAX_KEYS * 16);
+    buffer.put(BinaryFormat.MAP);
+    int size = BinaryFormat.MAX_KEYS + 1;
+    buffer.put((byte) (0x80 | (size & 0x7F))).put((byte) (0x80 | ((size >>> 7) & 0x7F))).put((byte) (size >>> 14));
+    for (int i = 0; i < size; i++) {
+      byte[] key = String.valueOf(i).getBytes(StandardCharsets.UTF_8);
+      buffer.put(BinaryFormat.KEY_DEF).put((byte) key.length).put(key).put(BinaryFormat.NULL);
+    }
+    buffer.flip();
+    decoder.decode(buffer);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailOnInvalidTags() {
+    decoder.decode(new byte[]{99});
+  }
+
+}
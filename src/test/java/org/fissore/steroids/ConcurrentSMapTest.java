@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentSMapTest {
+
+  private ConcurrentSMap map;
+
+  @Before
+  public void setUp() {
+    map = new ConcurrentSMap();
+    map
+        .add("key1", "string1")
+        .add("long", 1L)
+        .add("maps", Arrays.asList(new SMap("key", "value1"), Collections.singletonMap("key", "value2")));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldAddRenameAndDelete() {
+    Map<String, Object> other = new HashMap<>();
+    other.put("one", 1);
+    other.put("two", 2);
+
+    map.addAll(other).addFrom(other, "one").renameKey("key1", "key2").renameKey("nonexistent", "whatever").del("one");
+
+    assertTrue(map.notValued("key1"));
+    assertEquals("string1", map.s("key2"));
+    assertTrue(map.notValued("one"));
+    assertEquals(2, map.i("two"));
+    assertTrue(map.notValued("whatever"));
+  }
+
+  @Test
+  public void shouldReturnDefaultValues() {
+    assertEquals(1L, map.l("long", 2L));
+    assertEquals(2L, map.l("nonexistent", 2L));
+    assertEquals(3, map.i("nonexistent", 3));
+    assertEquals(4d, map.d("nonexistent", 4d), 0d);
+    assertEquals(5f, map.f("nonexistent", 5f), 0f);
+    assertTrue(map.b("nonexistent", true));
+    assertEquals("string1", map.s("key1", "default"));
+    assertEquals("default", map.s("nonexistent", "default"));
+    assertEquals("default", map.o("nonexistent", "default"));
+    assertEquals("STRING1", map.o("key1", v -> ((String) v).toUpperCase(), "default"));
+    assertNull(map.date("nonexistent", null));
+    assertEquals(Collections.emptyList(), map.list("nonexistent", Collections.emptyList()));
+    assertEquals(0, map.stream("nonexistent", Stream.empty()).count());
+  }
+
+  @Test
+  public void shouldReturnMaps() {
+    List<String> values = map.maps("maps").map(m -> m.s("key")).collect(Collectors.toList());
+    assertEquals(Arrays.asList("value1", "value2"), values);
+    assertEquals(0, map.maps("nonexistent").count());
+    assertEquals(1, map.maps("nonexistent", Stream.of(new SMap())).count());
+  }
+
+  @Test
+  public void shouldCopyIntoAConcurrentSMap() {
+    SMap copy = map.copy();
+    assertTrue(copy instanceof ConcurrentSMap);
+    assertEquals(map, copy);
+  }
+
+  @Test
+  public void shouldNotSynchronizeOnThisInstance() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      synchronized (map) {
+        Future<?> future = executor.submit(() -> map
+            .addAll(Stream.of(Collections.singletonMap("one", 1)))
+            .renameKey("one", "uno")
+            .del(Stream.of("key1"))
+            .l("long", 0L));
+        future.get(5, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(1, map.i("uno"));
+  }
+
+  @Test
+  public void shouldNotLoseValuesWhenRenamingConcurrently() throws Exception {
+    int threads = 4;
+    int keys = 1000;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      for (int k = 0; k < keys; k++) {
+        map.add("key" + k, k);
+      }
+      CountDownLatch start = new CountDownLatch(1);
+      List<Future<?>> futures = Stream.iterate(0, t -> t + 1).limit(threads)
+          .map(t -> executor.submit(() -> {
+            start.await();
+            for (int k = t; k < keys; k += threads) {
+              map.renameKey("key" + k, "renamed" + k);
+            }
+            return null;
+          }))
+          .collect(Collectors.toList());
+      start.countDown();
+      for (Future<?> future : futures) {
+        future.get(10, TimeUnit.SECONDS);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    for (int k = 0; k < keys; k++) {
+      assertTrue(map.notValued("key" + k));
+      assertEquals(k, map.i("renamed" + k));
+    }
+  }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DeepCopyTest {
+
+  private SMap template;
+
+  @Before
+  public void setUp() {
+    Map<String, Object> geo = new HashMap<>();
+    geo.put("latitude", 45.07d);
+    template = new SMap()
+        .add("name", "John")
+        .add("address", new SMap()
+            .add("streetname", "One way")
+            .add("geo", geo))
+        .add("friends", Arrays.asList(
+            new SMap("name", "Jane", "surname", "Doe"),
+            new SMap("name", "John", "surname", "Doe")))
+        .add("tags", new ArrayList<>(Arrays.asList("one", "two")));
+  }
+
+  private SMap expected() {
+    SMap expected = new SMap();
+    expected.putAll(template);
+    return expected;
+  }
+
+  @Test
+  public void shouldReadLikeTheOriginal() {
+    SMap copy = template.deepCopy();
+    assertEquals(template, copy);
+    assertEquals(copy, template);
+    assertEquals(template.hashCode(), copy.hashCode());
+    assertEquals("One way", copy.map("address").s("streetname"));
+    assertEquals(45.07d, copy.map("address").map("geo").d("latitude"), 0d);
+    assertEquals(Arrays.asList("Jane", "John"), copy.maps("friends").map(f -> f.s("name")).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void shouldNotModifyTheOriginal() {
+    String before = template.toString();
+
+    SMap copy = template.deepCopy();
+    copy.add("name", "Joe");
+    copy.map("address").map("geo").add("latitude", 0d).add("longitude", 7.68d);
+    copy.maps("friends").forEach(friend -> friend.renameKey("surname", "lastname"));
+    copy.list("tags").add("three");
+    copy.<SMap>list("friends").remove(0);
+
+    assertEquals(before, template.toString());
+    assertEquals("John", template.s("name"));
+    assertEquals(45.07d, template.map("address").map("geo").d("latitude"), 0d);
+    assertTrue(template.map("address").map("geo").notValued("longitude"));
+    assertEquals(2, template.list("friends").size());
+    assertEquals("Doe", template.maps("friends").findFirst().get().s("surname"));
+    assertEquals(Arrays.asList("one", "two"), template.list("tags"));
+
+    assertEquals("Joe", copy.s("name"));
+    assertEquals(0d, copy.map("address").map("geo").d("latitude"), 0d);
+    assertEquals(7.68d, copy.map("address").map("geo").d("longitude"), 0d);
+    assertEquals("One way", copy.map("address").s("streetname"));
+    assertEquals(1, copy.list("friends").size());
+    assertEquals("Doe", copy.maps("friends").findFirst().get().s("lastname"));
+    assertTrue(copy.maps("friends").findFirst().get().notValued("surname"));
+    assertEquals(Arrays.asList("one", "two", "three"), copy.list("tags"));
+  }
+
+  @Test
+  public void shouldKeepChangesMadeBeforeAndAfterCopyingTheParent() {
+    SMap copy = template.deepCopy();
+    copy.map("address").add("number", 1);
+    copy.add("surname", "Smith");
+    copy.map("address").add("zip", "10100");
+
+    assertEquals(1, copy.map("address").i("number"));
+    assertEquals("10100", copy.map("address").s("zip"));
+    assertEquals("Smith", copy.s("surname"));
+    assertTrue(template.map("address").notValued("number"));
+    assertTrue(template.notValued("surname"));
+  }
+
+  @Test
+  public void shouldIterateAndRemoveThroughTheCopy() {
+    SMap copy = template.deepCopy();
+    Iterator<Map.Entry<String, Object>> it = copy.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, Object> entry = it.next();
+      if (entry.getKey().equals("tags")) {
+        it.remove();
+      } else if (entry.getKey().equals("name")) {
+        entry.setValue("Joe");
+      }
+    }
+
+    assertEquals(3, copy.size());
+    assertTrue(copy.notValued("tags"));
+    assertEquals("Joe", copy.s("name"));
+    assertEquals(expected(), template);
+    assertEquals(4, template.size());
+  }
+
+  @Test
+  public void shouldReturnValuesPutIntoTheCopy() {
+    List<Object> tags = new ArrayList<>();
+    Map<String, Object> geo = new HashMap<>();
+
+    SMap copy = template.deepCopy();
+    copy.put("tags", tags);
+    copy.list("tags").add("one");
+    copy.map("address").put("geo", geo);
+    copy.map("address").map("geo").add("latitude", 0d);
+
+    assertSame(tags, copy.get("tags"));
+    assertEquals(Collections.singletonList("one"), tags);
+    assertSame(geo, copy.map("address").get("geo"));
+    assertEquals(Collections.singletonMap("latitude", 0d), geo);
+
+    copy.<Object>list("friends").add(tags);
+    assertSame(tags, copy.list("friends").get(2));
+  }
+
+  @Test
+  public void shouldKeepTheTypeOfNestedSteroidMaps() {
+    template.add("settings", PersistentSMap.empty().add("theme", "dark"));
+    template.add("groups", PersistentSMap.empty().add("admins", new ArrayList<>(Arrays.asList("root"))));
+
+    SMap copy = template.deepCopy();
+    assertSame(template.get("settings"), copy.get("settings"));
+    assertTrue(copy.get("address") instanceof SMap);
+    copy.add("name", "Joe");
+    assertSame(template.get("settings"), copy.get("settings"));
+    assertTrue(copy.get("address") instanceof SMap);
+    assertTrue(copy.get("groups") instanceof PersistentSMap);
+
+    copy.map("groups").list("admins").add("joe");
+    copy.map("address").add("number", 1);
+    assertEquals(Arrays.asList("root", "joe"), copy.map("groups").list("admins"));
+    assertEquals(Collections.singletonList("root"), template.map("groups").list("admins"));
+    assertTrue(template.map("address").notValued("number"));
+  }
+
+  @Test
+  public void shouldDeepCopyADeepCopy() {
+    SMap copy = template.deepCopy();
+    copy.map("address").add("number", 1);
+    SMap copyOfCopy = copy.deepCopy();
+    copyOfCopy.map("address").add("number", 2);
+
+    assertEquals(1, copy.map("address").i("number"));
+    assertEquals(2, copyOfCopy.map("address").i("number"));
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EventsTest {
+
+  private static final List<String> EVENTS = Arrays.asList(
+      "org.fissore.steroids.Copy",
+      "org.fissore.steroids.AddAll",
+      "org.fissore.steroids.SubMap",
+      "org.fissore.steroids.RenameKey",
+      "org.fissore.steroids.ReflectiveFactory",
+      "org.fissore.steroids.MonitorWait"
+  );
+
+  @Test
+  public void shouldNotBeginEventsWithoutRecordings() {
+    assertNull(Events.begin(Events.COPY));
+    Events.end(null, new SMap());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldRecordEvents() throws IOException {
+    List<RecordedEvent> events = record(() -> {
+      SMap map = new SMap(new IdentityHashMap<>()).add("name", "John").add("surname", "Doe");
+      map.copy();
+      map.subMap("name");
+      map.renameKey("surname", "lastName");
+      new SMap().addAll(Collections.singletonMap("a", 1));
+    });
+
+    Map<String, List<RecordedEvent>> byName = events.stream().collect(Collectors.groupingBy(event -> event.getEventType().getName()));
+    assertTrue(byName.keySet().toString(), byName.keySet().containsAll(EVENTS));
+
+    RecordedEvent copy = byName.get("org.fissore.steroids.Copy").get(0);
+    assertEquals(IdentityHashMap.class.getName(), copy.getClass("mapClass").getName());
+    assertEquals(2, copy.getInt("size"));
+    assertNotNull(copy.getStackTrace());
+
+    RecordedEvent subMap = byName.get("org.fissore.steroids.SubMap").get(0);
+    assertEquals(1, subMap.getInt("size"));
+
+    RecordedEvent reflective = byName.get("org.fissore.steroids.ReflectiveFactory").get(0);
+    assertEquals(IdentityHashMap.class.getName(), reflective.getClass("mapClass").getName());
+
+    assertTrue(byName.get("org.fissore.steroids.AddAll").stream()
+        .anyMatch(event -> event.getClass("mapClass").getName().equals(HashMap.class.getName()) && event.getInt("size") == 1));
+  }
+
+  @Test
+  public void shouldNotRecordEventsOfAccessors() throws IOException {
+    SMap map = new SMap().add("a", 1L);
+    List<RecordedEvent> events = record(() -> {
+      map.l("a", 0L);
+      map.i("missing", 0);
+      map.defaultIfMissing("missing", "none", key -> "some");
+    });
+    assertEquals(Collections.emptyList(), events);
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldRecordEventsOfConcurrentMaps() throws IOException {
+    List<RecordedEvent> events = record(() -> new ConcurrentSMap().add("a", 1).renameKey("a", "b").addAll(Collections.singletonMap("c", 2)).copy());
+
+    List<String> names = events.stream().map(event -> event.getEventType().getName()).collect(Collectors.toList());
+    assertTrue(names.contains("org.fissore.steroids.Copy"));
+    assertTrue(names.contains("org.fissore.steroids.RenameKey"));
+    assertTrue(names.contains("org.fissore.steroids.AddAll"));
+    assertFalse(names.contains("org.fissore.steroids.MonitorWait"));
+  }
+
+  private static List<RecordedEvent> record(Runnable runnable) throws IOException {
+    Path file = Files.createTempFile("steroidmap", ".jfr");
+    try (Recording recording = new Recording()) {
+      EVENTS.forEach(name -> recording.enable(name).withoutThreshold().withStackTrace());
+      recording.start();
+      runnable.run();
+      recording.stop();
+      recording.dump(file);
+      return RecordingFile.readAllEvents(file).stream()
+          .filter(event -> EVENTS.contains(event.getEventType().getName()))
+          .collect(Collectors.toList());
+    } finally {
+      Files.deleteIfExists(file);
+    }
+  }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JsonReaderTest {
+
+  private static final String PERSON = "{\"name\": \"John\", \"age\": 42, \"height\": 1.82, \"married\": true, \"pet\": null,\n" +
+      "  \"address\": {\"streetname\": \"One way\", \"number\": 1},\n" +
+      "  \"friends\": [{\"name\": \"Jane\"}, {\"name\": \"Joe\"}], \"tags\": []}";
+
+  private final JsonReader reader = new JsonReader();
+
+  private static byte[] bytes(String json) {
+    return json.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void assertPerson(SMap person) {
+    assertEquals("John", person.s("name"));
+    assertEquals(42, person.i("age"));
+    assertEquals(1.82d, person.d("height"), 0);
+    assertTrue(person.b("married"));
+    assertFalse(person.containsKey("pet"));
+    assertEquals("One way", person.map("address").s("streetname"));
+    assertEquals(1, person.map("address").i("number"));
+    assertEquals(Arrays.asList("Jane", "Joe"), person.maps("friends").map(friend -> friend.s("name")).collect(Collectors.toList()));
+    assertEquals(Collections.emptyList(), person.list("tags"));
+  }
+
+  @Test
+  public void shouldReadFromBytes() {
+    assertPerson(reader.readMap(bytes(PERSON)));
+  }
+
+  @Test
+  public void shouldReadFromInputStream() {
+    assertPerson(reader.readMap(new ByteArrayInputStream(bytes(PERSON))));
+  }
+
+  @Test
+  public void shouldReadFromByteBuffers() {
+    ByteBuffer heap = ByteBuffer.wrap(bytes("xx" + PERSON + "yy"));
+    heap.position(2).limit(heap.limit() - 2);
+    assertPerson(reader.readMap(heap));
+    assertEquals(2, heap.position());
+
+    byte[] bytes = bytes(PERSON);
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    assertPerson(reader.readMap(direct));
+    assertEquals(0, direct.position());
+  }
+
+  @Test
+  public void shouldReadLargeInputs() {
+    StringBuilder json = new StringBuilder("[");
+    for (int i = 0; i < 10000; i++) {
+      json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"name ").append(i).append("\"}");
+    }
+    json.append("]");
+
+    List<?> list = (List<?>) reader.read(new ByteArrayInputStream(bytes(json.toString())));
+    assertEquals(10000, list.size());
+    assertEquals("name 9999", ((SMap) list.get(9999)).s("name"));
+  }
+
+  @Test
+  public void shouldReadScalars() {
+    assertEquals("a", reader.read(bytes(" \"a\" ")));
+    assertEquals(Boolean.FALSE, reader.read(bytes("false")));
+    assertNull(reader.read(bytes("null")));
+    assertEquals(Arrays.asList(1, null, "b"), reader.read(bytes("[1, null, \"b\"]")));
+  }
+
+  @Test
+  public void shouldReadNumbers() {
+    assertEquals(0, reader.read(bytes("0")));
+    assertEquals(-7, reader.read(bytes("-7")));
+    assertEquals(Integer.MAX_VALUE, reader.read(bytes(String.valueOf(Integer.MAX_VALUE))));
+    assertEquals(Integer.MAX_VALUE + 1L, reader.read(bytes(String.valueOf(Integer.MAX_VALUE + 1L))));
+    assertEquals(Long.MIN_VALUE, reader.read(bytes(String.valueOf(Long.MIN_VALUE))));
+    assertEquals(Long.MAX_VALUE, reader.read(bytes(String.valueOf(Long.MAX_VALUE))));
+    assertEquals(new BigInteger("9223372036854775808"), reader.read(bytes("9223372036854775808")));
+    assertEquals(new BigInteger("-123456789012345678901234567890"), reader.read(bytes("-123456789012345678901234567890")));
+    assertEquals(-0.5d, reader.read(bytes("-0.5")));
+    assertEquals(1.5e10d, reader.read(bytes("1.5E10")));
+    assertEquals(2e-3d, reader.read(bytes("2e-3")));
+  }
+
+  @Test
+  public void shouldDecodeStrings() {
+    assertEquals("quote\" backslash\\ slash/ \b\f\n\r\t", reader.read(bytes("\"quote\\\" backslash\\\\ slash\\/ \\b\\f\\n\\r\\t\"")));
+    assertEquals("caffè € 😀", reader.read(bytes("\"caff\\u00e8 \\u20AC \\ud83d\\ude00\"")));
+    assertEquals("caffè € 😀", reader.read(bytes("\"caffè € 😀\"")));
+  }
+
+  @Test
+  public void shouldShareKeys() {
+    List<SMap> people = reader.stream(bytes("[{\"name\": \"John\"}, {\"name\": \"Jane\"}]")).collect(Collectors.toList());
+    String first = people.get(0).keySet().iterator().next();
+    String second = people.get(1).keySet().iterator().next();
+    assertSame(first, second);
+    assertSame(first, reader.readMap(bytes("{\"name\": \"Joe\"}")).keySet().iterator().next());
+  }
+
+  @Test
+  public void shouldUseGivenMapFactory() {
+    List<Map<String, Object>> created = new ArrayList<>();
+    SMap map = new JsonReader(size -> {
+      Map<String, Object> backing = new ConcurrentHashMap<>();
+      created.add(backing);
+      return backing;
+    }).readMap(bytes(PERSON));
+    assertPerson(map);
+    assertEquals(4, created.size());
+    assertEquals(created.get(1), map.map("address"));
+
+    assertPerson(new JsonReader(size -> new ShapedMap()).readMap(bytes(PERSON)));
+  }
+
+  @Test
+  public void shouldStreamArrays() {
+    String json = " [" + PERSON + ",\n" + PERSON + "] ";
+    assertEquals(2, reader.stream(bytes(json)).peek(JsonReaderTest::assertPerson).count());
+    assertEquals(2, reader.stream(new ByteArrayInputStream(bytes(json))).peek(JsonReaderTest::assertPerson).count());
+    assertEquals(0, reader.stream(bytes("[ ]")).count());
+  }
+
+  @Test
+  public void shouldStreamLazily() {
+    assertEquals("John", reader.stream(bytes("[{\"name\": \"John\"}, garbage")).findFirst().get().s("name"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailToStreamNonObjects() {
+    reader.stream(bytes("[{}, 1]")).count();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailToReadMapNonObjects() {
+    reader.readMap(bytes("[]"));
+  }
+
+  @Test
+  public void shouldFailOnInvalidJson() {
+    for (String json : Arrays.asList("", "{", "{\"a\" 1}", "{\"a\": 1,}", "[1 2]", "tru", "\"abc", "1 2", "{a: 1}", "-", "[1]]", "\"\\x\"")) {
+      try {
+        reader.read(bytes(json));
+        fail(json);
+      } catch (IllegalArgumentException e) {
+        assertTrue(e.getMessage(), e.getMessage().startsWith("Invalid JSON at offset"));
+      }
+    }
+  }
+
+  @Test
+  public void shouldReportErrorOffset() {
+    try {
+      reader.read(bytes("{\"a\": 1, \"b\" 2}"));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Invalid JSON at offset 13: found '2', expected ':'", e.getMessage());
+    }
+  }
+
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JsonWriterTest {
+
+  private final JsonWriter writer = new JsonWriter();
+
+  private String json(Object value) {
+    return new String(writer.toBytes(value), StandardCharsets.UTF_8);
+  }
+
+  @Test
+  public void shouldWriteMaps() {
+    SMap map = new SMap(new LinkedHashMap<>())
+        .add("name", "John")
+        .add("age", 42)
+        .add("address", new SMap(new LinkedHashMap<>()).add("number", 1L))
+        .add("friends", Arrays.asList(new SMap().add("name", "Jane"), "Joe"))
+        .add("tags", Collections.emptyList())
+        .add("empty", new SMap());
+
+    assertEquals("{\"name\":\"John\",\"age\":42,\"address\":{\"number\":1},\"friends\":[{\"name\":\"Jane\"},\"Joe\"],\"tags\":[],\"empty\":{}}", json(map));
+  }
+
+  @Test
+  public void shouldWriteValues() {
+    assertEquals("null", json(null));
+    assertEquals("true", json(true));
+    assertEquals("false", json(false));
+    assertEquals("[0,-7,127,32767]", json(Arrays.asList(0, -7, (byte) 127, (short) 32767)));
+    assertEquals("[" + Long.MIN_VALUE + "," + Long.MAX_VALUE + "]", json(Arrays.asList(Long.MIN_VALUE, Long.MAX_VALUE)));
+    assertEquals("[1.5,0.25,1.0E20,null,null,null]", json(Arrays.asList(1.5d, 0.25f, 1e20d, Double.NaN, Double.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY)));
+    assertEquals("1234567890123456789012345678901234567890", json(new java.math.BigInteger("1234567890123456789012345678901234567890")));
+    assertEquals("1500000000000", json(new Date(1500000000000L)));
+    assertEquals("[1,\"a\"]", json(new Object[]{1, "a"}));
+    assertEquals("\"SECONDS\"", json(java.util.concurrent.TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void shouldWritePrimitiveArrays() {
+    assertEquals("[1,-2]", json(new int[]{1, -2}));
+    assertEquals("[" + Long.MAX_VALUE + "]", json(new long[]{Long.MAX_VALUE}));
+    assertEquals("[32767,0]", json(new short[]{32767, 0}));
+    assertEquals("[1.5,null]", json(new double[]{1.5d, Double.NaN}));
+    assertEquals("[0.1]", json(new float[]{0.1f}));
+    assertEquals("[true,false]", json(new boolean[]{true, false}));
+    assertEquals("[]", json(new int[0]));
+    assertEquals("\"AQL/\"", json(new byte[]{1, 2, -1}));
+    assertEquals("\"abc\"", json(new char[]{'a', 'b', 'c'}));
+  }
+
+  @Test
+  public void shouldWriteKeysSharingCacheSlots() {
+    SMap map = new SMap(new LinkedHashMap<>());
+    for (int i = 0; i < 2000; i++) {
+      map.add("key" + i, i);
+    }
+    String expected = map.entrySet().stream().map(entry -> "\"" + entry.getKey() + "\":" + entry.getValue()).collect(Collectors.joining(",", "{", "}"));
+    assertEquals(expected, json(map));
+    assertEquals(expected, json(map));
+  }
+
+  @Test
+  public void shouldEscapeStrings() {
+    assertEquals("\"quote\\\" backslash\\\\ \\n\\r\\t\\b\\f \\u0001\\u001f\"", json("quote\" backslash\\ \n\r\t\b\f \u0001\u001f"));
+    assertEquals("\"caffè € 😀\"", json("caffè € 😀"));
+    assertEquals("\"?\"", json("\ud83d"));
+  }
+
+  @Test
+  public void shouldStreamMaps() {
+    SMap map = new SMap().add("people", Arrays.asList(new SMap().add("name", "John"), new SMap().add("name", "Jane")));
+    assertEquals("[{\"name\":\"John\"},{\"name\":\"Jane\"}]", json(map.maps("people")));
+    assertEquals("[1,2,3]", json(Stream.of(1, 2, 3)));
+  }
+
+  @Test
+  public void shouldRoundTrip() {
+    StringBuilder longString = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      longString.append("àb\"c😀");
+    }
+    SMap map = new SMap()
+        .add("name", "John")
+        .add("long", longString.toString())
+        .add(longString.toString(), "long key")
+        .add("numbers", IntStream.range(0, 2000).boxed().toArray());
+
+    JsonWriter small = new JsonWriter(1);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    small.write(map, out);
+    assertEquals(map.copy().add("numbers", Arrays.asList(map.<Object[]>o("numbers"))), new JsonReader().readMap(out.toByteArray()));
+  }
+
+  @Test
+  public void shouldWriteToChannels() {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.write(new SMap().add("a", 1), Channels.newChannel(out));
+    assertEquals("{\"a\":1}", new String(out.toByteArray(), StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void shouldWriteToByteBuffers() {
+    ByteBuffer buffer = ByteBuffer.allocateDirect(32);
+    buffer.put((byte) ' ');
+    writer.write(new SMap().add("a", 1), buffer);
+    assertEquals(8, buffer.position());
+    buffer.flip().position(1);
+    assertEquals(new SMap().add("a", 1), new JsonReader().readMap(buffer));
+  }
+
+  @Test(expected = BufferOverflowException.class)
+  public void shouldFailToWriteToSmallByteBuffers() {
+    writer.write(Collections.nCopies(10, "abc"), ByteBuffer.allocate(16));
+  }
+
+  @Test
+  public void shouldBeReusable() {
+    Map<String, Object> map = new SMap().add("key", "value");
+    assertEquals(json(map), json(map));
+    try {
+      writer.write(Collections.nCopies(10, "abc"), ByteBuffer.allocate(16));
+      fail();
+    } catch (BufferOverflowException e) {
+      assertEquals("{\"key\":\"value\"}", json(map));
+    }
+  }
+
+}
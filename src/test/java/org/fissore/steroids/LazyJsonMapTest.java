@@ -0,0 +1,191 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LazyJsonMapTest {
+
+  private static final String PERSON = "{\"name\": \"John\", \"age\": 42, \"height\": 1.82, \"married\": true, \"pet\": null,\n" +
+      "  \"address\": {\"streetname\": \"One way\", \"number\": 1, \"geo\": {\"latitude\": 45.07}},\n" +
+      "  \"friends\": [{\"name\": \"Jane\"}, {\"name\": \"Joe\", \"nick\": \"J\\\"}\"}], \"tags\": [\"a\", [1, 2]], \"empty\": {}}";
+
+  private static byte[] bytes(String json) {
+    return json.getBytes(StandardCharsets.UTF_8);
+  }
+
+  private static void assertPerson(SteroidMap<String> person) {
+    assertEquals("John", person.s("name"));
+    assertEquals(42, person.i("age"));
+    assertEquals(1.82d, person.d("height"), 0);
+    assertTrue(person.b("married"));
+    assertFalse(person.containsKey("pet"));
+    assertEquals("One way", person.map("address").s("streetname"));
+    assertEquals(45.07d, person.map("address").map("geo").d("latitude"), 0);
+    assertEquals(Arrays.asList("Jane", "Joe"), person.maps("friends").map(friend -> friend.s("name")).collect(Collectors.toList()));
+    assertEquals("J\"}", person.<List<SteroidMap<String>>>o("friends").get(1).s("nick"));
+    assertEquals(Arrays.asList("a", Arrays.asList(1, 2)), person.list("tags"));
+    assertTrue(person.map("empty").isEmpty());
+  }
+
+  @Test
+  public void shouldReadFields() {
+    assertPerson(LazyJsonMap.of(bytes(PERSON)));
+  }
+
+  @Test
+  public void shouldReadFromByteBuffers() {
+    ByteBuffer heap = ByteBuffer.wrap(bytes("xx" + PERSON + "yy"));
+    heap.position(2).limit(heap.limit() - 2);
+    assertPerson(LazyJsonMap.of(heap));
+    assertEquals(2, heap.position());
+
+    byte[] bytes = bytes(PERSON);
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+    assertPerson(LazyJsonMap.of(direct));
+  }
+
+  @Test
+  public void shouldReadDirectBuffersAcrossWindows() {
+    char[] chars = new char[20000];
+    Arrays.fill(chars, 'x');
+    String text = new String(chars);
+    byte[] bytes = bytes("{\"a\": 1, \"text\": \"" + text + "\", \"list\": [" + text.length() + ", \"\u00e8\"], \"b\": 2}");
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes).flip();
+
+    SteroidMap<String> map = LazyJsonMap.of(direct);
+    assertEquals(2, map.i("b"));
+    assertEquals(1, map.i("a"));
+    assertEquals(text, map.s("text"));
+    assertEquals(Arrays.asList(20000, "\u00e8"), map.list("list"));
+    assertEquals(new JsonReader().readMap(bytes), map);
+  }
+
+  @Test
+  public void shouldBeEqualToParsedMaps() {
+    LazyJsonMap lazy = LazyJsonMap.of(bytes(PERSON));
+    SMap parsed = new JsonReader().readMap(bytes(PERSON));
+    assertEquals(parsed, lazy);
+    assertEquals(lazy, parsed);
+    assertEquals(parsed.hashCode(), lazy.hashCode());
+    assertEquals(parsed.keySet(), lazy.keySet());
+    assertEquals(8, lazy.size());
+    assertEquals(new JsonWriter().toBytes(parsed).length, new JsonWriter().toBytes(lazy).length);
+  }
+
+  @Test
+  public void shouldDecodeValuesOnce() {
+    LazyJsonMap map = LazyJsonMap.of(bytes(PERSON));
+    assertSame(map.get("address"), map.get("address"));
+    assertSame(map.get("name"), map.get("name"));
+    assertNull(map.get("missing"));
+  }
+
+  @Test
+  public void shouldShareKeys() {
+    SteroidMap<String> john = LazyJsonMap.of(bytes("{\"name\": \"John\", \"age\": 42}"));
+    SteroidMap<String> jane = LazyJsonMap.of(bytes("{\"name\": \"Jane\", \"age\": 41}"));
+    assertSame(john.keySet().iterator().next(), jane.keySet().iterator().next());
+  }
+
+  @Test
+  public void shouldIndexWideObjects() {
+    StringBuilder json = new StringBuilder("{");
+    for (int i = 0; i < 10000; i++) {
+      json.append(i == 0 ? "" : ", ").append("\"key").append(i).append("\": ").append(i);
+    }
+    SteroidMap<String> map = LazyJsonMap.of(bytes(json.append("}").toString()));
+
+    assertEquals(10000, map.size());
+    assertEquals(0, map.i("key0"));
+    assertEquals(9999, map.i("key9999"));
+    assertEquals("key5000", map.keySet().stream().skip(5000).findFirst().get());
+    assertFalse(map.containsKey("key10000"));
+    assertFalse(map.containsKey(1));
+  }
+
+  @Test
+  public void shouldKeepTheLastDuplicateKey() {
+    assertEquals(new SMap().add("a", 2).add("b", 1), LazyJsonMap.of(bytes("{\"a\": 1, \"b\": 1, \"a\": 2, \"b\": null}")));
+  }
+
+  @Test
+  public void shouldNotParseUntilAccessed() {
+    SteroidMap<String> map = LazyJsonMap.of(bytes("{\"a\": [1, 2, oops], \"b\": {\"c\": tru}, \"d\": \"ok\"}"));
+    assertEquals("ok", map.s("d"));
+    assertTrue(map.valued("b"));
+    try {
+      map.list("a");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Invalid JSON at offset 13: found 'o', expected a value", e.getMessage());
+    }
+    try {
+      map.map("b").b("c");
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertTrue(e.getMessage().startsWith("Invalid JSON at offset"));
+    }
+  }
+
+  @Test
+  public void shouldCopy() {
+    SteroidMap<String> copy = LazyJsonMap.of(bytes(PERSON)).copy().add("name", "Jane");
+    assertEquals("Jane", copy.s("name"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailOnNonObjects() {
+    LazyJsonMap.of(bytes("[]"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailOnTruncatedObjects() {
+    LazyJsonMap.of(bytes("{\"a\": {\"b\": 1}")).size();
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldBeReadOnly() {
+    LazyJsonMap.of(bytes(PERSON)).add("name", "Jane");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldNotDelete() {
+    LazyJsonMap.of(bytes(PERSON)).del("name");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldHaveReadOnlyLists() {
+    LazyJsonMap.of(bytes(PERSON)).<Object>list("tags").add("b");
+  }
+
+  @Test
+  public void shouldBeEmpty() {
+    assertEquals(Collections.emptyMap(), LazyJsonMap.of(bytes(" { } ")));
+  }
+
+}
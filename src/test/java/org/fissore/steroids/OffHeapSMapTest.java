@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OffHeapSMapTest {
+
+  private OffHeapArena arena;
+  private OffHeapSMap map;
+
+  @Before
+  public void setUp() {
+    arena = new OffHeapArena(4096);
+    map = arena.newMap();
+  }
+
+  @After
+  public void tearDown() {
+    arena.close();
+  }
+
+  @Test
+  public void shouldStoreValues() {
+    Date date = new Date();
+    List<String> friends = Arrays.asList("Jane", "Joe");
+    map.add("name", "John")
+        .add("surname", "Döe 😀")
+        .add("age", 42)
+        .add("id", 1L << 40)
+        .add("height", 1.82d)
+        .add("weight", 80.5f)
+        .add("married", true)
+        .add("born", date)
+        .add("friends", friends)
+        .add("address", new SMap().add("streetname", "One way"))
+        .add("nothing", null);
+
+    assertEquals(10, map.size());
+    assertEquals("John", map.s("name"));
+    assertEquals("Döe 😀", map.s("surname"));
+    assertEquals(42, map.i("age"));
+    assertEquals(1L << 40, map.l("id"));
+    assertEquals(1.82d, map.d("height"), 0);
+    assertEquals(80.5f, map.f("weight"), 0);
+    assertTrue(map.b("married"));
+    assertEquals(date, map.date("born"));
+    assertSame(friends, map.list("friends"));
+    assertEquals("One way", map.map("address").s("streetname"));
+    assertFalse(map.containsKey("nothing"));
+    assertNull(map.get("missing"));
+    assertEquals(Integer.class, map.get("age").getClass());
+    assertEquals(Long.class, map.get("id").getClass());
+  }
+
+  @Test
+  public void shouldBehaveAsMap() {
+    Map<String, Object> expected = new LinkedHashMap<>();
+    for (int i = 0; i < 500; i++) {
+      String key = "key" + i;
+      Object value = i % 3 == 0 ? "value " + i : i % 3 == 1 ? (Object) (long) i : Arrays.asList(i);
+      assertNull(map.put(key, value));
+      expected.put(key, value);
+    }
+    for (int i = 0; i < 500; i += 2) {
+      assertEquals(expected.remove("key" + i), map.remove("key" + i));
+    }
+    for (int i = 1; i < 500; i += 4) {
+      Object value = i % 2 == 0 ? "changed " + i : (Object) (double) i;
+      assertEquals(expected.put("key" + i, value), map.put("key" + i, value));
+    }
+
+    assertEquals(expected, map);
+    assertEquals(map, expected);
+    assertEquals(expected.hashCode(), map.hashCode());
+    assertEquals(expected.keySet(), map.keySet());
+    assertEquals(new HashMap<>(expected), new HashMap<>(map));
+  }
+
+  @Test
+  public void shouldReplaceValuesOfAnyType() {
+    map.add("key", 1).add("key", "a string").add("key", Arrays.asList(1)).add("key", 2.5d).add("key", "another string").add("other", 1L);
+    assertEquals(2, map.size());
+    assertEquals("another string", map.s("key"));
+    map.add("key", new SMap()).add("key", new SMap().add("a", 1));
+    assertEquals(1, map.map("key").i("a"));
+  }
+
+  @Test
+  public void shouldRemoveWithIterators() {
+    map.add("a", 1).add("b", 2).add("c", 3);
+    Iterator<String> keys = map.keySet().iterator();
+    keys.next();
+    keys.next();
+    keys.remove();
+    assertEquals(new SMap().add("a", 1).add("c", 3), map);
+    map.clear();
+    assertTrue(map.isEmpty());
+    assertEquals(new SMap().add("d", 4), map.add("d", 4));
+  }
+
+  @Test
+  public void shouldSupportSteroids() {
+    map.add("name", "John").add("surname", "Doe").add("age", 42);
+    map.renameKey("name", "firstname").del("age");
+    assertEquals(new SMap().add("firstname", "John").add("surname", "Doe"), map);
+    assertEquals("unknown", map.s("nickname", "unknown"));
+    assertEquals(new SMap().add("surname", "Doe"), map.subMap("surname"));
+    assertEquals(map, map.copy());
+  }
+
+  @Test
+  public void shouldReuseBlocks() {
+    List<OffHeapSMap> maps = IntStream.range(0, 100)
+        .mapToObj(i -> arena.newMap().add("id", i).add("name", "name " + i))
+        .collect(Collectors.toList());
+    long reserved = arena.reservedBytes();
+    maps.forEach(OffHeapSMap::release);
+    IntStream.range(0, 100).forEach(i -> arena.newMap().add("id", i).add("name", "name " + i));
+    assertEquals(reserved, arena.reservedBytes());
+  }
+
+  @Test
+  public void shouldStoreMapsLargerThanSlabs() {
+    for (int i = 0; i < 1000; i++) {
+      map.add("key" + i, "value " + i);
+    }
+    assertEquals(1000, map.size());
+    assertEquals("value 999", map.s("key999"));
+  }
+
+  @Test
+  public void shouldKeepNarrowPrimitivesOnHeap() {
+    map.add("char", 'c').add("short", (short) 2).add("byte", (byte) 3);
+    assertEquals('c', map.get("char"));
+    assertEquals((short) 2, map.get("short"));
+    assertEquals((byte) 3, map.get("byte"));
+  }
+
+  @Test
+  public void shouldReadShortStringsAtTheEndOfSlabs() {
+    try (OffHeapArena small = new OffHeapArena(OffHeapArena.MIN_BLOCK_SIZE)) {
+      /* 16 + 16 + 17 + 15 bytes: the last entry ends with the slab, 7 bytes after its tag */
+      OffHeapSMap full = small.newMap().add("a", 1L).add("b", 2L).add("cc", 3L).add("d", "xyz");
+      assertEquals("xyz", full.s("d"));
+      assertEquals(3L, full.l("cc"));
+      assertEquals(4, full.entrySet().size());
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldFailAfterRelease() {
+    map.add("a", 1).release();
+    map.get("a");
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void shouldFailAfterClose() {
+    map.add("a", 1);
+    arena.close();
+    map.i("a");
+  }
+
+  @Test(expected = ClassCastException.class)
+  public void shouldFailToCastValues() {
+    map.add("a", 1).l("a");
+  }
+
+}
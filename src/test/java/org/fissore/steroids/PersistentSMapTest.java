@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PersistentSMapTest {
+
+  @Test
+  public void shouldReturnNewVersionsLeavingOldOnesUntouched() {
+    PersistentSMap empty = PersistentSMap.empty();
+    PersistentSMap john = empty.add("name", "John").add("surname", "Smith");
+    PersistentSMap jane = john.add("name", "Jane");
+    PersistentSMap noSurname = jane.del("surname");
+    PersistentSMap renamed = jane.renameKey("name", "firstname");
+
+    assertTrue(empty.isEmpty());
+    assertEquals(new SMap("name", "John", "surname", "Smith"), john);
+    assertEquals(new SMap("name", "Jane", "surname", "Smith"), jane);
+    assertEquals(new SMap("name", "Jane"), noSurname);
+    assertEquals(new SMap("firstname", "Jane", "surname", "Smith"), renamed);
+
+    assertSame(john, john.add("nothing", null));
+    assertSame(john, john.del("nonexistent"));
+    assertSame(john, john.renameKey("nonexistent", "whatever"));
+    assertSame(john, john.copy());
+  }
+
+  @Test
+  public void shouldBehaveLikeAHashMap() {
+    Map<String, Object> expected = new HashMap<>();
+    PersistentSMap actual = PersistentSMap.empty();
+    for (int i = 0; i < 10000; i++) {
+      expected.put("key" + i, i);
+      actual = actual.add("key" + i, i);
+    }
+    assertEquals(expected, actual);
+    assertEquals(actual, expected);
+    assertEquals(expected.hashCode(), actual.hashCode());
+    assertEquals(10000, actual.size());
+    assertEquals(expected.keySet(), actual.keySet());
+
+    for (int i = 0; i < 10000; i += 2) {
+      expected.remove("key" + i);
+      actual = actual.del("key" + i);
+    }
+    assertEquals(expected, actual);
+    assertEquals(5000, actual.size());
+    assertFalse(actual.containsKey("key0"));
+    assertEquals(9999, actual.i("key9999"));
+
+    for (int i = 1; i < 10000; i += 2) {
+      actual = actual.del("key" + i);
+    }
+    assertTrue(actual.isEmpty());
+    assertSame(PersistentSMap.empty(), actual);
+  }
+
+  @Test
+  public void shouldHandleHashCollisions() {
+    assertEquals("Aa".hashCode(), "BB".hashCode());
+    assertEquals("AaAa".hashCode(), "BBBB".hashCode());
+
+    PersistentSMap map = PersistentSMap.empty()
+        .add("Aa", 1)
+        .add("BB", 2)
+        .add("AaAa", 3)
+        .add("BBBB", 4)
+        .add("AaBB", 5);
+    assertEquals(5, map.size());
+    assertEquals(1, map.i("Aa"));
+    assertEquals(2, map.i("BB"));
+    assertEquals(5, map.i("AaBB"));
+
+    PersistentSMap smaller = map.del("Aa", "BBBB");
+    assertEquals(3, smaller.size());
+    assertFalse(smaller.containsKey("Aa"));
+    assertEquals(2, smaller.i("BB"));
+    assertEquals(3, smaller.i("AaAa"));
+    assertEquals(new HashSet<>(Arrays.asList("BB", "AaAa", "AaBB")), smaller.keySet());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void shouldAddAllAndAddFrom() {
+    Map<String, Object> other = new HashMap<>();
+    other.put("one", 1);
+    other.put("two", 2);
+    other.put("null", null);
+
+    PersistentSMap map = PersistentSMap.of(other);
+    assertEquals(2, map.size());
+    assertFalse(map.containsKey("null"));
+
+    PersistentSMap more = map.addAll(new SMap("three", 3), new SMap("four", 4)).addFrom(new SMap("five", 5, "six", 6), "five");
+    assertEquals(5, more.size());
+    assertTrue(more.valued("five"));
+    assertTrue(more.notValued("six"));
+    assertEquals(2, map.size());
+  }
+
+  @Test
+  public void shouldReturnTypedValuesAndNestedMaps() {
+    PersistentSMap map = PersistentSMap.empty()
+        .add("long", 1L)
+        .add("double", 2d)
+        .add("boolean", true)
+        .add("nested", new SMap("key", "value"))
+        .add("maps", Arrays.asList(PersistentSMap.empty().add("key", "value1"), Collections.singletonMap("key", "value2")));
+
+    assertEquals(1L, map.l("long"));
+    assertEquals(3L, map.l("nonexistent", 3L));
+    assertEquals(2d, map.d("double", 0d), 0d);
+    assertTrue(map.b("boolean", false));
+    assertEquals("value", map.map("nested").s("key"));
+    assertEquals(Arrays.asList("value1", "value2"), map.maps("maps").map(m -> m.s("key")).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void shouldPromoteMapsWithoutWritingThemBack() {
+    Map<String, Object> nested = Collections.singletonMap("key", "value");
+    PersistentSMap map = PersistentSMap.empty().add("nested", nested);
+
+    assertEquals("value", map.promoteMap("nested").s("key"));
+    assertSame(nested, map.get("nested"));
+  }
+
+  @Test
+  public void shouldReturnPersistentSubMaps() {
+    PersistentSMap map = PersistentSMap.empty().add("name", "John").add("surname", "Smith").add("height", 187);
+    PersistentSMap subMap = map.subMap("name", "nonexistent");
+    assertEquals(new SMap("name", "John"), subMap);
+    assertEquals(new SMap("name", "John", "height", 187), map.subMap(Arrays.asList("name", "height")));
+    assertEquals(0, map.subMap(Stream.empty()).size());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldFailToPut() {
+    PersistentSMap.empty().put("key", "value");
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldFailToRemoveThroughIterator() {
+    Iterator<Map.Entry<String, Object>> iterator = PersistentSMap.empty().add("key", "value").entrySet().iterator();
+    iterator.next();
+    iterator.remove();
+  }
+
+}
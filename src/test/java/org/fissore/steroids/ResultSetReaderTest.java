@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ResultSetReaderTest {
+
+  private static final String[] LABELS = {"id", "age", "score", "ratio", "active", "name", "created"};
+  private static final int[] TYPES = {Types.BIGINT, Types.INTEGER, Types.DOUBLE, Types.REAL, Types.BOOLEAN, Types.VARCHAR, Types.TIMESTAMP};
+
+  private int fetchSize;
+  private final AtomicInteger reads = new AtomicInteger();
+
+  /**
+   * A result set stub over given rows, holding the values of the columns in the order of {@link #LABELS}
+   */
+  private ResultSet resultSet(List<Object[]> rows) {
+    ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSetMetaData.class}, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "getColumnCount":
+          return LABELS.length;
+        case "getColumnLabel":
+          return LABELS[(Integer) args[0] - 1];
+        case "getColumnType":
+          return TYPES[(Integer) args[0] - 1];
+        default:
+          throw new UnsupportedOperationException(method.getName());
+      }
+    });
+
+    int[] row = {-1};
+    Object[] last = {null};
+    return (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+      switch (method.getName()) {
+        case "getMetaData":
+          return metaData;
+        case "setFetchSize":
+          fetchSize = (Integer) args[0];
+          return null;
+        case "next":
+          if (row[0] == 2) {
+            throw new SQLException("connection lost");
+          }
+          return ++row[0] < rows.size();
+        case "wasNull":
+          return last[0] == null;
+        default:
+          reads.incrementAndGet();
+          Object value = rows.get(row[0])[(Integer) args[0] - 1];
+          last[0] = value;
+          switch (method.getName()) {
+            case "getLong":
+              return value == null ? 0L : value;
+            case "getInt":
+              return value == null ? 0 : value;
+            case "getDouble":
+              return value == null ? 0d : value;
+            case "getFloat":
+              return value == null ? 0f : value;
+            case "getBoolean":
+              return value == null ? false : value;
+            case "getObject":
+              return value;
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+      }
+    });
+  }
+
+  private static Object[] row(long id, String name) {
+    return new Object[]{id, 42, 1.5d, 0.5f, true, name, new Timestamp(id)};
+  }
+
+  @Test
+  public void shouldStreamRows() {
+    List<SMap> rows = ResultSetReader.stream(resultSet(Arrays.asList(row(1, "John"), row(2, "Jane"))), 100).collect(Collectors.toList());
+
+    assertEquals(100, fetchSize);
+    assertEquals(2, rows.size());
+    SMap john = rows.get(0);
+    assertEquals(1L, john.l("id"));
+    assertEquals(42, john.i("age"));
+    assertEquals(1.5d, john.d("score"), 0);
+    assertEquals(0.5f, john.f("ratio"), 0);
+    assertTrue(john.b("active"));
+    assertEquals("John", john.s("name"));
+    assertEquals(new Timestamp(1), john.date("created"));
+    assertEquals(Arrays.asList(LABELS), john.keySet().stream().collect(Collectors.toList()));
+    assertEquals(new SMap().add("id", 2L).add("age", 42).add("score", 1.5d).add("ratio", 0.5f).add("active", true).add("name", "Jane").add("created", new Timestamp(2)), rows.get(1));
+  }
+
+  @Test
+  public void shouldShareShapes() {
+    List<SMap> rows = ResultSetReader.stream(resultSet(Arrays.asList(row(1, "John"), row(2, "Jane")))).collect(Collectors.toList());
+    assertSame(rows.get(0).keySet().iterator().next(), rows.get(1).keySet().iterator().next());
+    assertEquals(0, fetchSize);
+  }
+
+  @Test
+  public void shouldReadNulls() {
+    SMap row = ResultSetReader.stream(resultSet(Arrays.<Object[]>asList(new Object[LABELS.length]))).findFirst().get();
+    assertEquals(LABELS.length, row.size());
+    assertTrue(Arrays.stream(LABELS).allMatch(row::notValued));
+    assertEquals(-1L, row.l("id", -1L));
+    assertFalse(row.b("active", false));
+  }
+
+  @Test
+  public void shouldStreamLazily() {
+    List<Object[]> rows = IntStream.range(0, 2).mapToObj(i -> row(i, "name " + i)).collect(Collectors.toList());
+    assertEquals("name 0", ResultSetReader.stream(resultSet(rows)).findFirst().get().s("name"));
+    assertEquals(LABELS.length, reads.get());
+  }
+
+  @Test
+  public void shouldWrapSQLExceptions() {
+    try {
+      ResultSetReader.stream(resultSet(Arrays.asList(row(1, "John"), row(2, "Jane"), row(3, "Joe")))).count();
+      fail();
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof SQLException);
+    }
+  }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SAggregateTest {
+
+  private final List<SMap> payments = Arrays.asList(
+      new SMap("surname", "Doe", "amount", 10L, "score", 1.0),
+      new SMap("surname", "Rossi", "amount", 5, "score", 4.0),
+      new SMap("surname", "Doe", "amount", 20L, "score", 2.0),
+      new SMap("surname", "Doe", "amount", 30L),
+      new SMap("surname", "Rossi", "amount", null)
+  );
+
+  @Test
+  public void shouldGroupAndAggregate() {
+    List<SMap> groups = SAggregate.groupBy("surname").count().sumLong("amount").avgDouble("score").apply(payments);
+
+    assertEquals(2, groups.size());
+
+    SMap doe = groups.get(0);
+    assertEquals("Doe", doe.s("surname"));
+    assertEquals(3L, doe.l("count"));
+    assertEquals(60L, doe.l("amountSum"));
+    assertEquals(1.5, doe.d("scoreAvg"), 0);
+
+    SMap rossi = groups.get(1);
+    assertEquals("Rossi", rossi.s("surname"));
+    assertEquals(2L, rossi.l("count"));
+    assertEquals(5L, rossi.l("amountSum"));
+    assertEquals(4.0, rossi.d("scoreAvg"), 0);
+  }
+
+  @Test
+  public void shouldFindMinimumsAndMaximums() {
+    List<SMap> groups = SAggregate.groupBy("surname")
+        .minLong("amount").maxLong("amount").minDouble("score").maxDouble("score", "best")
+        .apply(payments.stream());
+
+    SMap doe = groups.get(0);
+    assertEquals(10L, doe.l("amountMin"));
+    assertEquals(30L, doe.l("amountMax"));
+    assertEquals(1.0, doe.d("scoreMin"), 0);
+    assertEquals(2.0, doe.d("best"), 0);
+
+    SMap rossi = groups.get(1);
+    assertEquals(5L, rossi.l("amountMin"));
+    assertEquals(4.0, rossi.d("best"), 0);
+  }
+
+  @Test
+  public void shouldOmitAggregatesOfGroupsWithoutValues() {
+    List<SMap> groups = SAggregate.groupBy("surname").sumDouble("score").avgDouble("score").minLong("missing").apply(payments);
+
+    SMap rossi = groups.get(1);
+    assertEquals(4.0, rossi.d("scoreSum"), 0);
+    assertFalse(rossi.containsKey("missingMin"));
+    assertFalse(groups.get(0).containsKey("missingMin"));
+  }
+
+  @Test
+  public void shouldGroupByManyKeys() {
+    List<SMap> maps = Arrays.asList(
+        new SMap("city", "Turin", "year", 2020, "amount", 1L),
+        new SMap("city", "Turin", "year", 2021, "amount", 2L),
+        new SMap("city", "Turin", "year", 2020, "amount", 3L),
+        new SMap("city", "Milan", "amount", 4L)
+    );
+
+    List<SMap> groups = SAggregate.groupBy("city", "year").sumLong("amount", "total").apply(maps);
+
+    assertEquals(3, groups.size());
+    assertEquals(new SMap("city", "Turin", "year", 2020).add("total", 4L), groups.get(0));
+    assertEquals(new SMap("city", "Turin", "year", 2021).add("total", 2L), groups.get(1));
+    assertEquals(new SMap("city", "Milan", "total", 4L), groups.get(2));
+  }
+
+  @Test
+  public void shouldGroupEqualNumbersOfDifferentTypes() {
+    List<SMap> maps = Arrays.asList(
+        new SMap("year", 2020, "month", 1, "amount", 1L),
+        new SMap("year", 2020L, "month", 1L, "amount", 2L),
+        new SMap("year", (short) 2020, "month", 2, "amount", 3L)
+    );
+
+    List<SMap> byYear = SAggregate.groupBy("year").sumLong("amount", "total").apply(maps);
+    assertEquals(Collections.singletonList(new SMap("year", 2020, "total", 6L)), byYear);
+
+    List<SMap> byMonth = SAggregate.groupBy("year", "month").sumLong("amount", "total").apply(maps);
+    assertEquals(Arrays.asList(new SMap("year", 2020, "month", 1, "total", 3L), new SMap("year", (short) 2020, "month", 2, "total", 3L)), byMonth);
+  }
+
+  @Test
+  public void shouldFailToAggregateNonNumbers() {
+    try {
+      SAggregate.groupBy().sumLong("amount").apply(Collections.singletonList(new SMap("amount", "ten")));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals("Expected a number as value of amount, found a java.lang.String", e.getMessage());
+    }
+  }
+
+  @Test
+  public void shouldAggregateAllInOneGroupWithoutKeys() {
+    List<SMap> groups = SAggregate.groupBy().count().sumLong("amount").apply(payments);
+
+    assertEquals(Collections.singletonList(new SMap("count", 5L, "amountSum", 65L)), groups);
+  }
+
+  @Test
+  public void shouldAggregateNestedMaps() {
+    SMap mymap = new SMap("payments", payments);
+
+    List<SMap> groups = SAggregate.groupBy("surname").count().apply(mymap.maps("payments"));
+
+    assertEquals(3L, groups.get(0).l("count"));
+  }
+
+  @Test
+  public void shouldAggregateInParallel() {
+    List<Map<String, Object>> maps = IntStream.range(0, 100_000)
+        .mapToObj(i -> (Map<String, Object>) new SMap("group", i % 7, "value", (long) i))
+        .collect(Collectors.toList());
+
+    SAggregate aggregate = SAggregate.groupBy("group").count().sumLong("value").minLong("value").maxLong("value").avgDouble("value");
+    List<SMap> sequential = aggregate.apply(maps.stream());
+    List<SMap> parallel = maps.parallelStream().collect(aggregate.collector());
+
+    assertEquals(7, parallel.size());
+    assertEquals(sequential, parallel);
+    assertEquals(100_000L, parallel.stream().mapToLong(group -> group.l("count")).sum());
+  }
+
+}
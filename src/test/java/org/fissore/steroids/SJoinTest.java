@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SJoinTest {
+
+  private final List<SMap> orders = Arrays.asList(
+      new SMap("id", 1, "customerId", 10L, "total", 100),
+      new SMap("id", 2, "customerId", 20L, "total", 200),
+      new SMap("id", 3, "customerId", 10L, "total", 300),
+      new SMap("id", 4, "customerId", 30L, "total", 400),
+      new SMap("id", 5, "total", 500)
+  );
+
+  private final List<SMap> customers = Arrays.asList(
+      new SMap("customerId", 10, "name", "John"),
+      new SMap("customerId", 20, "name", "Jane")
+  );
+
+  @Test
+  public void shouldInnerJoin() {
+    List<SMap> joined = SJoin.on("customerId").apply(orders, customers);
+
+    assertEquals(Arrays.asList(
+        new SMap("id", 1, "customerId", 10L, "total", 100).add("name", "John"),
+        new SMap("id", 2, "customerId", 20L, "total", 200).add("name", "Jane"),
+        new SMap("id", 3, "customerId", 10L, "total", 300).add("name", "John")
+    ), joined);
+  }
+
+  @Test
+  public void shouldLeftJoin() {
+    List<SMap> joined = SJoin.on("customerId").left().apply(orders, customers);
+
+    assertEquals(Arrays.asList(1, 2, 3, 4, 5), joined.stream().map(m -> m.i("id")).collect(Collectors.toList()));
+    assertEquals("John", joined.get(0).s("name"));
+    assertFalse(joined.get(3).containsKey("name"));
+    assertFalse(joined.get(4).containsKey("name"));
+  }
+
+  @Test
+  public void shouldBuildOnTheSmallerSideKeepingTheOrder() {
+    List<SMap> manyCustomers = IntStream.range(0, 100)
+        .mapToObj(i -> new SMap("customerId", (long) i, "name", "customer" + i))
+        .collect(Collectors.toList());
+    List<SMap> someOrders = Arrays.asList(orders.get(3), orders.get(0), orders.get(4));
+
+    List<SMap> inner = SJoin.on("customerId").apply(someOrders, manyCustomers);
+    assertEquals(Arrays.asList(4, 1), inner.stream().map(m -> m.i("id")).collect(Collectors.toList()));
+    assertEquals("customer30", inner.get(0).s("name"));
+
+    List<SMap> left = SJoin.on("customerId").left().apply(someOrders, manyCustomers);
+    assertEquals(Arrays.asList(4, 1, 5), left.stream().map(m -> m.i("id")).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void shouldEmitEveryMatchingPair() {
+    List<SMap> duplicated = Arrays.asList(customers.get(0), new SMap("customerId", 10L, "name", "Johnny"));
+
+    List<SMap> joined = SJoin.on("customerId").apply(orders.subList(0, 1), duplicated);
+
+    assertEquals(Arrays.asList("John", "Johnny"), joined.stream().map(m -> m.s("name")).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void shouldPrefixCollidingKeys() {
+    List<SMap> joined = SJoin.on("customerId").prefixes("order.", "customer.").apply(orders, customers);
+
+    SMap first = joined.get(0);
+    assertEquals(10L, first.l("customerId"));
+    assertEquals(1, first.i("id"));
+    assertEquals(100, first.i("total"));
+    assertEquals("John", first.s("name"));
+    assertFalse(first.containsKey("order.id"));
+    assertFalse(first.containsKey("customer.customerId"));
+
+    List<SMap> withIds = SJoin.on("customerId").prefixes("order.", "customer.")
+        .apply(orders.subList(0, 1), Collections.singletonList(new SMap("customerId", 10, "id", 7)));
+    assertEquals(1, withIds.get(0).i("order.id"));
+    assertEquals(7, withIds.get(0).i("customer.id"));
+    assertFalse(withIds.get(0).containsKey("id"));
+  }
+
+  @Test
+  public void shouldLetRightValuesWinWithoutPrefixes() {
+    List<SMap> joined = SJoin.on("customerId").apply(orders.subList(0, 1), Collections.singletonList(new SMap("customerId", 10, "total", 0)));
+
+    assertEquals(0, joined.get(0).i("total"));
+  }
+
+  @Test
+  public void shouldJoinOnManyKeys() {
+    List<SMap> left = Arrays.asList(new SMap("a", 1, "b", "x", "v", 1), new SMap("a", 1, "b", "y", "v", 2), new SMap("a", 1, "v", 3));
+    List<SMap> right = Arrays.asList(new SMap("a", 1L, "b", "y", "w", 20), new SMap("a", 1, "w", 30));
+
+    List<SMap> joined = SJoin.on("a", "b").left().apply(left, right);
+
+    assertEquals(3, joined.size());
+    assertFalse(joined.get(0).containsKey("w"));
+    assertEquals(20, joined.get(1).i("w"));
+    assertFalse(joined.get(2).containsKey("w"));
+  }
+
+  @Test
+  public void shouldJoinStreams() {
+    SMap mymap = new SMap("orders", orders, "customers", customers);
+
+    List<SMap> joined = SJoin.on("customerId").apply(mymap.maps("orders"), mymap.maps("customers")).collect(Collectors.toList());
+
+    assertEquals(Arrays.asList("John", "Jane", "John"), joined.stream().map(m -> m.s("name")).collect(Collectors.toList()));
+  }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SKeyTest {
+
+  private static final SKey<Long> AMOUNT = SKey.of("amount", Long.class);
+  private static final SKey<String> NAME = SKey.of("name", String.class);
+  @SuppressWarnings("rawtypes")
+  private static final SKey<List> FRIENDS = SKey.of("friends", List.class);
+
+  @Test
+  public void shouldGetAndPutTypedValues() {
+    SMap map = new SMap("name", "John", "amount", 10L);
+
+    long amount = map.getKey(AMOUNT);
+    assertEquals(10L, amount);
+    assertEquals("John", map.getKey(NAME));
+
+    assertEquals(Long.valueOf(10L), map.putKey(AMOUNT, amount + 1));
+    assertEquals(11L, map.l("amount"));
+
+    map.putKey(FRIENDS, Arrays.asList("Jane", "Joe"));
+    assertEquals(2, map.getKey(FRIENDS).size());
+    assertNull(map.getKey(SKey.of("missing", String.class)));
+  }
+
+  @Test
+  public void shouldGetAndPutTypedValuesOfShapedMaps() {
+    List<SMap> maps = Arrays.asList(
+        new SMap(new ShapedMap()).add("name", "John").add("amount", 10L),
+        new SMap(new ShapedMap()).add("name", "Jane").add("amount", 20L),
+        new SMap(new ShapedMap()).add("amount", 30L).add("name", "Joe")
+    );
+
+    assertEquals(60L, maps.stream().mapToLong(map -> map.getKey(AMOUNT)).sum());
+    assertEquals("Joe", maps.get(2).getKey(NAME));
+
+    SMap map = maps.get(0);
+    map.putKey(AMOUNT, 15L);
+    map.del("name");
+    assertEquals(Long.valueOf(15L), map.getKey(AMOUNT));
+    assertNull(map.getKey(NAME));
+
+    map.putKey(NAME, "Johnny");
+    assertEquals("Johnny", map.s("name"));
+  }
+
+  @Test(expected = ClassCastException.class)
+  public void shouldFailToGetValuesOfAnotherType() {
+    new SMap("amount", 10).getKey(AMOUNT);
+  }
+
+  @Test(expected = ClassCastException.class)
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  public void shouldFailToPutValuesOfAnotherType() {
+    SKey raw = AMOUNT;
+    new SMap().putKey(raw, "ten");
+  }
+
+  @Test
+  public void shouldHandleNullKeysAsMapsDo() {
+    SMap map = new SMap();
+    map.putKey(null, "value");
+
+    assertEquals("value", map.getKey(null));
+    assertEquals("value", map.get(null));
+  }
+
+  @Test
+  public void shouldNotShadowMapMethods() {
+    SMap map = new SMap();
+
+    assertNull(map.put(null, "value"));
+    assertEquals("value", map.get(null));
+    assertTrue(map.containsKey(null));
+  }
+
+  @Test
+  public void shouldKeepIndexesInSync() {
+    SMap map = new SMap(new ShapedMap()).add("name", "John");
+    SMapIndex byName = SMapIndex.of(Arrays.asList(map), "name");
+
+    map.putKey(NAME, "Jane");
+
+    assertSame(map, byName.first("Jane"));
+    assertFalse(byName.contains("John"));
+  }
+
+  @Test
+  public void shouldCompareByNameAndType() {
+    assertEquals(SKey.of("amount", Long.class), AMOUNT);
+    assertEquals(AMOUNT.hashCode(), SKey.of("amount", Long.class).hashCode());
+    assertNotEquals(SKey.of("amount", Integer.class), AMOUNT);
+    assertEquals("amount", AMOUNT.toString());
+  }
+
+}
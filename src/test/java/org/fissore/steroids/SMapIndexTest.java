@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SMapIndexTest {
+
+  private SMap mymap;
+
+  @Before
+  public void setUp() {
+    List<Object> friends = Arrays.asList(
+        new SMap("name", "John", "surname", "Doe", "age", 30),
+        new SMap("name", "Jane", "surname", "Doe", "age", 28),
+        new SMap("name", "Mario", "surname", "Rossi", "age", 45),
+        new HashMap<>(Collections.singletonMap("name", "Anonymous"))
+    );
+    mymap = new SMap("friends", friends);
+  }
+
+  @Test
+  public void shouldFindMapsByValue() {
+    SMapIndex bySurname = SMapIndex.of(mymap.promoteMaps("friends"), "surname");
+
+    assertEquals(4, bySurname.size());
+    assertEquals(Arrays.asList("John", "Jane"), bySurname.get("Doe").stream().map(m -> m.s("name")).collect(Collectors.toList()));
+    assertEquals("Mario", bySurname.first("Rossi").s("name"));
+    assertEquals("Anonymous", bySurname.first((Object) null).s("name"));
+    assertTrue(bySurname.get("Smith").isEmpty());
+    assertNull(bySurname.first("Smith"));
+    assertFalse(bySurname.contains("Smith"));
+  }
+
+  @Test
+  public void shouldFindMapsByCompositeKey() {
+    SMapIndex byFullName = SMapIndex.of(mymap.promoteMaps("friends"), "surname", "name");
+
+    assertEquals(30, byFullName.first("Doe", "John").i("age"));
+    assertEquals(28, byFullName.first("Doe", "Jane").i("age"));
+    assertFalse(byFullName.contains("Rossi", "John"));
+    assertEquals(Arrays.asList("surname", "name"), byFullName.keys());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailWithWrongNumberOfValues() {
+    SMapIndex.of(mymap.promoteMaps("friends"), "surname", "name").get("Doe");
+  }
+
+  @Test
+  public void shouldWidenNumbers() {
+    SMapIndex byAge = SMapIndex.of(mymap.promoteMaps("friends"), "age");
+
+    assertEquals("Mario", byAge.first(45L).s("name"));
+    assertEquals("Mario", byAge.first(45).s("name"));
+  }
+
+  @Test
+  public void shouldFollowChanges() {
+    SMapIndex bySurname = SMapIndex.of(mymap.promoteMaps("friends"), "surname");
+    SMap john = mymap.promoteMaps("friends").filter(m -> "John".equals(m.s("name"))).findFirst().get();
+
+    john.add("surname", "Smith");
+    assertEquals(Collections.singletonList(john), bySurname.get("Smith"));
+    assertEquals(1, bySurname.get("Doe").size());
+
+    john.del("surname");
+    assertFalse(bySurname.contains("Smith"));
+    assertEquals(2, bySurname.get((Object) null).size());
+
+    john.add("lastName", "Smith").renameKey("lastName", "surname");
+    assertSame(john, bySurname.first("Smith"));
+
+    john.add("age", 31);
+    assertSame(john, bySurname.first("Smith"));
+    assertEquals(4, bySurname.size());
+
+    john.clear();
+    assertFalse(bySurname.contains("Smith"));
+    assertEquals(4, bySurname.size());
+  }
+
+  @Test
+  public void shouldFollowChangesOfUnboxedValues() {
+    SMap map = new SMap(new ShapedMap()).add("id", 1L);
+    SMapIndex byId = SMapIndex.of(Collections.singletonList(map), "id");
+
+    map.add("id", 2L);
+    assertFalse(byId.contains(1L));
+    assertSame(map, byId.first(2L));
+  }
+
+  @Test
+  public void shouldTrackMapsByIdentity() {
+    SMap first = new SMap("id", "a");
+    SMap second = new SMap("id", "a");
+    SMapIndex byId = SMapIndex.of(Arrays.asList(first, second, first), "id");
+
+    assertEquals(2, byId.size());
+    byId.remove(first);
+    assertEquals(Collections.singletonList(second), byId.get("a"));
+
+    first.add("id", "b");
+    assertFalse(byId.contains("b"));
+  }
+
+  @Test
+  public void shouldStopFollowingChangesWhenClosed() {
+    SMap map = new SMap("id", "a");
+    SMapIndex byId = SMapIndex.of(Collections.singletonList(map), "id");
+
+    byId.close();
+    map.add("id", "b");
+
+    assertEquals(0, byId.size());
+    assertFalse(byId.contains("b"));
+  }
+
+  @Test
+  public void shouldSupportManyIndexes() {
+    SMap map = new SMap("id", "a", "code", 1);
+    Map<String, Object> list = Collections.singletonMap("maps", Collections.singletonList(map));
+    SMapIndex byId = SMapIndex.of(new SMap(new HashMap<>(list)).promoteMaps("maps"), "id");
+    SMapIndex byCode = SMapIndex.of(Collections.singletonList(map), "code");
+
+    map.add("id", "b").add("code", 2);
+
+    assertSame(map, byId.first("b"));
+    assertSame(map, byCode.first(2));
+    assertFalse(byCode.contains(1));
+  }
+
+  @Test
+  public void shouldWatchMapsFromManyThreads() {
+    List<SMap> maps = IntStream.range(0, 100).mapToObj(i -> new SMap("id", i)).collect(Collectors.toList());
+    List<SMapIndex> indexes = IntStream.range(0, 64).parallel()
+        .mapToObj(i -> SMapIndex.of(maps, "id"))
+        .collect(Collectors.toList());
+
+    maps.forEach(map -> map.add("id", map.i("id") + 1000));
+
+    for (SMapIndex byId : indexes) {
+      assertSame(maps.get(0), byId.first(1000));
+      assertFalse(byId.contains(0));
+    }
+    indexes.parallelStream().forEach(SMapIndex::close);
+    maps.get(0).add("id", -1);
+    assertFalse(indexes.get(0).contains(-1));
+  }
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SMapTableTest {
+
+  private List<SMap> people;
+  private SMapTable table;
+
+  @Before
+  public void setUp() {
+    people = IntStream.range(0, 1000)
+        .mapToObj(i -> new SMap()
+            .add("id", (long) i)
+            .add("age", i % 100)
+            .add("height", 1.5d + (i % 50) / 100d)
+            .add("married", i % 2 == 0)
+            .add("city", i % 3 == 0 ? "Turin" : i % 3 == 1 ? "Milan" : "Rome")
+            .add("nickname", i % 10 == 0 ? "nick " + i : null)
+            .add("mixed", i % 2 == 0 ? (Object) i : "odd"))
+        .collect(Collectors.toList());
+    table = SMapTable.of(people);
+  }
+
+  @Test
+  public void shouldStoreRows() {
+    assertEquals(1000, table.size());
+    assertEquals(new HashSet<>(Arrays.asList("id", "age", "height", "married", "city", "nickname", "mixed")), new HashSet<>(table.columns()));
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(people.get(i), table.row(i));
+    }
+    assertEquals(people, table.rows().collect(Collectors.toList()));
+
+    SteroidMap<String> row = table.row(10);
+    assertEquals(10L, row.l("id"));
+    assertEquals(10, row.i("age"));
+    assertEquals(1.6d, row.d("height"), 1e-9);
+    assertTrue(row.b("married"));
+    assertEquals("Milan", row.s("city"));
+    assertEquals("nick 10", row.s("nickname"));
+    assertFalse(table.row(11).containsKey("nickname"));
+    assertFalse(table.row(11).valued("nickname"));
+    assertEquals("odd", table.row(11).s("mixed"));
+    assertEquals(-1, row.i("missing", -1));
+  }
+
+  @Test
+  public void shouldStoreRowsWithDifferentKeys() {
+    Date date = new Date();
+    SMapTable table = SMapTable.of(Arrays.asList(new SMap().add("a", 1), new SMap().add("b", "x"), new SMap().add("a", 2).add("c", date)));
+    assertEquals(new SMap().add("a", 1), table.row(0));
+    assertEquals(new SMap().add("b", "x"), table.row(1));
+    assertEquals(new SMap().add("a", 2).add("c", date), table.row(2));
+    assertEquals(2, table.count("a"));
+  }
+
+  @Test
+  public void shouldFilter() {
+    SMapTable adults = table.filterLong("age", age -> age >= 18);
+    assertEquals(820, adults.size());
+    assertEquals(people.stream().filter(person -> person.i("age") >= 18).collect(Collectors.toList()), adults.rows().collect(Collectors.toList()));
+
+    SMapTable tall = adults.filterDouble("height", height -> height > 1.9);
+    assertTrue(tall.rows().allMatch(person -> person.i("age") >= 18 && person.d("height") > 1.9));
+    assertEquals(people.stream().filter(person -> person.i("age") >= 18 && person.d("height") > 1.9).count(), tall.size());
+
+    assertEquals(334, table.filterString("city", "Turin"::equals).size());
+    assertEquals(100, table.filter("nickname", nickname -> true).size());
+    assertEquals(500, table.filter(person -> person.b("married")).size());
+    assertEquals(0, table.filterLong("id", id -> id < 0).size());
+    assertEquals(4L, table.filterString("city", "Milan"::equals).filterLong("id", id -> id > 1).row(0).l("id"));
+  }
+
+  @Test
+  public void shouldProject() {
+    SMapTable projection = table.filterLong("id", id -> id == 42).project("id", "city", "missing", "id");
+    assertEquals(Arrays.asList("id", "city"), projection.columns());
+    assertEquals(new SMap().add("id", 42L).add("city", "Turin"), projection.row(0));
+  }
+
+  @Test
+  public void shouldAggregate() {
+    assertEquals(499500L, table.sumLong("id"));
+    assertEquals(499500d, table.sum("id"), 0);
+    assertEquals(49.5d, table.avg("age"), 1e-9);
+    assertEquals(0d, table.min("age"), 0);
+    assertEquals(99d, table.max("age"), 0);
+    assertEquals(1.99d, table.max("height"), 1e-9);
+    assertEquals(100, table.count("nickname"));
+
+    SMapTable none = table.filterLong("id", id -> id < 0);
+    assertEquals(0, none.sumLong("id"));
+    assertTrue(Double.isNaN(none.avg("age")));
+    assertTrue(Double.isNaN(none.min("height")));
+  }
+
+  @Test
+  public void shouldWidenMixedNumbers() {
+    List<SMap> rows = Arrays.asList(
+        new SMap().add("count", 1).add("ratio", 0.5f),
+        new SMap().add("count", 1L << 40).add("ratio", 0.25d),
+        new SMap().add("count", 3).add("ratio", 2f)
+    );
+    SMapTable mixed = SMapTable.of(rows);
+
+    assertEquals(rows, mixed.rows().collect(Collectors.toList()));
+    assertEquals(1, mixed.row(0).i("count"));
+    assertEquals(1L << 40, mixed.row(1).l("count"));
+    assertEquals((1L << 40) + 4, mixed.sumLong("count"));
+    assertEquals(1, mixed.min("count"), 0);
+    assertEquals(2, mixed.filterLong("count", count -> count < 10).size());
+    assertEquals(2.75d, mixed.sum("ratio"), 0);
+    assertEquals(0.25d, mixed.min("ratio"), 0);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailToSumStrings() {
+    table.sum("city");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailOnUnknownColumns() {
+    table.filterLong("missing", value -> true);
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldHaveReadOnlyRows() {
+    table.row(0).add("id", 1L);
+  }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SPathTest {
+
+  private static final SPath STREETNAME = SPath.compile("address.streetname");
+  private static final SPath NUMBER = SPath.compile("address.number");
+  private static final SPath LATITUDE = SPath.compile("address.geo.latitude");
+
+  private SMap map;
+  private Date date;
+
+  @Before
+  public void setUp() {
+    date = new Date();
+    Map<String, Object> geo = new HashMap<>();
+    geo.put("latitude", 45.07d);
+    geo.put("since", date);
+    map = new SMap()
+        .add("name", "John")
+        .add("address", new SMap(new ShapedMap())
+            .add("streetname", "One way")
+            .add("number", 1)
+            .add("building", 2L)
+            .add("private", true)
+            .add("elevation", 239.5f)
+            .add("geo", geo))
+        .add("friends", Arrays.asList("Jane", "Joe"));
+  }
+
+  @Test
+  public void shouldEvaluateAgainstNestedMaps() {
+    assertEquals("John", SPath.compile("name").s(map));
+    assertEquals("One way", STREETNAME.s(map));
+    assertEquals(1, NUMBER.i(map));
+    assertEquals(2L, SPath.compile("address.building").l(map));
+    assertTrue(SPath.compile("address.private").b(map));
+    assertEquals(239.5f, SPath.compile("address.elevation").f(map), 0f);
+    assertEquals(45.07d, LATITUDE.d(map), 0d);
+    assertEquals(date, SPath.compile("address.geo.since").date(map));
+    assertEquals(Arrays.asList("Jane", "Joe"), SPath.compile("friends").list(map));
+    assertEquals(2, SPath.compile("friends").collection(map).size());
+    assertEquals(Double.valueOf(45.07d), LATITUDE.o(map));
+    assertEquals("One way", SPath.compile("address").map(map).s("streetname"));
+    assertEquals(45.07d, SPath.compile("address.geo").map(map).d("latitude"), 0d);
+  }
+
+  @Test
+  public void shouldNotBeValuedWhenAnyMapIsMissing() {
+    assertTrue(STREETNAME.valued(map));
+    assertTrue(NUMBER.valued(map));
+    assertFalse(SPath.compile("address.nonexistent").valued(map));
+    assertFalse(SPath.compile("nonexistent.streetname").valued(map));
+    assertFalse(SPath.compile("name.streetname").valued(map));
+    assertFalse(SPath.compile("address.streetname.nonexistent").valued(map));
+    assertNull(SPath.compile("nonexistent.streetname").get(map));
+    assertNull(SPath.compile("nonexistent").map(map));
+  }
+
+  @Test
+  public void shouldReturnDefaultValues() {
+    SPath missing = SPath.compile("address.nonexistent");
+    assertEquals(1L, missing.l(map, 1L));
+    assertEquals(2, missing.i(map, 2));
+    assertEquals(3d, missing.d(map, 3d), 0d);
+    assertEquals(4f, missing.f(map, 4f), 0f);
+    assertTrue(missing.b(map, true));
+    assertEquals("default", missing.s(map, "default"));
+    assertEquals(date, missing.date(map, date));
+    assertEquals("default", missing.o(map, "default"));
+    assertEquals(1, NUMBER.i(map, 2));
+    assertEquals("One way", STREETNAME.s(map, "default"));
+  }
+
+  @Test
+  public void shouldEvaluateAgainstPlainMaps() {
+    Map<String, Object> plain = Collections.singletonMap("address", Collections.singletonMap("number", 1));
+    assertEquals(1, NUMBER.i(plain));
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void shouldFailToReturnAMissingInteger() {
+    SPath.compile("nonexistent.number").i(map);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailToCompileAnEmptySegment() {
+    SPath.compile("address..streetname");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailToReturnANonMap() {
+    SPath.compile("name").map(map);
+  }
+
+  @Test
+  public void shouldBeEqualToSamePath() {
+    assertEquals(STREETNAME, SPath.compile("address.streetname"));
+    assertEquals(STREETNAME.hashCode(), SPath.compile("address.streetname").hashCode());
+    assertNotEquals(STREETNAME, NUMBER);
+    assertEquals("address.streetname", STREETNAME.toString());
+  }
+
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ShapedMapTest {
+
+  private SMap row(String name, String surname) {
+    return new SMap(new ShapedMap())
+        .add("name", name)
+        .add("surname", surname);
+  }
+
+  @Test
+  public void shouldShareShapeAmongMapsWithSameKeys() {
+    ShapedMap one = new ShapedMap();
+    one.put("name", "John");
+    one.put("surname", "Smith");
+    ShapedMap two = new ShapedMap();
+    two.put("name", "Jane");
+    two.put("surname", "Doe");
+
+    assertSame(one.shape(), two.shape());
+    assertSame(Shape.of("name", "surname"), one.shape());
+    assertEquals("John", one.get("name"));
+    assertEquals("Doe", two.get("surname"));
+  }
+
+  @Test
+  public void shouldTransitionShapeOnAddDelAndRename() {
+    ShapedMap backing = new ShapedMap();
+    SMap map = new SMap(backing)
+        .add("name", "John")
+        .add("surname", "Smith")
+        .add("height", 187);
+    assertSame(Shape.of("name", "surname", "height"), backing.shape());
+
+    map.del("surname");
+    assertSame(Shape.of("name", "height"), backing.shape());
+    assertEquals("John", map.s("name"));
+    assertEquals(187, map.i("height"));
+    assertTrue(map.notValued("surname"));
+
+    map.renameKey("name", "firstname");
+    assertSame(Shape.of("height", "firstname"), backing.shape());
+    assertEquals("John", map.s("firstname"));
+    assertTrue(map.notValued("name"));
+    assertEquals(2, map.size());
+  }
+
+  @Test
+  public void shouldBehaveLikeAHashMap() {
+    Map<String, Object> expected = new HashMap<>();
+    ShapedMap actual = new ShapedMap();
+    for (int i = 0; i < 20; i++) {
+      expected.put("key" + i, i);
+      actual.put("key" + i, i);
+    }
+    assertEquals(expected, actual);
+    assertEquals(actual, expected);
+    assertEquals(expected.hashCode(), actual.hashCode());
+
+    assertEquals(5, actual.put("key5", 55));
+    assertEquals(55, actual.get("key5"));
+    assertEquals(10, actual.remove("key10"));
+    assertNull(actual.remove("key10"));
+    assertFalse(actual.containsKey("key10"));
+    assertEquals(19, actual.size());
+    assertEquals(19, actual.get("key19"));
+
+    actual.clear();
+    assertTrue(actual.isEmpty());
+    assertNull(actual.get("key1"));
+  }
+
+  @Test
+  public void shouldIterateAndRemoveThroughEntrySet() {
+    ShapedMap map = new ShapedMap(new SMap("one", 1, "two", 2, "three", 3));
+
+    Iterator<Map.Entry<String, Object>> it = map.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, Object> entry = it.next();
+      if (entry.getKey().equals("two")) {
+        it.remove();
+      } else {
+        entry.setValue((Integer) entry.getValue() * 10);
+      }
+    }
+
+    assertEquals(2, map.size());
+    assertEquals(10, map.get("one"));
+    assertEquals(30, map.get("three"));
+    assertFalse(map.containsKey("two"));
+  }
+
+  @Test(expected = ConcurrentModificationException.class)
+  public void shouldFailIteratingAModifiedMap() {
+    ShapedMap map = new ShapedMap(new SMap("one", 1, "two", 2));
+    for (String key : map.keySet()) {
+      map.put(key + key, 0);
+    }
+  }
+
+  @Test
+  public void shouldReturnShapedSubMapsAndCopies() {
+    SMap map = row("John", "Smith").add("height", 187);
+
+    SMap subMap = map.subMap("name", "surname");
+    assertEquals(row("John", "Smith"), subMap);
+
+    SMap copy = map.copy();
+    assertEquals(map, copy);
+  }
+
+  @Test
+  public void shouldStorePrimitivesUnboxed() {
+    SMap map = new SMap(new ShapedMap())
+        .add("name", "John")
+        .add("long", Long.MAX_VALUE)
+        .add("int", Integer.MIN_VALUE)
+        .add("double", Double.MAX_VALUE)
+        .add("float", -1.5f)
+        .add("boolean", true);
+
+    assertEquals(Long.MAX_VALUE, map.l("long"));
+    assertEquals(Integer.MIN_VALUE, map.i("int"));
+    assertEquals(Double.MAX_VALUE, map.d("double"), 0d);
+    assertEquals(-1.5f, map.f("float"), 0f);
+    assertTrue(map.b("boolean"));
+    assertEquals(1L, map.l("missing", 1L));
+    assertEquals(Long.MAX_VALUE, map.l("long", 1L));
+
+    assertEquals(Long.MAX_VALUE, map.get("long"));
+    assertEquals(Integer.MIN_VALUE, map.get("int"));
+    assertEquals(-1.5f, map.get("float"));
+    assertEquals(Boolean.TRUE, map.get("boolean"));
+    assertTrue(map.valued("long"));
+    assertEquals(new SMap()
+        .add("name", "John")
+        .add("long", Long.MAX_VALUE)
+        .add("int", Integer.MIN_VALUE)
+        .add("double", Double.MAX_VALUE)
+        .add("float", -1.5f)
+        .add("boolean", true), map);
+
+    map.del("name", "int");
+    assertEquals(Long.MAX_VALUE, map.l("long"));
+    assertEquals(-1.5f, map.f("float"), 0f);
+    assertTrue(map.notValued("int"));
+
+    map.add("long", "not a long anymore");
+    assertEquals("not a long anymore", map.s("long"));
+    map.add("double", 42L);
+    assertEquals(42L, map.l("double"));
+  }
+
+  @Test(expected = ClassCastException.class)
+  public void shouldFailToReadAPrimitiveOfAnotherType() {
+    new SMap(new ShapedMap()).add("int", 1).l("int");
+  }
+
+  @Test(expected = NullPointerException.class)
+  public void shouldFailToReadAMissingPrimitive() {
+    new SMap(new ShapedMap()).l("missing");
+  }
+
+  @Test
+  public void shouldMoveWideMapsToAPlainMap() {
+    SMap wide = new SMap(new ShapedMap());
+    for (int i = 0; i < 10_000; i++) {
+      wide.add("key" + i, (long) i);
+    }
+
+    assertEquals(10_000, wide.size());
+    assertEquals(42L, wide.l("key42"));
+    assertEquals(9_999L, wide.l("key9999"));
+    assertEquals("key0", wide.keySet().iterator().next());
+    assertTrue(wide.valued("key100"));
+
+    wide.del("key42").renameKey("key43", "renamed");
+    assertFalse(wide.containsKey("key42"));
+    assertEquals(43L, wide.l("renamed"));
+    assertEquals(9_999, wide.size());
+
+    wide.clear();
+    assertTrue(wide.isEmpty());
+    assertEquals(1L, wide.add("one", 1L).l("one"));
+  }
+
+  @Test
+  public void shouldKeepValuesWhenMovingToAPlainMap() {
+    ShapedMap map = new ShapedMap();
+    new SMap(map).add("long", 1L).add("double", 2.5).add("boolean", true).add("string", "value");
+    Map<String, Object> expected = new HashMap<>(map);
+    for (int i = 0; i < Shape.MAX_CACHED_KEYS; i++) {
+      map.put("key" + i, i);
+      expected.put("key" + i, i);
+    }
+
+    assertEquals(expected, map);
+    assertEquals(Arrays.asList("long", "double", "boolean", "string"), new ArrayList<>(map.keySet()).subList(0, 4));
+  }
+
+  @Test
+  public void shouldNotCacheWideShapes() {
+    Shape shape = Shape.EMPTY;
+    for (int i = 0; i <= Shape.MAX_CACHED_KEYS; i++) {
+      shape = shape.with("key" + i);
+    }
+
+    assertNotSame(shape.without("key0").with("key0"), shape.without("key0").with("key0"));
+    assertSame(Shape.of("a", "b"), Shape.of("a", "b", "a"));
+  }
+
+  @Test
+  public void shouldRejectNullKeys() {
+    try {
+      new ShapedMap().put(null, "value");
+      fail();
+    } catch (NullPointerException e) {
+      assertEquals("ShapedMap doesn't support null keys", e.getMessage());
+    }
+    assertNull(new ShapedMap().get(null));
+  }
+
+}
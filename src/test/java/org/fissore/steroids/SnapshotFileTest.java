@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class SnapshotFileTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  private Path path;
+
+  @Before
+  public void setUp() throws IOException {
+    path = folder.newFile("snapshot").toPath();
+  }
+
+  private static SMap city(int i) {
+    return new SMap()
+        .add("id", i)
+        .add("name", "City " + i)
+        .add("population", 1000L * i)
+        .add("founded", new Date(-1000L * i))
+        .add("location", new SMap().add("latitude", 45.07d).add("longitude", 7.68d))
+        .add("districts", Arrays.asList(new SMap().add("name", "North"), new SMap().add("name", "South")))
+        .add("zip", Arrays.asList(10100, "10121"))
+        .add("capital", i == 0);
+  }
+
+  @Test
+  public void shouldWriteAndRead() throws IOException {
+    List<SMap> cities = IntStream.range(0, 1000).mapToObj(SnapshotFileTest::city).collect(Collectors.toList());
+    SnapshotFile.write(path, cities);
+
+    SnapshotFile snapshot = SnapshotFile.open(path);
+    assertEquals(1000, snapshot.size());
+    assertEquals(cities.get(42), snapshot.get(42));
+    assertEquals("City 999", snapshot.get(999).s("name"));
+    assertEquals(7.68d, snapshot.get(500).map("location").d("longitude"), 0);
+    assertEquals(Arrays.asList("North", "South"), snapshot.get(7).maps("districts").map(district -> district.s("name")).collect(Collectors.toList()));
+    assertEquals(cities, snapshot.stream().collect(Collectors.toList()));
+    assertTrue(snapshot.stream().parallel().allMatch(city -> city.valued("founded")));
+  }
+
+  @Test
+  public void shouldWriteStreams() throws IOException {
+    SnapshotFile.write(path, IntStream.range(0, 10).mapToObj(SnapshotFileTest::city));
+    assertEquals(city(9), SnapshotFile.open(path).get(9));
+  }
+
+  @Test
+  public void shouldWriteEmptyFiles() throws IOException {
+    SnapshotFile.write(path, Collections.emptyList());
+    SnapshotFile snapshot = SnapshotFile.open(path);
+    assertEquals(0, snapshot.size());
+    assertEquals(0, snapshot.stream().count());
+  }
+
+  @Test
+  public void shouldReadKeysDefinedByLaterMaps() throws IOException {
+    SnapshotFile.write(path, Arrays.asList(new SMap().add("a", 1), new SMap().add("b", 2).add("a", 3), new SMap().add("b", 4)));
+    SnapshotFile snapshot = SnapshotFile.open(path);
+    assertEquals(new SMap().add("b", 4), snapshot.get(2));
+    assertEquals(new SMap().add("b", 2).add("a", 3), snapshot.get(1));
+  }
+
+  @Test
+  public void shouldReplaceFilesAtomically() throws IOException {
+    SnapshotFile.write(path, Collections.singletonList(city(1)));
+    SnapshotFile old = SnapshotFile.open(path);
+
+    SnapshotFile.write(path, IntStream.range(0, 100).mapToObj(SnapshotFileTest::city));
+    assertEquals(city(1), old.get(0));
+    assertEquals(100, SnapshotFile.open(path).size());
+    assertArrayEquals(new String[] { "snapshot" }, folder.getRoot().list());
+  }
+
+  @Test
+  public void shouldKeepFilesWhenWritingFails() throws IOException {
+    SnapshotFile.write(path, Collections.singletonList(city(1)));
+    try {
+      SnapshotFile.write(path, Arrays.asList(city(2), null));
+      fail();
+    } catch (IllegalArgumentException e) {
+      assertEquals(city(1), SnapshotFile.open(path).get(0));
+      assertArrayEquals(new String[] { "snapshot" }, folder.getRoot().list());
+    }
+  }
+
+  @Test
+  public void shouldHaveTheDefaultPermissionsOfNewFiles() throws IOException {
+    Assume.assumeTrue(path.getFileSystem().supportedFileAttributeViews().contains("posix"));
+    Set<PosixFilePermission> defaults = Files.getPosixFilePermissions(folder.newFile("other").toPath());
+
+    SnapshotFile.write(path, Collections.singletonList(city(1)));
+    assertEquals(defaults, Files.getPosixFilePermissions(path));
+    Files.delete(path);
+    SnapshotFile.write(path, Collections.singletonList(city(1)));
+    assertEquals(defaults, Files.getPosixFilePermissions(path));
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void shouldBeReadOnly() throws IOException {
+    SnapshotFile.write(path, Collections.singletonList(city(1)));
+    SnapshotFile.open(path).get(0).add("name", "Turin");
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void shouldFailOnMissingMaps() throws IOException {
+    SnapshotFile.write(path, Collections.singletonList(city(1)));
+    SnapshotFile.open(path).get(1);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void shouldFailOnOtherFiles() throws IOException {
+    Files.write(path, "not a snapshot file".getBytes());
+    SnapshotFile.open(path);
+  }
+
+}
@@ -17,7 +17,10 @@ package org.fissore.steroids;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 import org.junit.Before;
@@ -108,6 +111,46 @@ public class SteroidMapTest {
     assertTrue(map.notValued("empty_key"));
   }
 
+  @Test
+  public void shouldAddPrimitives() {
+    map
+        .add("primitiveLong", 1L)
+        .add("primitiveInt", 2)
+        .add("primitiveDouble", 3d)
+        .add("primitiveFloat", 4f)
+        .add("primitiveBoolean", false);
+
+    assertEquals(1L, map.get("primitiveLong"));
+    assertEquals(2, map.get("primitiveInt"));
+    assertEquals(3d, map.get("primitiveDouble"));
+    assertEquals(4f, map.get("primitiveFloat"));
+    assertEquals(false, map.get("primitiveBoolean"));
+    assertEquals(1L, map.l("primitiveLong"));
+    assertFalse(map.b("primitiveBoolean", true));
+  }
+
+  @Test
+  public void shouldSizeBackingMapsWithoutWastingBuckets() {
+    assertEquals(16, SMap.capacity(12));
+    assertEquals(32, SMap.capacity(24));
+    assertEquals(18, SMap.capacity(13));
+    assertEquals(3, SMap.capacity(2));
+  }
+
+  @Test
+  public void shouldAddNarrowPrimitivesWithTheirOwnType() {
+    for (SteroidMap<String> target : Arrays.<SteroidMap<String>>asList(map, new SMap(new ShapedMap()), PersistentSMap.empty())) {
+      target = target
+          .add("primitiveChar", 'c')
+          .add("primitiveShort", (short) 2)
+          .add("primitiveByte", (byte) 3);
+
+      assertEquals('c', target.get("primitiveChar"));
+      assertEquals((short) 2, target.get("primitiveShort"));
+      assertEquals((byte) 3, target.get("primitiveByte"));
+    }
+  }
+
   @Test
   public void shouldAddMultipleElements() {
     Map<String, Object> other = new HashMap<>();
@@ -417,9 +460,95 @@ public class SteroidMapTest {
     assertEquals(new LinkedList<>(), emptyStream.collect(Collectors.toList()));
   }
 
+  @Test
+  public void shouldPromoteAMap() {
+    SMap promoted = map.promoteMap("simpleMap");
+    assertEquals(simpleMap, promoted);
+    assertSame(promoted, map.get("simpleMap"));
+    assertSame(promoted, map.promoteMap("simpleMap"));
+    assertSame(submap, map.promoteMap("submap"));
+    assertNull(map.promoteMap("nonexistent"));
+  }
+
+  @Test
+  public void shouldPromoteMaps() {
+    Map<String, Object> plain = new HashMap<>();
+    plain.put("key", "value2");
+    SMap smap = new SMap("key", "value1");
+    List<Object> maps = new ArrayList<>(Arrays.asList(smap, plain));
+    map.add("maps", maps);
+
+    List<SMap> promoted = map.promoteMaps("maps").collect(Collectors.toList());
+    assertSame(smap, promoted.get(0));
+    assertSame(promoted.get(1), maps.get(1));
+    assertEquals(plain, promoted.get(1));
+    assertEquals(promoted, map.promoteMaps("maps").collect(Collectors.toList()));
+    assertSame(promoted.get(1), map.promoteMaps("maps").skip(1).findFirst().get());
+
+    assertEquals(0, map.promoteMaps("nonexistent").count());
+
+    List<Object> linked = new LinkedList<>(Collections.singletonList(plain));
+    map.add("linked", linked);
+    SMap promotedFromLinked = map.promoteMaps("linked").findFirst().get();
+    assertSame(promotedFromLinked, linked.get(0));
+  }
+
+  @Test(expected = ConcurrentModificationException.class)
+  public void shouldFailOnListsShrinkingWhilePromoted() {
+    List<Object> maps = new ArrayList<>(Arrays.asList(Collections.singletonMap("id", 1), Collections.singletonMap("id", 2), Collections.singletonMap("id", 3)));
+    map.add("maps", maps);
+    map.promoteMaps("maps").forEach(m -> maps.remove(maps.size() - 1));
+  }
+
+  @Test
+  public void shouldPromoteMapsOfReadOnlyCollections() {
+    map.add("list", Collections.unmodifiableList(Arrays.asList(new SMap("key", "value1"), Collections.singletonMap("key", "value2"))));
+    map.add("set", Collections.singleton(Collections.singletonMap("key", "value3")));
+
+    assertEquals(Arrays.asList("value1", "value2"), map.promoteMaps("list").map(m -> m.s("key")).collect(Collectors.toList()));
+    assertEquals(Collections.singletonList("value3"), map.promoteMaps("set").map(m -> m.s("key")).collect(Collectors.toList()));
+  }
+
+  @Test
+  public void shouldStreamInParallel() {
+    List<Object> maps = new ArrayList<>();
+    for (int i = 0; i < 10000; i++) {
+      maps.add(i % 2 == 0 ? new SMap("id", i) : Collections.singletonMap("id", i));
+    }
+    map.add("maps", maps);
+    map.add("numbers", IntStream.range(0, 10000).boxed().collect(Collectors.toCollection(LinkedList::new)));
+
+    assertTrue(map.parallelMaps("maps").isParallel());
+    assertEquals(49995000L, map.parallelMaps("maps").mapToLong(m -> m.i("id")).sum());
+    assertEquals(5000, maps.stream().filter(m -> m instanceof SMap).count());
+    assertEquals(IntStream.range(0, 10000).boxed().collect(Collectors.toList()), map.parallelMaps("maps").map(m -> m.i("id")).collect(Collectors.toList()));
+    assertEquals(0, map.parallelMaps("nonexistent").count());
+
+    assertEquals(49995000L, map.<Integer>parallelStream("numbers").mapToLong(i -> i).sum());
+    assertEquals(list, map.parallelStream("list").collect(Collectors.toList()));
+  }
+
+  @Test
+  public void shouldStreamInParallelInGivenPool() {
+    map.add("maps", IntStream.range(0, 1000).mapToObj(i -> new SMap("id", i)).collect(Collectors.toList()));
+    map.add("numbers", IntStream.range(0, 1000).boxed().collect(Collectors.toList()));
+
+    ForkJoinPool pool = new ForkJoinPool(2);
+    try {
+      Set<Thread> threads = ConcurrentHashMap.newKeySet();
+      long count = map.parallelMaps("maps", pool, maps -> maps.peek(m -> threads.add(Thread.currentThread())).filter(m -> m.i("id") % 2 == 0).count());
+      assertEquals(500, count);
+      assertTrue(threads.stream().allMatch(thread -> thread instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) thread).getPool() == pool));
+
+      assertEquals(Integer.valueOf(999), map.<Integer, Integer>parallelStream("numbers", pool, numbers -> numbers.max(Integer::compare).get()));
+    } finally {
+      pool.shutdown();
+    }
+  }
+
   @Test(expected = IllegalArgumentException.class)
   public void shouldFailToCallMapsWithNonMaps() throws Exception {
-    map.maps("list").count();
+    map.maps("list").collect(Collectors.toList());
   }
 
   @Test
@@ -461,6 +590,31 @@ public class SteroidMapTest {
     assertTrue(listColl.valued("coll"));
   }
 
+  @Test
+  public void shouldReturnASubMapBackedBySameMapClass() {
+    SMap linked = new SMap(new LinkedHashMap<>()).add("c", 3).add("b", 2).add("a", 1);
+    assertEquals(Arrays.asList("c", "a"), new ArrayList<>(linked.subMap("c", "a").keySet()));
+    assertEquals(Arrays.asList("c", "b", "a"), new ArrayList<>(linked.copy().keySet()));
+
+    SMap reversed = new SMap(new TreeMap<>(Comparator.reverseOrder())).add("a", 1).add("c", 3).add("b", 2);
+    assertEquals(Arrays.asList("c", "a"), new ArrayList<>(reversed.subMap(Arrays.asList("a", "c")).keySet()));
+  }
+
+  @Test
+  public void shouldUseGivenMapFactory() {
+    List<Integer> expectedSizes = new LinkedList<>();
+    SMap map = new SMap(new HashMap<>(), expectedSize -> {
+      expectedSizes.add(expectedSize);
+      return new TreeMap<>();
+    });
+    map.add("b", 2).add("a", 1).add("nested", new HashMap<>());
+
+    assertEquals(Arrays.asList("a", "b"), new ArrayList<>(map.subMap("b", "a").keySet()));
+    assertEquals(Arrays.asList("a", "b", "nested"), new ArrayList<>(map.copy().keySet()));
+    assertEquals(Collections.singletonList("x"), new ArrayList<>(map.map("nested").add("x", 0).subMap(Arrays.asList("x")).keySet()));
+    assertEquals(Arrays.asList(2, 3, 1), expectedSizes);
+  }
+
   @Test(expected = RuntimeException.class)
   public void shouldThrowExceptionWhenAttemptingToReturnASubMap() {
     new SMap(new PrivateMap()).subMap();
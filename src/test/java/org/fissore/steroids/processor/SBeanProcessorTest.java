@@ -0,0 +1,231 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids.processor;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.fissore.steroids.SBean;
+import org.fissore.steroids.SMap;
+import org.fissore.steroids.ShapedMap;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SBeanProcessorTest {
+
+  @SBean
+  public static class Address {
+    String street;
+
+    @SBean.Key("building_number")
+    int number;
+  }
+
+  @SBean
+  public static class Escaped {
+    @SBean.Key("tab\tcr\rnl\nnul\u0000quote\"backslash\\caffè")
+    String value;
+  }
+
+  public static class Entity {
+    private long id;
+
+    public long getId() {
+      return id;
+    }
+
+    public void setId(long id) {
+      this.id = id;
+    }
+  }
+
+  @SBean
+  public static class Person extends Entity {
+    private String name;
+    private boolean active;
+    double score;
+    short level;
+    char initial;
+    Long visits;
+    Address address;
+    List<String> friends;
+    transient String cached;
+    static String ignored = "ignored";
+
+    public String getName() {
+      return name;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public boolean isActive() {
+      return active;
+    }
+
+    public void setActive(boolean active) {
+      this.active = active;
+    }
+  }
+
+  private static Person person() {
+    Person person = new Person();
+    person.setId(7);
+    person.setName("John");
+    person.setActive(true);
+    person.score = 7.5;
+    person.level = 3;
+    person.initial = 'J';
+    person.address = new Address();
+    person.address.street = "Main street";
+    person.address.number = 12;
+    person.friends = Arrays.asList("Jane", "Joe");
+    person.cached = "cached";
+    return person;
+  }
+
+  @Test
+  public void shouldConvertBeansToMaps() {
+    SMap map = SBeanProcessorTest_PersonMapper.toSMap(person());
+
+    assertEquals(7L, map.l("id"));
+    assertEquals("John", map.s("name"));
+    assertTrue(map.b("active"));
+    assertEquals(7.5, map.d("score"), 0);
+    assertEquals((short) 3, map.get("level"));
+    assertEquals('J', map.get("initial"));
+    assertFalse(map.containsKey("visits"));
+    assertEquals("Main street", map.map("address").s("street"));
+    assertEquals(12, map.map("address").i("building_number"));
+    assertEquals(Arrays.asList("Jane", "Joe"), map.list("friends"));
+    assertFalse(map.containsKey("cached"));
+    assertFalse(map.containsKey("ignored"));
+    assertEquals(8, map.size());
+  }
+
+  @Test
+  public void shouldConvertMapsToBeans() {
+    SMap map = new SMap("id", 7L, "name", "John")
+        .add("active", true)
+        .add("level", 3)
+        .add("initial", (Object) 'J')
+        .add("visits", 10L)
+        .add("address", new SMap("street", "Main street", "building_number", 12));
+
+    Person person = SBeanProcessorTest_PersonMapper.fromSMap(map);
+
+    assertEquals(7L, person.getId());
+    assertEquals("John", person.getName());
+    assertTrue(person.isActive());
+    assertEquals(0, person.score, 0);
+    assertEquals(3, person.level);
+    assertEquals('J', person.initial);
+    assertEquals(Long.valueOf(10L), person.visits);
+    assertEquals("Main street", person.address.street);
+    assertEquals(12, person.address.number);
+    assertNull(person.friends);
+  }
+
+  @Test
+  public void shouldRoundTrip() {
+    Person person = SBeanProcessorTest_PersonMapper.fromSMap(SBeanProcessorTest_PersonMapper.toSMap(person()));
+
+    assertEquals(SBeanProcessorTest_PersonMapper.toSMap(person()), SBeanProcessorTest_PersonMapper.toSMap(person));
+  }
+
+  @Test
+  public void shouldReadUnboxedValues() {
+    SMap map = new SMap(new ShapedMap()).add("street", "Main street").add("building_number", 12);
+
+    assertEquals(12, SBeanProcessorTest_AddressMapper.fromSMap(map).number);
+  }
+
+  @Test
+  public void shouldEscapeKeys() {
+    String key = "tab\tcr\rnl\nnul\u0000quote\"backslash\\caffè";
+    Escaped escaped = new Escaped();
+    escaped.value = "value";
+
+    assertEquals(new SMap(key, "value"), SBeanProcessorTest_EscapedMapper.toSMap(escaped));
+    assertEquals("value", SBeanProcessorTest_EscapedMapper.fromSMap(new SMap(key, "value")).value);
+    assertEquals("\"a\\u0009b\\r\\n\\u0001\\u00e8\"", Sources.literal("a\tb\r\n\u0001è"));
+  }
+
+  @Test
+  public void shouldMapNulls() {
+    assertNull(SBeanProcessorTest_PersonMapper.toSMap(null));
+    assertNull(SBeanProcessorTest_PersonMapper.fromSMap(null));
+  }
+
+  @Test
+  public void shouldRejectFieldsWithoutAccessors() throws IOException {
+    List<String> errors = compile("package test; @org.fissore.steroids.SBean public class Bad { private String name; public String getName() { return name; } }");
+
+    assertEquals(1, errors.size());
+    assertTrue(errors.get(0), errors.get(0).contains("a setter"));
+  }
+
+  @Test
+  public void shouldRejectBeansWithoutDefaultConstructor() throws IOException {
+    List<String> errors = compile("package test; @org.fissore.steroids.SBean public class Bad { public Bad(String name) { } }");
+
+    assertEquals(Collections.singletonList("@SBean classes need a constructor without arguments, visible from their package"), errors);
+  }
+
+  @Test
+  public void shouldRejectInterfaces() throws IOException {
+    List<String> errors = compile("package test; @org.fissore.steroids.SBean public interface Bad { }");
+
+    assertEquals(Collections.singletonList("@SBean can only be used on classes"), errors);
+  }
+
+  private static List<String> compile(String source) throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///test/Bad.java"), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return source;
+      }
+    };
+    Path output = Files.createTempDirectory("sbean");
+    JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+        Arrays.asList("-d", output.toString(), "-s", output.toString(), "-classpath", System.getProperty("java.class.path")),
+        null, Collections.singletonList(file));
+    task.setProcessors(Collections.singletonList(new SBeanProcessor()));
+    task.call();
+    return diagnostics.getDiagnostics().stream()
+        .filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+        .map(diagnostic -> diagnostic.getMessage(null))
+        .collect(Collectors.toList());
+  }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2017 Federico Fissore <federico@fissore.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.fissore.steroids.processor;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import org.fissore.steroids.SMap;
+import org.fissore.steroids.SView;
+import org.fissore.steroids.ShapedMap;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SViewProcessorTest {
+
+  @SView
+  public interface Address {
+    String street();
+
+    @SView.Key("building_number")
+    int number();
+  }
+
+  @SView
+  public interface Person {
+    String getName();
+
+    long age();
+
+    boolean isActive();
+
+    double score();
+
+    Address address();
+
+    List<String> friends();
+
+    default String greeting() {
+      return "Hello " + getName();
+    }
+  }
+
+  @SView
+  interface Employee extends Person {
+    String company();
+
+    @Override
+    String toString();
+  }
+
+  private final SMap map = new SMap("name", "John", "age", 42L)
+      .add("active", true)
+      .add("score", 7.5)
+      .add("address", new SMap("street", "Main street", "building_number", 12))
+      .add("friends", Arrays.asList("Jane", "Joe"));
+
+  @Test
+  public void shouldReadValuesFromTheMap() {
+    Person person = new SViewProcessorTest_PersonView(map);
+
+    assertEquals("John", person.getName());
+    assertEquals(42L, person.age());
+    assertTrue(person.isActive());
+    assertEquals(7.5, person.score(), 0);
+    assertEquals("Main street", person.address().street());
+    assertEquals(12, person.address().number());
+    assertEquals(Arrays.asList("Jane", "Joe"), person.friends());
+    assertEquals("Hello John", person.greeting());
+  }
+
+  @Test
+  public void shouldSeeChangesToTheMap() {
+    Person person = new SViewProcessorTest_PersonView(map);
+
+    map.add("name", "Johnny").del("address");
+
+    assertEquals("Johnny", person.getName());
+    assertNull(person.address());
+  }
+
+  @Test
+  public void shouldReadUnboxedValues() {
+    SMap shaped = new SMap(new ShapedMap()).add("name", "John").add("age", 42L).add("active", false).add("score", 1.5);
+
+    Person person = new SViewProcessorTest_PersonView(shaped);
+
+    assertEquals(42L, person.age());
+    assertFalse(person.isActive());
+  }
+
+  @Test
+  public void shouldImplementInheritedGetters() {
+    SMap employeeMap = map.copy().add("company", "ACME");
+    Employee employee = new SViewProcessorTest_EmployeeView(employeeMap);
+
+    assertEquals("ACME", employee.company());
+    assertEquals("John", employee.getName());
+    assertEquals(employeeMap.toString(), employee.toString());
+  }
+
+  @Test
+  public void shouldDelegateEqualsToTheMap() {
+    assertEquals(new SViewProcessorTest_PersonView(map), new SViewProcessorTest_PersonView(map.copy()));
+    assertEquals(map.hashCode(), new SViewProcessorTest_PersonView(map).hashCode());
+  }
+
+  @Test
+  public void shouldRejectNonGetters() throws IOException {
+    List<String> errors = compile("package test; @org.fissore.steroids.SView public interface Bad { void name(String name); }");
+
+    assertEquals(1, errors.size());
+    assertTrue(errors.get(0), errors.get(0).contains("can only have getters"));
+  }
+
+  @Test
+  public void shouldRejectClasses() throws IOException {
+    List<String> errors = compile("package test; @org.fissore.steroids.SView public class Bad { }");
+
+    assertEquals(Collections.singletonList("@SView can only be used on interfaces"), errors);
+  }
+
+  private static List<String> compile(String source) throws IOException {
+    JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///test/Bad.java"), JavaFileObject.Kind.SOURCE) {
+      @Override
+      public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+        return source;
+      }
+    };
+    Path output = Files.createTempDirectory("sview");
+    JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+        Arrays.asList("-d", output.toString(), "-s", output.toString(), "-classpath", System.getProperty("java.class.path")),
+        null, Collections.singletonList(file));
+    task.setProcessors(Collections.singletonList(new SViewProcessor()));
+    task.call();
+    return diagnostics.getDiagnostics().stream()
+        .filter(diagnostic -> diagnostic.getKind() == Diagnostic.Kind.ERROR)
+        .map(diagnostic -> diagnostic.getMessage(null))
+        .collect(Collectors.toList());
+  }
+
+}